@@ -0,0 +1,91 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.keycloak.gh.bot.utils.FlakyJob;
+import org.keycloak.gh.bot.utils.FlakyTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.keycloak.gh.bot.BotTestUtils.fixedClock;
+import static org.keycloak.gh.bot.BotTestUtils.openStateStore;
+
+/**
+ * Queries the flaky test history with 300 000 occurrences of 1000 tests over 60 days, where both queries should take
+ * well below 100ms. Run with:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=FlakyTestHistoryBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlakyTestHistoryBenchmark {
+
+    @Param({ "30", "90" })
+    int days;
+
+    private BotStateStore store;
+    private FlakyTestHistory history;
+    private int test;
+
+    @Setup
+    public void setup() throws IOException {
+        store = openStateStore();
+
+        history = new FlakyTestHistory();
+        history.retention = Duration.ofDays(90);
+        history.stateStore = store;
+        history.meterRegistry = new SimpleMeterRegistry();
+        history.init();
+
+        for (int day = 0; day < 60; day++) {
+            history.clock = fixedClock(Duration.ofDays(day));
+            for (int run = 0; run < 50; run++) {
+                FlakyJob flakyJob = new FlakyJob();
+                flakyJob.setWorkflow("Keycloak CI");
+                flakyJob.setJobName("Base IT (1)");
+                for (int t = 0; t < 100; t++) {
+                    FlakyTest flakyTest = new FlakyTest(flakyJob, "org.keycloak.Flaky" + ((day * 7 + run * 13 + t) % 1000) + "Test", "test");
+                    flakyTest.addFailure("Failure " + (t % 3));
+                    flakyJob.addFlakyTest(flakyTest);
+                }
+                history.record(day * 100L + run, List.of(flakyJob));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public Object top() {
+        return history.top(days, 20);
+    }
+
+    @Benchmark
+    public Object rate() {
+        test = (test + 1) % 1000;
+        return history.rate("org.keycloak.Flaky" + test + "Test#test", days);
+    }
+
+}
@@ -0,0 +1,51 @@
+package org.keycloak.gh.bot.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fingerprints a stack trace trimmed the same way as by {@link FlakyJobParser}. Compare the allocations of hashing
+ * while scanning with building the normalized string, for example:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="FailureFingerprintBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FailureFingerprintBenchmark {
+
+    private final String stackTrace = "java.lang.AssertionError: Session 3f2b8c1e-9d4a-4e7b-a1c2-0e5f6d7a8b9c expired at 2026-10-18T12:01:02.345Z, server localhost:41234\n"
+            + "\tat org.junit.Assert.fail(Assert.java:89)\n"
+            + "\tat org.keycloak.testsuite.FlakyTest.lambda$flaky$3(FlakyTest.java:120)\n"
+            + "\tat org.keycloak.testsuite.FlakyTest$$Lambda$1234/0x00000008012a3b40.run(Unknown Source)\n"
+            + "\tat jdk.internal.reflect.GeneratedMethodAccessor87.invoke(Unknown Source)\n...";
+
+    @Benchmark
+    public String signature() {
+        return FailureFingerprint.signature(stackTrace);
+    }
+
+    @Benchmark
+    public long hash() {
+        return FailureFingerprint.hash(stackTrace);
+    }
+
+    @Benchmark
+    public String normalize() {
+        return FailureFingerprint.normalize(stackTrace);
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.keycloak.gh.bot.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Parses generated flaky test artifacts with many reports and long stack traces. Run with a small heap to see the
+ * effect of the stack traces on memory, for example:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="FlakyJobParserBenchmark -jvmArgs -Xmx150m -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlakyJobParserBenchmark {
+
+    @Param({ "10" })
+    int reports;
+
+    @Param({ "10", "100000" })
+    int stackTraceLines;
+
+    private Path file;
+    private ZipFile zipFile;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("flaky-tests-", ".zip");
+        Files.write(file, createArtifact(reports, 2, stackTraceLines));
+        zipFile = new ZipFile(file.toFile());
+        pool = new ForkJoinPool(2);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        zipFile.close();
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public FlakyJob parse() {
+        return FlakyJobParser.parse(zipFile, pool);
+    }
+
+    /**
+     * Creates a zip in the same layout as the flaky test artifacts uploaded by Keycloak CI
+     */
+    static byte[] createArtifact(int reports, int testsPerReport, int stackTraceLines) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("job-summary.properties"));
+            zip.write("job_name=Base IT (1)\njob_url=https://github.com/keycloak/keycloak/actions/runs/1/job/1\n".getBytes(StandardCharsets.UTF_8));
+
+            for (int r = 0; r < reports; r++) {
+                String className = "org.keycloak.testsuite.Flaky" + r + "Test";
+                zip.putNextEntry(new ZipEntry("testsuite/target/surefire-reports/TEST-" + className + ".xml"));
+
+                StringBuilder xml = new StringBuilder();
+                xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"").append(className).append("\">\n");
+                for (int t = 0; t < testsPerReport; t++) {
+                    xml.append("  <testcase name=\"flaky").append(t).append("\" classname=\"").append(className).append("\">\n");
+                    xml.append("    <flakyFailure type=\"java.lang.AssertionError\">\n      <stackTrace><![CDATA[java.lang.AssertionError: flaky\n");
+                    for (int l = 0; l < stackTraceLines; l++) {
+                        xml.append("\tat ").append(className).append(".flaky").append(t).append("(Flaky").append(r).append("Test.java:").append(l).append(")\n");
+                    }
+                    xml.append("]]></stackTrace>\n    </flakyFailure>\n  </testcase>\n");
+                }
+                xml.append("</testsuite>\n");
+
+                zip.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+}
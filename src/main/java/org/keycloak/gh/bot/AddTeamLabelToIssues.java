@@ -1,22 +1,22 @@
 package org.keycloak.gh.bot;
 
-import io.quarkiverse.githubapp.event.Issue;
+import jakarta.inject.Singleton;
 import org.keycloak.gh.bot.representations.Teams;
-import org.kohsuke.github.GHEventPayload;
 
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
-public class AddTeamLabelToIssues {
+@Singleton
+public class AddTeamLabelToIssues implements IssueLabeledRule {
 
-    void onOpen(@Issue.Labeled GHEventPayload.Issue issuePayload) throws IOException {
-        Teams teams = Teams.getTeams();
-        String labelName = issuePayload.getLabel().getName();
+    @Override
+    public void apply(String labelName, IssueLabeledPipeline.Plan plan) throws IOException {
         if (labelName.startsWith("area/")) {
+            Teams teams = Teams.getTeams();
             for (Map.Entry<String, List<String>> e : teams.entrySet()) {
                 if (e.getValue().contains(labelName)) {
-                    issuePayload.getIssue().addLabels(e.getKey());
+                    plan.getUpdate().addLabels(e.getKey());
                 }
             }
         }
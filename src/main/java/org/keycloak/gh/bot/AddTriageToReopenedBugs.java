@@ -1,8 +1,10 @@
 package org.keycloak.gh.bot;
 
 import io.quarkiverse.githubapp.event.Issue;
+import jakarta.inject.Inject;
 import org.keycloak.gh.bot.labels.Kind;
 import org.keycloak.gh.bot.labels.Status;
+import org.keycloak.gh.bot.utils.IssueUpdate;
 import org.kohsuke.github.GHEventPayload;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHLabel;
@@ -13,11 +15,14 @@ import java.util.stream.Collectors;
 
 public class AddTriageToReopenedBugs {
 
+    @Inject
+    GitHubRestClient gitHubRest;
+
     void onEdit(@Issue.Reopened GHEventPayload.Issue payload) throws IOException {
         GHIssue issue = payload.getIssue();
         Set<String> labels = payload.getIssue().getLabels().stream().map(GHLabel::getName).collect(Collectors.toSet());
         if (labels.contains(Kind.BUG.toLabel())) {
-            issue.addLabels(Status.TRIAGE.toLabel(), Status.REOPENED.toLabel());
+            gitHubRest.updateIssue(IssueUpdate.of(issue).addLabels(Status.TRIAGE.toLabel(), Status.REOPENED.toLabel()));
         }
     }
 
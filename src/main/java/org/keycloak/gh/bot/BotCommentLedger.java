@@ -0,0 +1,147 @@
+package org.keycloak.gh.bot;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.quarkiverse.githubapp.event.IssueComment;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.jboss.logging.Logger;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueComment;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the comments the bot has added to issues, so the bot doesn't have to list all comments on an issue to
+ * find its own comments. Comments are recorded when the bot adds them and from comment webhook events. The first time
+ * an issue is used the existing comments are listed once to find comments added before the ledger knew about the
+ * issue.
+ */
+@Singleton
+public class BotCommentLedger {
+
+    private static final Logger logger = Logger.getLogger(BotCommentLedger.class);
+
+    @Inject
+    GitHubInstallationProvider gitHubProvider;
+
+    private final Cache<String, BotComments> issues = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(Duration.ofDays(30))
+            .build();
+
+    void onCommentCreated(@IssueComment.Created GHEventPayload.IssueComment payload) throws IOException {
+        if (isBot(payload.getSender().getLogin())) {
+            record(payload.getIssue(), payload.getComment());
+        }
+    }
+
+    void onCommentDeleted(@IssueComment.Deleted GHEventPayload.IssueComment payload) {
+        BotComments botComments = issues.getIfPresent(key(payload.getIssue()));
+        if (botComments != null) {
+            botComments.remove(payload.getComment().getId());
+        }
+    }
+
+    /**
+     * Records a comment added by the bot
+     */
+    public void record(GHIssue issue, GHIssueComment comment) throws IOException {
+        BotComments botComments = issues.getIfPresent(key(issue));
+        if (botComments != null) {
+            botComments.put(comment.getId(), comment.getUpdatedAt());
+        }
+    }
+
+    /**
+     * Removes a comment that has been deleted by the bot
+     */
+    public void remove(GHIssue issue, long commentId) {
+        BotComments botComments = issues.getIfPresent(key(issue));
+        if (botComments != null) {
+            botComments.remove(commentId);
+        }
+    }
+
+    /**
+     * Returns the ids of all comments added by the bot to the issue
+     */
+    public Set<Long> getBotComments(GHIssue issue) throws IOException {
+        return get(issue).getIds();
+    }
+
+    /**
+     * Returns when the bot last added or updated a comment on the issue, or <code>null</code> if there are no comments
+     * from the bot
+     */
+    public Date getLastBotComment(GHIssue issue) throws IOException {
+        return get(issue).getLast();
+    }
+
+    private BotComments get(GHIssue issue) throws IOException {
+        String key = key(issue);
+        BotComments botComments = issues.getIfPresent(key);
+        if (botComments == null) {
+            botComments = backfill(issue);
+            BotComments existing = issues.asMap().putIfAbsent(key, botComments);
+            if (existing != null) {
+                botComments = existing;
+            }
+        }
+        return botComments;
+    }
+
+    private BotComments backfill(GHIssue issue) throws IOException {
+        BotComments botComments = new BotComments();
+        for (GHIssueComment c : issue.listComments()) {
+            if (isBot(c.getUser().getLogin())) {
+                botComments.put(c.getId(), c.getUpdatedAt());
+            }
+        }
+        logger.debugv("Backfilled bot comments: issue={0}, comments={1}", issue.getNumber(), botComments.getIds().size());
+        return botComments;
+    }
+
+    private boolean isBot(String login) {
+        return login.equals(gitHubProvider.getBotLogin());
+    }
+
+    static String key(GHIssue issue) {
+        return GitHubRestClient.getRepository(issue.getApiURL()) + "#" + issue.getNumber();
+    }
+
+    static class BotComments {
+
+        private final Map<Long, Date> comments = new HashMap<>();
+
+        synchronized void put(long id, Date updatedAt) {
+            comments.put(id, updatedAt);
+        }
+
+        synchronized void remove(long id) {
+            comments.remove(id);
+        }
+
+        synchronized Set<Long> getIds() {
+            return Set.copyOf(comments.keySet());
+        }
+
+        synchronized Date getLast() {
+            Date last = null;
+            for (Date d : comments.values()) {
+                if (last == null || last.before(d)) {
+                    last = d;
+                }
+            }
+            return last;
+        }
+
+    }
+
+}
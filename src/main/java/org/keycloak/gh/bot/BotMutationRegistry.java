@@ -0,0 +1,67 @@
+package org.keycloak.gh.bot;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.inject.Singleton;
+import org.keycloak.gh.bot.utils.IssueUpdate;
+import org.kohsuke.github.GHIssue;
+
+import java.time.Duration;
+
+/**
+ * Keeps track of labels the bot has recently added to issues. GitHub sends a webhook event for every label the bot
+ * adds, and these events can be dropped as the bot has already handled the change when it made it.
+ * <p>
+ * Removed labels are not tracked, as no handler reacts to <code>unlabeled</code> events from the bot, and recorded
+ * removals would only fill up the registry until they expire.
+ */
+@Singleton
+public class BotMutationRegistry {
+
+    static final Duration EXPIRATION = Duration.ofMinutes(10);
+
+    private final Cache<String, Integer> mutations = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(EXPIRATION)
+            .build();
+
+    /**
+     * Records the labels added by an update that is about to be sent to GitHub
+     */
+    public void record(IssueUpdate update) {
+        String issue = key(update.getIssue());
+        for (String label : update.getAddedLabels()) {
+            mutations.asMap().merge(issue + ":" + label, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Removes the labels added by an update that failed to be sent to GitHub
+     */
+    public void forget(IssueUpdate update) {
+        String issue = key(update.getIssue());
+        for (String label : update.getAddedLabels()) {
+            consume(issue, label);
+        }
+    }
+
+    /**
+     * Checks if a label was added by the bot, and if so removes it so only one event is matched for each change
+     *
+     * @param issue the repository and number of the issue in the format <code>owner/repo#number</code>
+     */
+    public boolean consume(String issue, String label) {
+        String key = issue + ":" + label;
+        boolean[] consumed = new boolean[1];
+        mutations.asMap().computeIfPresent(key, (k, count) -> {
+            consumed[0] = true;
+            return count > 1 ? count - 1 : null;
+        });
+        return consumed[0];
+    }
+
+    static String key(GHIssue issue) {
+        return GitHubRestClient.getRepository(issue.getApiURL()) + "#" + issue.getNumber();
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.keycloak.gh.bot;
+
+import io.quarkiverse.githubapp.event.PullRequest;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Keeps track of the reviews and comments the bot has added to pull requests, so the bot doesn't have to list all
+ * reviews and comments on a pull request to find its own. Pull requests without an entry are listed once by the
+ * caller, which records what it finds. Entries are kept in the {@link BotStateStore} and removed when the pull request
+ * is closed.
+ */
+@Singleton
+public class BotPullRequestRegistry {
+
+    @Inject
+    BotStateStore stateStore;
+
+    // Pull request (owner/repo#number) to [review ids, comment ids]
+    private Map<String, Object[]> pullRequests;
+
+    @PostConstruct
+    void init() {
+        pullRequests = stateStore.getMap("bot.pullRequests");
+    }
+
+    void onClosed(@PullRequest.Closed GHEventPayload.PullRequest payload) {
+        pullRequests.remove(key(payload.getPullRequest()));
+    }
+
+    /**
+     * Returns the reviews and comments added by the bot to the pull request, or <code>null</code> if the pull request
+     * is not known
+     */
+    public BotEntries get(GHIssue pullRequest) {
+        Object[] value = pullRequests.get(key(pullRequest));
+        return value != null ? new BotEntries(toSet((long[]) value[0]), toSet((long[]) value[1])) : null;
+    }
+
+    /**
+     * Replaces the reviews and comments added by the bot to the pull request
+     */
+    public synchronized void put(GHIssue pullRequest, Set<Long> reviews, Set<Long> comments) {
+        pullRequests.put(key(pullRequest), new Object[] { toArray(reviews), toArray(comments) });
+    }
+
+    /**
+     * Records a review added by the bot
+     */
+    public void addReview(GHIssue pullRequest, long reviewId) {
+        add(pullRequest, 0, reviewId);
+    }
+
+    /**
+     * Records a comment added by the bot
+     */
+    public void addComment(GHIssue pullRequest, long commentId) {
+        add(pullRequest, 1, commentId);
+    }
+
+    private synchronized void add(GHIssue pullRequest, int index, long id) {
+        String key = key(pullRequest);
+        Object[] value = pullRequests.get(key);
+        value = value != null ? value.clone() : new Object[] { new long[0], new long[0] };
+        value[index] = LongStream.concat(Arrays.stream((long[]) value[index]), LongStream.of(id)).distinct().sorted().toArray();
+        pullRequests.put(key, value);
+    }
+
+    private static Set<Long> toSet(long[] values) {
+        return Arrays.stream(values).boxed().collect(Collectors.toSet());
+    }
+
+    private static long[] toArray(Set<Long> values) {
+        return values.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    static String key(GHIssue pullRequest) {
+        return GitHubRestClient.getRepository(pullRequest.getApiURL()) + "#" + pullRequest.getNumber();
+    }
+
+    /**
+     * The ids of the reviews and comments the bot added to a pull request
+     */
+    public record BotEntries(Set<Long> reviews, Set<Long> comments) {
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.keycloak.gh.bot;
+
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Embedded key-value store for state that should survive restarts of the bot. State is kept in memory only if
+ * <code>store.path</code> is set to an empty value, which is used for tests.
+ * <p>
+ * Values are stored with the built-in types of MVStore (strings, numbers and arrays of these), as serialized classes
+ * would break when the classes are changed.
+ */
+@Startup
+@Singleton
+public class BotStateStore {
+
+    private static final Logger logger = Logger.getLogger(BotStateStore.class);
+
+    @ConfigProperty(name = "store.path")
+    Optional<String> path;
+
+    private MVStore store;
+
+    @PostConstruct
+    void init() throws IOException {
+        if (path.isPresent()) {
+            Path file = Path.of(path.get()).toAbsolutePath();
+            Files.createDirectories(file.getParent());
+            store = new MVStore.Builder().fileName(file.toString()).compress().open();
+            logger.infov("Opened state store: {0}", file);
+        } else {
+            store = new MVStore.Builder().open();
+            logger.info("No state store configured, state will be lost on restart");
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        store.close();
+    }
+
+    /**
+     * Returns a named map from the store, changes to the map are written to disk in the background
+     */
+    public <K, V> ConcurrentMap<K, V> getMap(String name) {
+        return store.openMap(name);
+    }
+
+    /**
+     * Returns a named map from the store sorted by key, for range queries with cursors
+     */
+    public <K, V> MVMap<K, V> getSortedMap(String name) {
+        return store.openMap(name);
+    }
+
+    /**
+     * Writes pending changes to disk
+     */
+    public void commit() {
+        store.commit();
+    }
+
+}
@@ -2,8 +2,10 @@ package org.keycloak.gh.bot;
 
 import io.quarkiverse.githubapp.event.Issue;
 import io.quarkiverse.githubapp.event.IssueComment;
+import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 import org.keycloak.gh.bot.labels.Status;
+import org.keycloak.gh.bot.utils.IssueUpdate;
 import org.kohsuke.github.GHEventPayload;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHIssueState;
@@ -18,6 +20,12 @@ public class BugActionRetriageMissingInfo {
 
     private static final Logger logger = Logger.getLogger(BugActionRetriageMissingInfo.class);
 
+    @Inject
+    MissingInfoDeadlines missingInfoDeadlines;
+
+    @Inject
+    GitHubRestClient gitHubRest;
+
     void onEdit(@Issue.Edited GHEventPayload.Issue payload) throws IOException {
         check(payload.getIssue(), payload.getSender());
     }
@@ -30,8 +38,10 @@ public class BugActionRetriageMissingInfo {
         if (issue.getState().equals(GHIssueState.OPEN) && sender.getLogin().equals(issue.getUser().getLogin())) {
             Set<String> labels = issue.getLabels().stream().map(GHLabel::getName).collect(Collectors.toSet());
             if (labels.contains(Status.MISSING_INFORMATION.toLabel())) {
-                issue.addLabels(Status.TRIAGE.toLabel());
-                issue.removeLabels(Status.MISSING_INFORMATION.toLabel(), Status.AUTO_EXPIRE.toLabel());
+                gitHubRest.updateIssue(IssueUpdate.of(issue)
+                        .addLabels(Status.TRIAGE.toLabel())
+                        .removeLabels(Status.MISSING_INFORMATION.toLabel(), Status.AUTO_EXPIRE.toLabel()));
+                missingInfoDeadlines.cancel(BotCommentLedger.key(issue));
                 logger.infov("Moving back to triage: issue={0}", issue.getNumber());
             }
         }
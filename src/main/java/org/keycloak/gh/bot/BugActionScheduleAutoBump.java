@@ -1,7 +1,5 @@
 package org.keycloak.gh.bot;
 
-import io.quarkus.runtime.Startup;
-import io.quarkus.scheduler.Scheduled;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
@@ -9,19 +7,12 @@ import org.jboss.logging.Logger;
 import org.keycloak.gh.bot.labels.Kind;
 import org.keycloak.gh.bot.labels.Priority;
 import org.keycloak.gh.bot.labels.Status;
-import org.kohsuke.github.GHIssue;
-import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.GitHub;
-import org.kohsuke.github.PagedIterator;
 
-import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-
-@Startup
+/**
+ * Bumps the priority of bugs with enough reactions, at most one step per sweep
+ */
 @Singleton
-public class BugActionScheduleAutoBump {
+public class BugActionScheduleAutoBump implements TriageRule {
 
     private static final Logger logger = Logger.getLogger(BugActionScheduleAutoBump.class);
 
@@ -30,46 +21,42 @@ public class BugActionScheduleAutoBump {
     @ConfigProperty(name = "autoBump.normal.reactions")
     int bumpNormalReactions;
 
-    @ConfigProperty(name = "repository.mainRepository")
-    String mainRepository;
-
     @Inject
-    GitHubInstallationProvider gitHubProvider;
-
-    @Inject
-    BugActionMessages messages;
-
-    @Scheduled(cron = "{autoBump.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
-    public void checkIssuesWithLowAndNormalPriority() throws IOException {
-        logger.infov("Checking issues with auto-bump for repository: {0}", mainRepository);
+    RepositoryConfig repositoryConfig;
 
-        GitHub gitHub = gitHubProvider.getGitHubClient(mainRepository);
-        String rootQuery = "repo:" + mainRepository + " is:issue is:open label:" + Kind.BUG + " label:" + Status.AUTO_EXPIRE;
-
-        bump(gitHub, rootQuery, Priority.LOW, bumpLowReactions, Priority.NORMAL);
-        bump(gitHub, rootQuery, Priority.NORMAL, bumpNormalReactions, Priority.IMPORTANT);
+    @Override
+    public String getName() {
+        return "autoBump";
     }
 
-    private void bump(GitHub gitHub, String rootQuery, Priority currentPriority, int bumpReactions, Priority newPriority) throws IOException {
-        String query = rootQuery + " label:" + currentPriority + " reactions:>=" + bumpReactions;
+    @Override
+    public boolean matches(IssueSnapshot snapshot) {
+        return snapshot.hasLabel(Kind.BUG.toLabel()) && getNewPriority(snapshot) != null;
+    }
 
-        logger.debugv("Query: {0}", query);
+    @Override
+    public void apply(IssueSnapshot snapshot, TriagePlan plan) {
+        Priority newPriority = getNewPriority(snapshot);
+        Priority currentPriority = newPriority.equals(Priority.NORMAL) ? Priority.LOW : Priority.NORMAL;
 
-        PagedIterator<GHIssue> itr = gitHub.searchIssues().q(query).list().iterator();
-        while (itr.hasNext()) {
-            GHIssue issue = itr.next();
+        plan.getUpdate().removeLabels(currentPriority.toLabel());
+        if (newPriority.equals(Priority.IMPORTANT)) {
+            plan.getUpdate().removeLabels(Status.AUTO_BUMP.toLabel(), Status.AUTO_EXPIRE.toLabel());
+        }
+        plan.getUpdate().addLabels(newPriority.toLabel(), Status.BUMPED_BY_BOT.toLabel());
 
-            List<String> removeLabels = new LinkedList<>();
-            removeLabels.add(currentPriority.toLabel());
-            if (newPriority.equals(Priority.IMPORTANT)) {
-                removeLabels.add(Status.AUTO_BUMP.toLabel());
-                removeLabels.add(Status.AUTO_EXPIRE.toLabel());
-            }
+        logger.infov("Bumped issue={0}, from={1}, to={2}", snapshot.getNumber(), currentPriority, newPriority);
+    }
 
-            issue.removeLabels(removeLabels.toArray(new String[0]));
-            issue.addLabels(newPriority.toLabel(), Status.BUMPED_BY_BOT.toLabel());
-            logger.infov("Bumped issue={0}, from={1}, to={2}", issue.getNumber(), currentPriority, newPriority);
+    private Priority getNewPriority(IssueSnapshot snapshot) {
+        String repository = snapshot.getRepository().getFullName();
+        if (snapshot.hasLabel(Priority.LOW.toLabel()) && snapshot.getReactions() >= repositoryConfig.get(repository, "autoBump.low.reactions", Integer.class, bumpLowReactions)) {
+            return Priority.NORMAL;
+        } else if (snapshot.hasLabel(Priority.NORMAL.toLabel()) && snapshot.getReactions() >= repositoryConfig.get(repository, "autoBump.normal.reactions", Integer.class, bumpNormalReactions)) {
+            return Priority.IMPORTANT;
+        } else {
+            return null;
         }
     }
 
-}
\ No newline at end of file
+}
@@ -1,7 +1,5 @@
 package org.keycloak.gh.bot;
 
-import io.quarkus.runtime.Startup;
-import io.quarkus.scheduler.Scheduled;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
@@ -9,62 +7,68 @@ import org.jboss.logging.Logger;
 import org.keycloak.gh.bot.labels.Kind;
 import org.keycloak.gh.bot.labels.Priority;
 import org.keycloak.gh.bot.labels.Status;
-import org.keycloak.gh.bot.utils.DateUtil;
-import org.kohsuke.github.GHIssue;
-import org.kohsuke.github.GHIssueStateReason;
-import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.GitHub;
-import org.kohsuke.github.PagedIterator;
-
-import java.io.IOException;
-import java.util.Map;
+
 import java.util.concurrent.TimeUnit;
 
-@Startup
+/**
+ * Closes low and normal priority bugs that have not been updated for a while
+ */
 @Singleton
-public class BugActionScheduleAutoExpire {
+public class BugActionScheduleAutoExpire implements TriageRule {
 
     private static final Logger logger = Logger.getLogger(BugActionScheduleAutoExpire.class);
 
     @ConfigProperty(name = "autoExpire.low.expiresDays")
-    private long lowPriorityExpiresDays;
+    long lowPriorityExpiresDays;
     @ConfigProperty(name = "autoExpire.normal.expiresDays")
-    private long normalPriorityExpiresDays;
-
-    @ConfigProperty(name = "repository.mainRepository")
-    String mainRepository;
+    long normalPriorityExpiresDays;
 
     @Inject
-    GitHubInstallationProvider gitHubProvider;
+    BugActionMessages messages;
 
     @Inject
-    BugActionMessages messages;
+    RepositoryConfig repositoryConfig;
 
-    @Scheduled(cron = "{autoExpire.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
-    public void checkIssuesWithLowAndNormalPriority() throws IOException {
-        logger.infov("Checking issues with low and normal priority for repository: {0}", mainRepository);
+    @Override
+    public String getName() {
+        return "autoExpire";
+    }
 
-        GitHub gitHub = gitHubProvider.getGitHubClient(mainRepository);
-        String rootQuery = "repo:" + mainRepository + " is:issue is:open label:" + Kind.BUG.toLabel() + " label:" + Status.AUTO_EXPIRE.toLabel();
+    @Override
+    public boolean matches(IssueSnapshot snapshot) {
+        if (!snapshot.hasLabel(Kind.BUG.toLabel())) {
+            return false;
+        }
 
-        expire(gitHub, rootQuery, Priority.LOW, normalPriorityExpiresDays);
-        expire(gitHub, rootQuery, Priority.NORMAL, normalPriorityExpiresDays);
+        long days = getExpiresDays(snapshot);
+        return days > 0 && snapshot.getUpdatedAt().getTime() < System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
     }
 
-    private void expire(GitHub gitHub, String rootQuery, Priority priority, long days) throws IOException {
-        String query = rootQuery + " label:" + priority + " updated:<" + DateUtil.minusDaysString(lowPriorityExpiresDays);
-        String message = messages.getExpireComment(days, TimeUnit.DAYS);
+    @Override
+    public void apply(IssueSnapshot snapshot, TriagePlan plan) {
+        // Issues that have been bumped or closed by an earlier rule are left alone
+        if (plan.isClosing() || plan.getUpdate().getAddedLabels().contains(Status.BUMPED_BY_BOT.toLabel())) {
+            return;
+        }
+
+        plan.getUpdate().addLabels(Status.EXPIRED_BY_BOT.toLabel());
+        plan.close(messages.getExpireComment(getCommentDays(snapshot), TimeUnit.DAYS));
 
-        logger.debugv("Query: {0}", query);
+        logger.infov("Expired issue={0}", snapshot.getNumber());
+    }
 
-        PagedIterator<GHIssue> itr = gitHub.searchIssues().q(query).list().iterator();
-        while (itr.hasNext()) {
-            GHIssue issue = itr.next();
-            issue.comment(message);
-            issue.addLabels(Status.EXPIRED_BY_BOT.toLabel());
-            issue.close(GHIssueStateReason.NOT_PLANNED);
-            logger.infov("Expired issue={0}", issue.getNumber());
+    // Low and normal priority bugs both expire after the low priority days, and the comment gives the normal priority
+    // days, as they did when auto-expire was a scheduled job of its own
+    private long getExpiresDays(IssueSnapshot snapshot) {
+        if (snapshot.hasLabel(Priority.LOW.toLabel()) || snapshot.hasLabel(Priority.NORMAL.toLabel())) {
+            return repositoryConfig.get(snapshot.getRepository().getFullName(), "autoExpire.low.expiresDays", Long.class, lowPriorityExpiresDays);
+        } else {
+            return -1;
         }
     }
 
-}
\ No newline at end of file
+    private long getCommentDays(IssueSnapshot snapshot) {
+        return repositoryConfig.get(snapshot.getRepository().getFullName(), "autoExpire.normal.expiresDays", Long.class, normalPriorityExpiresDays);
+    }
+
+}
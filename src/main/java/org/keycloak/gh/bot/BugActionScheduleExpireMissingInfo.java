@@ -1,132 +1,174 @@
 package org.keycloak.gh.bot;
 
-import io.quarkus.runtime.Startup;
-import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 import org.keycloak.gh.bot.labels.Status;
 import org.kohsuke.github.GHIssue;
-import org.kohsuke.github.GHIssueComment;
-import org.kohsuke.github.GHIssueStateReason;
-import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.GitHub;
-import org.kohsuke.github.PagedIterator;
 
 import java.io.IOException;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
-@Startup
+/**
+ * Closes issues that are still missing information a while after the bot asked for it
+ */
 @Singleton
-public class BugActionScheduleExpireMissingInfo {
+public class BugActionScheduleExpireMissingInfo implements TriageRule {
 
     private static final Logger logger = Logger.getLogger(BugActionScheduleExpireMissingInfo.class);
 
     @ConfigProperty(name = "missingInfo.expiration.unit")
-    private TimeUnit expirationUnit;
+    TimeUnit expirationUnit;
     @ConfigProperty(name = "missingInfo.expiration.value")
-    private long expirationValue;
+    long expirationValue;
 
-    @ConfigProperty(name = "repository.mainRepository")
-    String mainRepository;
-
-    private final LastChecked lastChecked = new LastChecked();
+    private LastChecked lastChecked;
 
     @Inject
-    GitHubInstallationProvider gitHubProvider;
+    BotStateStore stateStore;
 
     @Inject
     BugActionMessages messages;
 
-    @Scheduled(cron = "{missingInfo.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
-    public void checkIssuesWithMissingInformation() throws IOException {
-        logger.infov("Checking issues with missing information for repository: {0}", mainRepository);
+    @Inject
+    BotCommentLedger botCommentLedger;
 
-        GitHub gitHub = gitHubProvider.getGitHubClient(mainRepository);
-        GHRepository repository = gitHub.getRepository(mainRepository);
+    @Inject
+    RepositoryConfig repositoryConfig;
 
-        PagedIterator<GHIssue> missingInfoItr = repository.queryIssues()
-                .label(Status.MISSING_INFORMATION.toLabel())
-                .label(Status.AUTO_EXPIRE.toLabel())
-                .list().iterator();
+    @Inject
+    MissingInfoDeadlines deadlines;
 
-        while (missingInfoItr.hasNext()) {
-            GHIssue issue = missingInfoItr.next();
+    @PostConstruct
+    void init() {
+        lastChecked = new LastChecked(stateStore.getMap("missingInfo.lastChecked"));
+    }
 
-            if (lastChecked.shouldCheck(issue)) {
-                GHIssueComment lastBotComment = null;
+    @Override
+    public String getName() {
+        return "expireMissingInfo";
+    }
 
-                for (GHIssueComment c : issue.getComments()) {
-                    if (c.getUser().getLogin().equals(gitHubProvider.getBotLogin())) {
-                        if (lastBotComment == null || lastBotComment.getUpdatedAt().before(c.getUpdatedAt())) {
-                            lastBotComment = c;
-                        }
-                    }
-                }
+    @Override
+    public boolean matches(IssueSnapshot snapshot) throws IOException {
+        if (!snapshot.hasLabel(Status.MISSING_INFORMATION.toLabel()) || !snapshot.hasLabel(Status.AUTO_EXPIRE.toLabel())) {
+            return false;
+        }
 
-                if (lastBotComment == null) {
-                    logger.warnv("Bot comment not found: issue={0} in repo={1}", issue.getNumber(), repository.getFullName());
-                } else {
-                    lastChecked.checked(issue, lastBotComment);
-                }
-            } else {
-                long lastBotCommentTime = lastChecked.getLastBotComment(issue).getTime();
-                long expires = lastBotCommentTime + expirationUnit.toMillis(expirationValue);
-
-                if (System.currentTimeMillis() > expires) {
-                    String comment = messages.getExpireComment(expirationValue, expirationUnit);
-                    issue.comment(comment);
-                    issue.removeLabels(Status.MISSING_INFORMATION.toLabel());
-                    issue.addLabels(Status.EXPIRED_BY_BOT.toLabel());
-                    issue.close(GHIssueStateReason.NOT_PLANNED);
-                    lastChecked.remove(issue);
-                    logger.infov("Expired: issue={0} in repo={1}", issue.getNumber(), repository.getFullName());
-                }
-            }
+        Date lastBotComment = snapshot.isComplete() ? snapshot.getLastBotComment() : getLastBotComment(snapshot.getIssue());
+        if (lastBotComment == null) {
+            logger.warnv("Bot comment not found: issue={0} in repo={1}", snapshot.getNumber(), snapshot.getRepository().getFullName());
+            return false;
+        }
+
+        long deadline = getDeadline(snapshot.getRepository().getFullName(), lastBotComment);
+        if (System.currentTimeMillis() >= deadline) {
+            return true;
         }
 
-        // Cleans up memory for issues that have been handled or no longer meet the criteria
+        deadlines.scheduleIfAbsent(snapshot.getRepository().getFullName() + "#" + snapshot.getNumber(), deadline);
+        return false;
+    }
+
+    @Override
+    public void apply(IssueSnapshot snapshot, TriagePlan plan) throws IOException {
+        plan.getUpdate().removeLabels(Status.MISSING_INFORMATION.toLabel());
+        plan.getUpdate().addLabels(Status.EXPIRED_BY_BOT.toLabel());
+        plan.close(messages.getExpireComment(getExpirationValue(snapshot.getRepository().getFullName()), expirationUnit));
+
+        lastChecked.remove(snapshot.getIssue());
+        logger.infov("Expired: issue={0} in repo={1}", snapshot.getNumber(), snapshot.getRepository().getFullName());
+    }
+
+    @Override
+    public void finish() {
+        // Cleans up state for issues that have been handled or no longer meet the criteria
         lastChecked.clean();
+        stateStore.commit();
     }
 
-    public class LastChecked {
+    /**
+     * Returns when an issue in the repository expires if the bot asked for more information at the given time
+     */
+    public long getDeadline(String repository, Date askedAt) {
+        return askedAt.getTime() + expirationUnit.toMillis(getExpirationValue(repository));
+    }
 
-        Map<Long, Date> lastBotComment = new HashMap<>();
-        Set<Long> visited = new HashSet<>();
+    private long getExpirationValue(String repository) {
+        return repositoryConfig.get(repository, "missingInfo.expiration.value", Long.class, expirationValue);
+    }
 
-        public boolean shouldCheck(GHIssue issue) {
-            long issueId = issue.getId();
-            visited.add(issueId);
-            return !lastBotComment.containsKey(issueId);
+    // Only used when the last bot comment was not included in the snapshot
+    private Date getLastBotComment(GHIssue issue) throws IOException {
+        Date lastBotComment = lastChecked.getLastBotComment(issue);
+        if (lastBotComment == null) {
+            lastBotComment = botCommentLedger.getLastBotComment(issue);
+            if (lastBotComment != null) {
+                lastChecked.checked(issue, lastBotComment);
+            }
         }
+        return lastBotComment;
+    }
+
+    /**
+     * Remembers the last bot comment of each issue together with when the issue was last updated, so the comments only
+     * have to be looked up again if the issue has been updated since it was last checked.
+     */
+    public static class LastChecked {
+
+        // Issue (owner/repo#number) to [updated_at, last bot comment]
+        private final Map<String, long[]> lastChecked;
+        // Issues are removed while issues are updated in parallel
+        private final Set<String> visited = ConcurrentHashMap.newKeySet();
 
-        public void checked(GHIssue issue, GHIssueComment issueLastBotComment) throws IOException {
-            long issueId = issue.getId();
-            visited.add(issueId);
-            lastBotComment.put(issueId, issueLastBotComment.getUpdatedAt());
+        LastChecked(Map<String, long[]> lastChecked) {
+            this.lastChecked = lastChecked;
         }
 
-        public void remove(GHIssue issue) {
-            visited.remove(issue.getId());
-            lastBotComment.remove(issue.getId());
+        /**
+         * Returns the last bot comment, or <code>null</code> if the issue has not been checked before or has been
+         * updated since it was last checked
+         */
+        public Date getLastBotComment(GHIssue issue) throws IOException {
+            String key = BotCommentLedger.key(issue);
+            visited.add(key);
+
+            long[] checked = lastChecked.get(key);
+            if (checked != null && checked[0] == issue.getUpdatedAt().getTime()) {
+                return new Date(checked[1]);
+            }
+            return null;
         }
 
-        public Date getLastBotComment(GHIssue issue) {
-            return lastBotComment.get(issue.getId());
+        public void checked(GHIssue issue, Date issueLastBotComment) throws IOException {
+            String key = BotCommentLedger.key(issue);
+            visited.add(key);
+            lastChecked.put(key, new long[] { issue.getUpdatedAt().getTime(), issueLastBotComment.getTime() });
+        }
+
+        public void remove(GHIssue issue) {
+            String key = BotCommentLedger.key(issue);
+            visited.remove(key);
+            lastChecked.remove(key);
         }
 
         public void clean() {
-            lastBotComment.keySet().removeIf(id -> !visited.contains(id));
+            for (String key : List.copyOf(lastChecked.keySet())) {
+                if (!visited.contains(key)) {
+                    lastChecked.remove(key);
+                }
+            }
             visited.clear();
 
-            if (!lastBotComment.isEmpty()) {
-                logger.infov("Monitoring: {0} issues for missing info", lastBotComment.size());
+            if (!lastChecked.isEmpty()) {
+                logger.infov("Monitoring: {0} issues for missing info", lastChecked.size());
             }
         }
     }
@@ -1,6 +1,5 @@
 package org.keycloak.gh.bot;
 
-import io.quarkiverse.githubapp.event.Issue;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
@@ -9,37 +8,25 @@ import org.keycloak.gh.bot.labels.Kind;
 import org.keycloak.gh.bot.labels.Label;
 import org.keycloak.gh.bot.labels.Priority;
 import org.keycloak.gh.bot.labels.Status;
+import org.keycloak.gh.bot.utils.IssueUpdate;
 import org.keycloak.gh.bot.utils.Labels;
-import org.kohsuke.github.GHEventPayload;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHIssueComment;
-import org.kohsuke.github.GHIssueState;
 import org.kohsuke.github.GHIssueStateReason;
-import org.kohsuke.github.GHLabel;
-import org.kohsuke.github.GHMilestone;
-import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.PagedIterator;
 import org.kohsuke.github.ReactionContent;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @ApplicationScoped
 public class BugActions {
 
     private static final Logger logger = Logger.getLogger(BugActions.class);
 
-    private static final Pattern MAJOR_VERSION_PATTERN = Pattern.compile("(\\d+)\\.\\d+.\\d+");
-
     private static final Map<String, BugAction> actions = initActions(
             BugAction.create(Action.QUESTION)
                     .comment()
@@ -79,96 +66,133 @@ public class BugActions {
     );
 
     @Inject
-    GitHubInstallationProvider gitHubProvider;
+    BugActionMessages messages;
 
     @Inject
-    BugActionMessages messages;
+    GitHubRestClient gitHubRest;
+
+    @Inject
+    MilestoneIndex milestoneIndex;
+
+    @Inject
+    BotCommentLedger botCommentLedger;
+
+    @Inject
+    BugActionScheduleExpireMissingInfo expireMissingInfo;
+
+    @Inject
+    MissingInfoDeadlines missingInfoDeadlines;
 
     public void runAction(Action action, GHIssue issue) throws IOException {
-        Optional<BugAction> first = actions.values().stream().filter(a -> a.action.equals(action)).findFirst();
-        if (first.isPresent()) {
-            runAction(first.get(), issue);
-        } else {
-            throw new IllegalArgumentException("Unknown action " + action);
+        IssueUpdate update = IssueUpdate.of(issue);
+        if (planAction(action, update)) {
+            gitHubRest.updateIssue(update);
+            completeAction(action, issue);
         }
     }
 
-    private void runAction(BugAction action, GHIssue issue) throws IOException {
-        if (action != null) {
-            logger.infov("Running action={0} on issue={1}", action.action.toLabel(), issue.getHtmlUrl());
+    /**
+     * Adds the label, state and milestone changes for the action to the update
+     *
+     * @return <code>false</code> if the action does not apply to the issue
+     */
+    public boolean planAction(Action action, IssueUpdate update) {
+        if (!update.hasLabel(Labels.KIND_BUG)) {
+            return false;
+        }
 
-            Set<String> labels = issue.getLabels().stream().map(GHLabel::getName).collect(Collectors.toSet());
+        logger.infov("Running action={0} on issue={1}", action.toLabel(), update.getIssue().getHtmlUrl());
+        plan(getBugAction(action), update);
+        return true;
+    }
 
-            if (labels.contains(Labels.KIND_BUG)) {
-                List<String> labelsToAdd = new LinkedList<>();
-                List<String> labelsToRemove = new LinkedList<>();
+    /**
+     * Adds the reaction and comment for the action, which should be done after the issue has been updated
+     */
+    public void completeAction(Action action, GHIssue issue) throws IOException {
+        BugAction bugAction = getBugAction(action);
 
-                if (action.priority != null) {
-                    labels.stream().filter(Priority::isInstance).forEach(labelsToRemove::add);
+        if (bugAction.thumbsUp) {
+            issue.createReaction(ReactionContent.PLUS_ONE);
+        }
 
-                    labelsToAdd.add(action.priority.toLabel());
-                }
+        // Comment should be the last thing the bot does!
+        if (bugAction.comment) {
+            for (long commentId : botCommentLedger.getBotComments(issue)) {
+                gitHubRest.deleteIssueComment(issue, commentId);
+                botCommentLedger.remove(issue, commentId);
+            }
 
-                labels.stream().filter(Status::isInstance).forEach(labelsToRemove::add);
+            GHIssueComment comment = issue.comment(messages.getBugActionComment(bugAction.action));
+            botCommentLedger.record(issue, comment);
 
-                if (action.status != null) {
-                    labelsToAdd.add(action.status.toLabel());
-                }
+            // Expired at the deadline, rather than by the next triage sweep
+            if (Status.MISSING_INFORMATION.equals(bugAction.status) && bugAction.autoExpire) {
+                Date askedAt = comment.getUpdatedAt() != null ? comment.getUpdatedAt() : new Date();
+                long deadline = expireMissingInfo.getDeadline(GitHubRestClient.getRepository(issue.getApiURL()), askedAt);
+                missingInfoDeadlines.schedule(BotCommentLedger.key(issue), deadline);
+            }
+        }
+    }
 
-                if (action.kind != null) {
-                    labelsToAdd.add(action.kind.toLabel());
-                }
+    static BugAction getBugAction(Action action) {
+        Optional<BugAction> first = actions.values().stream().filter(a -> a.action.equals(action)).findFirst();
+        if (first.isPresent()) {
+            return first.get();
+        } else {
+            throw new IllegalArgumentException("Unknown action " + action);
+        }
+    }
 
-                if (action.helpWanted) {
-                    labelsToAdd.add(Label.HELP_WANTED.toLabel());
-                }
+    /**
+     * Resolves the final labels, state and milestone of the issue after running the action
+     */
+    IssueUpdate plan(BugAction action, GHIssue issue) {
+        IssueUpdate update = IssueUpdate.of(issue);
+        plan(action, update);
+        return update;
+    }
 
-                if (action.autoExpire) {
-                    labelsToAdd.add(Status.AUTO_EXPIRE.toLabel());
-                }
+    private void plan(BugAction action, IssueUpdate update) {
+        if (action.priority != null) {
+            update.removeLabelsIf(Priority::isInstance);
+            update.addLabels(action.priority.toLabel());
+        }
 
-                if (action.autoBump) {
-                    labelsToAdd.add(Status.AUTO_BUMP.toLabel());
-                }
+        update.removeLabelsIf(Status::isInstance);
 
-                if (action.thumbsUp) {
-                    issue.createReaction(ReactionContent.PLUS_ONE);
-                }
+        if (action.status != null) {
+            update.addLabels(action.status.toLabel());
+        }
 
-                labelsToRemove.add(action.action.toLabel());
+        if (action.kind != null) {
+            update.addLabels(action.kind.toLabel());
+        }
 
-                labelsToRemove.removeAll(labelsToAdd);
-                issue.removeLabels(labelsToRemove.toArray(new String[0]));
+        if (action.helpWanted) {
+            update.addLabels(Label.HELP_WANTED.toLabel());
+        }
 
-                if (!labelsToAdd.isEmpty()) {
-                    issue.addLabels(labelsToAdd.toArray(new String[0]));
-                }
+        if (action.autoExpire) {
+            update.addLabels(Status.AUTO_EXPIRE.toLabel());
+        }
 
-                if (action.closeAsNotPlanned) {
-                    issue.close(GHIssueStateReason.NOT_PLANNED);
-                } else {
-                    if (issue.getState().equals(GHIssueState.CLOSED)) {
-                        issue.reopen();
-                    }
+        if (action.autoBump) {
+            update.addLabels(Status.AUTO_BUMP.toLabel());
+        }
 
-                    if (action.setNextMileStone) {
-                        GHMilestone nextMajorRelease = getNextMajorRelease(issue.getRepository());
-                        issue.setMilestone(nextMajorRelease);
-                    } else if (action.removeMileStone) {
-                        issue.setMilestone(null);
-                    }
-                }
+        update.removeLabels(action.action.toLabel());
 
-                // Comment should be the last thing the bot does!
-                if (action.comment) {
-                    for (GHIssueComment c : issue.getComments()) {
-                        if (c.getUser().getLogin().equals(gitHubProvider.getBotLogin())) {
-                            c.delete();
-                        }
-                    }
+        if (action.closeAsNotPlanned) {
+            update.close(GHIssueStateReason.NOT_PLANNED);
+        } else {
+            update.reopen();
 
-                    issue.comment(messages.getBugActionComment(action.action));
-                }
+            if (action.setNextMileStone) {
+                MilestoneIndex.Milestone milestone = milestoneIndex.getNextMajorRelease(update.getIssue().getRepository());
+                update.milestone(milestone != null ? milestone.number() : null);
+            } else if (action.removeMileStone) {
+                update.milestone(null);
             }
         }
     }
@@ -181,24 +205,6 @@ public class BugActions {
         return map;
     }
 
-    private GHMilestone getNextMajorRelease(GHRepository repository) {
-        PagedIterator<GHMilestone> itr = repository.listMilestones(GHIssueState.OPEN).iterator();
-        GHMilestone nextMajorMilestone = null;
-        Integer nextMajorRelease = null;
-        while (itr.hasNext()) {
-            GHMilestone next = itr.next();
-            Matcher matcher = MAJOR_VERSION_PATTERN.matcher(next.getTitle());
-            if (matcher.matches()) {
-                Integer majorVersion = Integer.valueOf(matcher.group(1));
-                if (nextMajorRelease == null || majorVersion < nextMajorRelease) {
-                    nextMajorRelease = majorVersion;
-                    nextMajorMilestone = next;
-                }
-            }
-        }
-        return nextMajorMilestone;
-    }
-
     static Properties initProperties() {
         Properties properties = new Properties();
         try {
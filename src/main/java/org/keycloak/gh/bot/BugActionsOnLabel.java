@@ -1,27 +1,24 @@
 package org.keycloak.gh.bot;
 
-import io.quarkiverse.githubapp.event.Issue;
 import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
 import org.keycloak.gh.bot.labels.Action;
-import org.kohsuke.github.GHEventPayload;
-import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GHIssueState;
 
-import java.io.IOException;
-
-public class BugActionsOnLabel {
+@Singleton
+public class BugActionsOnLabel implements IssueLabeledRule {
 
     @Inject
     BugActions bugActions;
 
-    void onLabeled(@Issue.Labeled GHEventPayload.Issue payload) throws IOException {
-        String label = payload.getLabel().getName();
-        GHIssue issue = payload.getIssue();
-
-        if (issue.getState().equals(GHIssueState.OPEN) && Action.isInstance(label)) {
+    @Override
+    public void apply(String label, IssueLabeledPipeline.Plan plan) {
+        if (Action.isInstance(label) && plan.getIssue().getState().equals(GHIssueState.OPEN) && plan.getUpdate().hasLabel(label)) {
             Action action = Action.fromLabel(label);
-            bugActions.runAction(action, issue);
+            if (bugActions.planAction(action, plan.getUpdate())) {
+                plan.afterUpdate(issue -> bugActions.completeAction(action, issue));
+            }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,269 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.configuration.MemorySize;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.utils.FlakyJob;
+import org.keycloak.gh.bot.utils.FlakyJobParser;
+import org.kohsuke.github.GHArtifact;
+import org.kohsuke.github.GHWorkflowRun;
+import org.kohsuke.github.PagedIterator;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipFile;
+
+/**
+ * Downloads and parses the <code>flaky-tests-*</code> artifacts of a workflow run, with up to
+ * <code>flaky.artifacts.concurrency</code> artifacts in parallel.
+ * <p>
+ * Artifacts are saved to a temporary file, so only the entries that are needed are read from the zip, and the test
+ * reports in an artifact are parsed in parallel on a pool of <code>flaky.artifacts.parseParallelism</code> threads. An
+ * artifact that is larger than <code>flaky.artifacts.maxSize</code>, or takes longer than
+ * <code>flaky.artifacts.timeout</code>, is skipped and doesn't stop the other artifacts. The jobs are returned in the
+ * order the artifacts are listed by GitHub, however long each artifact took.
+ */
+@Singleton
+public class FlakyArtifactDownloader {
+
+    private static final Logger logger = Logger.getLogger(FlakyArtifactDownloader.class);
+
+    static final String ARTIFACT_PREFIX = "flaky-tests-";
+
+    @ConfigProperty(name = "flaky.artifacts.concurrency", defaultValue = "4")
+    int concurrency;
+
+    @ConfigProperty(name = "flaky.artifacts.timeout", defaultValue = "2m")
+    Duration timeout;
+
+    @ConfigProperty(name = "flaky.artifacts.maxSize", defaultValue = "20M")
+    MemorySize maxSize;
+
+    @ConfigProperty(name = "flaky.artifacts.parseParallelism", defaultValue = "2")
+    int parseParallelism;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private ExecutorService executor;
+    private ForkJoinPool parsePool;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newFixedThreadPool(concurrency);
+        parsePool = new ForkJoinPool(parseParallelism);
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdownNow();
+        parsePool.shutdownNow();
+    }
+
+    /**
+     * Returns the flaky jobs of the workflow run, one for each artifact that was downloaded and parsed
+     */
+    public List<FlakyJob> findFlakyJobs(GHWorkflowRun workflowRun) throws IOException {
+        return findFlakyJobs(workflowRun, Set.of()).flakyJobs();
+    }
+
+    /**
+     * Returns the flaky jobs of the workflow run, without downloading the artifacts that have already been processed.
+     * The result has the node ids of the artifacts that don't have to be downloaded again, which are the artifacts
+     * that were parsed and those that are too large.
+     */
+    public Result findFlakyJobs(GHWorkflowRun workflowRun, Set<String> processedArtifacts) throws IOException {
+        long start = System.nanoTime();
+        AtomicLong bytes = new AtomicLong();
+
+        List<Download> downloads = new LinkedList<>();
+        Set<String> artifactIds = new HashSet<>();
+        int skipped = 0;
+        int processed = 0;
+
+        PagedIterator<GHArtifact> iterator = workflowRun.listArtifacts().iterator();
+        while (iterator.hasNext()) {
+            GHArtifact artifact = iterator.next();
+            if (!artifact.getName().startsWith(ARTIFACT_PREFIX)) {
+                continue;
+            }
+
+            if (processedArtifacts.contains(artifact.getNodeId())) {
+                processed++;
+                continue;
+            }
+
+            if (artifact.getSizeInBytes() > maxSize.asLongValue()) {
+                logger.warnv("Skipping artifact={0} in {1}, size={2} is larger than {3}", artifact.getName(), workflowRun.getHtmlUrl(), artifact.getSizeInBytes(), maxSize.asLongValue());
+                artifactIds.add(artifact.getNodeId());
+                skipped++;
+                continue;
+            }
+
+            Download download = new Download(artifact.getNodeId(), artifact.getName());
+            download.future = executor.submit(() -> {
+                download.started = System.nanoTime();
+                return download(artifact, bytes);
+            });
+            downloads.add(download);
+        }
+
+        List<FlakyJob> flakyJobs = new LinkedList<>();
+        int failed = 0;
+
+        for (Download download : downloads) {
+            try {
+                FlakyJob flakyJob = download.await();
+                flakyJob.setWorkflow(workflowRun.getName());
+                flakyJobs.add(flakyJob);
+                artifactIds.add(download.id);
+            } catch (ExecutionException ex) {
+                failed++;
+                logger.errorv(ex.getCause(), "Failed to download artifact={0} in {1}", download.name, workflowRun.getHtmlUrl());
+            } catch (TimeoutException ex) {
+                failed++;
+                download.future.cancel(true);
+                logger.errorv("Timed out downloading artifact={0} in {1} after {2}", download.name, workflowRun.getHtmlUrl(), timeout);
+            } catch (InterruptedException ex) {
+                downloads.forEach(d -> d.future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading artifacts");
+            }
+        }
+
+        meterRegistry.counter("bot.flaky.artifacts", "result", "parsed").increment(flakyJobs.size());
+        meterRegistry.counter("bot.flaky.artifacts", "result", "failed").increment(failed);
+        meterRegistry.counter("bot.flaky.artifacts", "result", "skipped").increment(skipped);
+
+        logger.infov("Downloaded flaky test artifacts for {0}: parsed={1}, failed={2}, skipped={3}, processed={4}, bytes={5}, time={6}ms",
+                workflowRun.getHtmlUrl(), flakyJobs.size(), failed, skipped, processed, bytes.get(), (System.nanoTime() - start) / 1000000);
+
+        return new Result(flakyJobs, artifactIds, failed);
+    }
+
+    private FlakyJob download(GHArtifact artifact, AtomicLong totalBytes) throws IOException {
+        Path file = Files.createTempFile(artifact.getName(), ".zip");
+        try {
+            long start = System.nanoTime();
+            long bytes = artifact.download(inputStream -> Files.copy(new LimitedInputStream(inputStream, maxSize.asLongValue()), file, StandardCopyOption.REPLACE_EXISTING));
+            long downloaded = System.nanoTime();
+
+            FlakyJob flakyJob;
+            try (ZipFile zipFile = new ZipFile(file.toFile())) {
+                flakyJob = FlakyJobParser.parse(zipFile, parsePool);
+            }
+            long parsed = System.nanoTime();
+
+            totalBytes.addAndGet(bytes);
+            DistributionSummary.builder("bot.flaky.artifact.bytes").baseUnit("bytes").register(meterRegistry).record(bytes);
+            meterRegistry.timer("bot.flaky.artifact.download").record(downloaded - start, TimeUnit.NANOSECONDS);
+            meterRegistry.timer("bot.flaky.artifact.parse").record(parsed - downloaded, TimeUnit.NANOSECONDS);
+
+            logger.debugv("Parsed artifact={0}, bytes={1}, flakyTests={2}, download={3}ms, parse={4}ms", artifact.getName(), bytes, flakyJob.getFlakyTests().size(),
+                    (downloaded - start) / 1000000, (parsed - downloaded) / 1000000);
+            return flakyJob;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * The flaky jobs, the node ids of the artifacts that don't have to be downloaded again, and the number of artifacts that
+     * failed and should be tried again
+     */
+    public record Result(List<FlakyJob> flakyJobs, Set<String> artifactIds, int failed) {
+    }
+
+    private class Download {
+
+        private final String id;
+        private final String name;
+        private Future<FlakyJob> future;
+        // Artifacts wait in the queue until a thread is free, the timeout starts once the download has started
+        private volatile long started;
+
+        Download(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        FlakyJob await() throws ExecutionException, TimeoutException, InterruptedException {
+            while (true) {
+                long wait = started != 0 ? started + timeout.toNanos() - System.nanoTime() : timeout.toNanos();
+                try {
+                    return future.get(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (started != 0 && System.nanoTime() - started >= timeout.toNanos()) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Fails once more than the limit has been read
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(long read) throws IOException {
+            count += read;
+            if (count > limit) {
+                throw new IOException("More than " + limit + " bytes read");
+            }
+        }
+
+    }
+
+}
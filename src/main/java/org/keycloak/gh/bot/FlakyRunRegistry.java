@@ -0,0 +1,198 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of the workflow runs that have been checked for flaky tests, so redelivered <code>workflow_run</code>
+ * events don't download the artifacts and report the flaky tests again.
+ * <p>
+ * Runs are keyed by run id and attempt, together with the node ids of the artifacts that have been processed. A
+ * redelivered event for an attempt that has been processed is ignored without listing the artifacts, and a re-run
+ * with a new attempt only downloads the artifacts that are new. An attempt where some artifacts failed to download is not
+ * recorded as processed, so a redelivery downloads the failed artifacts again. The unreported flaky tests found in the
+ * processed artifacts are kept with the run, so the pull request review covers all artifacts of the run and not only
+ * the new ones.
+ * <p>
+ * Events for the same run are processed one at a time. Runs are removed after <code>flaky.runs.retention</code>, as
+ * GitHub doesn't allow re-running workflows after 30 days.
+ */
+@Singleton
+public class FlakyRunRegistry {
+
+    private static final Logger logger = Logger.getLogger(FlakyRunRegistry.class);
+
+    private static final int LOCK_STRIPES = 16;
+
+    @ConfigProperty(name = "flaky.runs.retention", defaultValue = "35d")
+    Duration retention;
+
+    @Inject
+    BotStateStore stateStore;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    Clock clock = Clock.systemUTC();
+
+    // Run id to [updated, processed attempts, node ids of processed artifacts, unreported flaky tests as pairs of
+    // issue title and pull request review section]
+    private Map<Long, Object[]> runs;
+
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    @PostConstruct
+    void init() {
+        runs = stateStore.getMap("flaky.runs");
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Processes an attempt of a workflow run unless it has been processed already. The processor is given the node ids
+     * of the artifacts and the unreported flaky tests from earlier attempts and deliveries, and adds the ones it
+     * processes to them.
+     *
+     * @return <code>true</code> if the attempt was processed, or <code>false</code> if it was processed already
+     */
+    public boolean process(long runId, long attempt, RunProcessor processor) throws IOException {
+        Lock lock = locks[Math.floorMod(Long.hashCode(runId), locks.length)];
+        lock.lock();
+        try {
+            Run run = Run.from(runs.get(runId));
+            if (run.attempts.contains(attempt)) {
+                meterRegistry.counter("bot.flaky.runs", "result", "duplicate").increment();
+                logger.infov("Ignoring workflow run {0} attempt {1}, already processed", runId, attempt);
+                return false;
+            }
+
+            RunState state = run.toState();
+            boolean complete = processor.process(state);
+            if (complete) {
+                run.attempts.add(attempt);
+            }
+            runs.put(runId, new Run(run.attempts, state).toValue(clock.millis()));
+            stateStore.commit();
+
+            meterRegistry.counter("bot.flaky.runs", "result", complete ? "processed" : "incomplete").increment();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Scheduled(cron = "{flaky.runs.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void prune() {
+        long cutoff = clock.millis() - retention.toMillis();
+        int removed = 0;
+        for (Map.Entry<Long, Object[]> e : runs.entrySet()) {
+            if ((Long) e.getValue()[0] < cutoff && runs.remove(e.getKey(), e.getValue())) {
+                removed++;
+            }
+        }
+        stateStore.commit();
+        logger.infov("Pruned processed workflow runs: removed={0}, runs={1}", removed, runs.size());
+    }
+
+    public interface RunProcessor {
+
+        /**
+         * Processes the artifacts that are not in the processed artifacts of the run, and adds them to it
+         *
+         * @return <code>true</code> if all artifacts were processed, or <code>false</code> if some should be tried
+         * again
+         */
+        boolean process(RunState run) throws IOException;
+
+    }
+
+    /**
+     * What has been found in a workflow run by earlier attempts and deliveries
+     */
+    public static class RunState {
+
+        private final Set<String> processedArtifacts;
+        // Issue title to the pull request review sections of the flaky tests that have no issue
+        private final Map<String, List<String>> unreportedTests;
+
+        RunState(Set<String> processedArtifacts, Map<String, List<String>> unreportedTests) {
+            this.processedArtifacts = processedArtifacts;
+            this.unreportedTests = unreportedTests;
+        }
+
+        /**
+         * The node ids of the artifacts that have been processed
+         */
+        public Set<String> getProcessedArtifacts() {
+            return processedArtifacts;
+        }
+
+        /**
+         * The flaky tests found without an issue, by issue title, with the pull request review section of each
+         * occurrence
+         */
+        public Map<String, List<String>> getUnreportedTests() {
+            return unreportedTests;
+        }
+
+    }
+
+    private record Run(Set<Long> attempts, Set<String> artifacts, Map<String, List<String>> unreportedTests) {
+
+        Run(Set<Long> attempts, RunState state) {
+            this(attempts, state.processedArtifacts, state.unreportedTests);
+        }
+
+        static Run from(Object[] value) {
+            if (value == null) {
+                return new Run(new HashSet<>(), new HashSet<>(), new LinkedHashMap<>());
+            }
+            Set<Long> attempts = new HashSet<>();
+            Arrays.stream((long[]) value[1]).forEach(attempts::add);
+            Map<String, List<String>> unreportedTests = new LinkedHashMap<>();
+            String[] tests = (String[]) value[3];
+            for (int i = 0; i < tests.length; i += 2) {
+                unreportedTests.computeIfAbsent(tests[i], t -> new ArrayList<>()).add(tests[i + 1]);
+            }
+            return new Run(attempts, new HashSet<>(Arrays.asList((String[]) value[2])), unreportedTests);
+        }
+
+        // Copies, so nothing is changed if processing fails
+        RunState toState() {
+            Map<String, List<String>> tests = new LinkedHashMap<>();
+            unreportedTests.forEach((title, sections) -> tests.put(title, new ArrayList<>(sections)));
+            return new RunState(new HashSet<>(artifacts), tests);
+        }
+
+        Object[] toValue(long updated) {
+            List<String> tests = new ArrayList<>();
+            unreportedTests.forEach((title, sections) -> sections.forEach(section -> {
+                tests.add(title);
+                tests.add(section);
+            }));
+            return new Object[] { updated, attempts.stream().mapToLong(Long::longValue).sorted().toArray(), artifacts.toArray(new String[0]),
+                    tests.toArray(new String[0]) };
+        }
+
+    }
+
+}
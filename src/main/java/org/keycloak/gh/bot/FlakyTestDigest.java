@@ -0,0 +1,337 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkiverse.githubapp.event.Issue;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.utils.FailureFingerprint;
+import org.keycloak.gh.bot.utils.FlakyFailure;
+import org.keycloak.gh.bot.utils.FlakyJob;
+import org.keycloak.gh.bot.utils.FlakyTest;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.HttpException;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reports the occurrences of a flaky test in a single comment per issue per day, instead of adding a comment for every
+ * job the test failed in. The first run of the day adds the comment, later runs merge their jobs and failures into it
+ * and edit it with a single request.
+ * <p>
+ * Failures are merged by their {@link FailureFingerprint} signature, so a failure is listed once with how often it was
+ * seen. Failures with a signature that has not been seen on the issue before are marked as new failure modes.
+ * <p>
+ * The digests are kept in the {@link BotStateStore}, so the comment of the day is still edited after a restart. If the
+ * comment has been deleted a new one is added. Digests of earlier days are removed every day, and the signatures seen on
+ * an issue are removed once the issue is closed or no failures have been reported for
+ * <code>flaky.digest.retention</code>.
+ */
+@Singleton
+public class FlakyTestDigest {
+
+    private static final Logger logger = Logger.getLogger(FlakyTestDigest.class);
+
+    // Keeps the comment well below the size limit of GitHub comments
+    static final int MAX_JOBS = 100;
+    static final int MAX_FAILURES = 10;
+    static final int MAX_SIGNATURES = 100;
+
+    private static final int LOCK_STRIPES = 16;
+
+    @ConfigProperty(name = "flaky.digest.retention", defaultValue = "90d")
+    Duration retention;
+
+    @Inject
+    BotStateStore stateStore;
+
+    @Inject
+    GitHubRestClient gitHubRest;
+
+    @Inject
+    BotCommentLedger commentLedger;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    Clock clock = Clock.systemUTC();
+
+    // Issue (owner/repo#number) to the digest of the day, stored as [day, comment id, job rows, failures, omitted jobs,
+    // failure counts, new failure signatures, failure signatures]
+    private Map<String, Object[]> digests;
+    // Issue (owner/repo#number) to [updated, signatures of the failures seen on the issue], to tell new failure modes
+    // apart
+    private Map<String, Object[]> signatures;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    @PostConstruct
+    void init() {
+        digests = stateStore.getMap("flaky.digests");
+        signatures = stateStore.getMap("flaky.signatures");
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    void onClosed(@Issue.Closed @Issue.Deleted GHEventPayload.Issue payload) {
+        String key = BotCommentLedger.key(payload.getIssue());
+        digests.remove(key);
+        signatures.remove(key);
+    }
+
+    /**
+     * Adds the occurrences of a flaky test from one workflow run to the comment of the day on the issue
+     */
+    public void report(GHIssue issue, List<FlakyTest> flakyTests) throws IOException {
+        String key = BotCommentLedger.key(issue);
+        Lock lock = locks[Math.floorMod(key.hashCode(), locks.length)];
+        lock.lock();
+        try {
+            String day = LocalDate.now(clock).toString();
+
+            Digest digest = Digest.from(digests.get(key));
+            if (digest == null || !digest.day.equals(day)) {
+                digest = new Digest(day);
+            }
+            Object[] seen = signatures.get(key);
+            Set<String> known = new LinkedHashSet<>(seen != null ? Arrays.asList((String[]) seen[1]) : List.of());
+            List<String> added = new ArrayList<>();
+            for (FlakyTest flakyTest : flakyTests) {
+                added.addAll(digest.add(flakyTest, known));
+            }
+
+            String body = digest.toBody(flakyTests.get(0));
+            if (digest.commentId != 0 && edit(issue, digest.commentId, body)) {
+                meterRegistry.counter("bot.flaky.digest", "result", "edited").increment();
+            } else {
+                GHIssueComment comment = issue.comment(body);
+                commentLedger.record(issue, comment);
+                digest.commentId = comment.getId();
+                meterRegistry.counter("bot.flaky.digest", "result", "created").increment();
+            }
+
+            digests.put(key, digest.toValue());
+            if (!added.isEmpty()) {
+                updateSignatures(key, known, added);
+            }
+            stateStore.commit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateSignatures(String key, Set<String> known, List<String> added) {
+        long fresh = added.stream().filter(s -> !known.contains(s)).count();
+        meterRegistry.counter("bot.flaky.failures", "mode", "new").increment(fresh);
+        meterRegistry.counter("bot.flaky.failures", "mode", "known").increment(added.size() - fresh);
+
+        // The most recently seen signatures are kept last
+        known.removeAll(added);
+        known.addAll(added);
+        List<String> kept = new ArrayList<>(known);
+        signatures.put(key, new Object[] { clock.millis(), kept.subList(Math.max(0, kept.size() - MAX_SIGNATURES), kept.size()).toArray(new String[0]) });
+    }
+
+    @Scheduled(cron = "{flaky.digest.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void prune() {
+        String today = LocalDate.now(clock).toString();
+        long cutoff = clock.millis() - retention.toMillis();
+
+        int removedDigests = 0;
+        for (Map.Entry<String, Object[]> e : digests.entrySet()) {
+            if (((String) e.getValue()[0]).compareTo(today) < 0 && digests.remove(e.getKey(), e.getValue())) {
+                removedDigests++;
+            }
+        }
+        int removedSignatures = 0;
+        for (Map.Entry<String, Object[]> e : signatures.entrySet()) {
+            if ((Long) e.getValue()[0] < cutoff && signatures.remove(e.getKey(), e.getValue())) {
+                removedSignatures++;
+            }
+        }
+        stateStore.commit();
+        logger.infov("Pruned flaky test digests: removedDigests={0}, removedSignatures={1}, digests={2}, signatures={3}", removedDigests, removedSignatures, digests.size(), signatures.size());
+    }
+
+    private boolean edit(GHIssue issue, long commentId, String body) throws IOException {
+        try {
+            gitHubRest.updateIssueComment(issue, commentId, body);
+            return true;
+        } catch (HttpException e) {
+            if (e.getResponseCode() != 404) {
+                throw e;
+            }
+            logger.infov("Flaky test digest deleted, adding a new comment: issue={0}, comment={1}", issue.getNumber(), commentId);
+            return false;
+        }
+    }
+
+    static class Digest {
+
+        private final String day;
+        private long commentId;
+        private final List<String> jobs;
+        private final List<String> failures;
+        private final List<String> signatures;
+        private final List<Long> counts;
+        // Signatures of failures that had not been seen on the issue before
+        private final Set<String> fresh;
+        private long omitted;
+
+        Digest(String day) {
+            this(day, 0, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new HashSet<>(), 0);
+        }
+
+        private Digest(String day, long commentId, List<String> jobs, List<String> failures, List<String> signatures, List<Long> counts, Set<String> fresh, long omitted) {
+            this.day = day;
+            this.commentId = commentId;
+            this.jobs = jobs;
+            this.failures = failures;
+            this.signatures = signatures;
+            this.counts = counts;
+            this.fresh = fresh;
+            this.omitted = omitted;
+        }
+
+        static Digest from(Object[] value) {
+            if (value == null) {
+                return null;
+            }
+            return new Digest((String) value[0], (Long) value[1], new ArrayList<>(Arrays.asList((String[]) value[2])), new ArrayList<>(Arrays.asList((String[]) value[3])),
+                    new ArrayList<>(Arrays.asList((String[]) value[7])), new ArrayList<>(Arrays.stream((long[]) value[5]).boxed().toList()),
+                    new HashSet<>(Arrays.asList((String[]) value[6])), (Long) value[4]);
+        }
+
+        Object[] toValue() {
+            return new Object[] { day, commentId, jobs.toArray(new String[0]), failures.toArray(new String[0]), omitted,
+                    counts.stream().mapToLong(Long::longValue).toArray(), fresh.toArray(new String[0]), signatures.toArray(new String[0]) };
+        }
+
+        /**
+         * Adds the jobs and failures of a flaky test, returns the signatures of the failures that were added
+         */
+        List<String> add(FlakyTest flakyTest, Set<String> known) {
+            List<String> added = new ArrayList<>();
+
+            // Failures are numbered in the order they were first seen, and referenced from the jobs they occurred in
+            TreeSet<Integer> numbers = new TreeSet<>();
+            for (FlakyFailure failure : flakyTest.getFlakyFailures()) {
+                int index = signatures.indexOf(failure.getSignature());
+                if (index == -1 && failures.size() < MAX_FAILURES) {
+                    failures.add(failure.getStackTrace());
+                    signatures.add(failure.getSignature());
+                    counts.add(0L);
+                    if (!known.contains(failure.getSignature())) {
+                        fresh.add(failure.getSignature());
+                    }
+                    added.add(failure.getSignature());
+                    index = failures.size() - 1;
+                }
+                if (index != -1) {
+                    counts.set(index, counts.get(index) + failure.getCount());
+                    numbers.add(index + 1);
+                }
+            }
+
+            String job = toRow(flakyTest.getFlakyJob(), numbers);
+            if (jobs.contains(job)) {
+                return added;
+            }
+            if (jobs.size() < MAX_JOBS) {
+                jobs.add(job);
+            } else {
+                omitted++;
+            }
+            return added;
+        }
+
+        String toBody(FlakyTest flakyTest) {
+            StringBuilder body = new StringBuilder();
+
+            body.append("## ");
+            body.append(flakyTest.getClassName());
+            body.append("#");
+            body.append(flakyTest.getMethodName());
+            body.append(" on ");
+            body.append(day);
+            body.append("\n\n");
+
+            body.append("| Job | Pull Request | Failures |\n");
+            body.append("|-----|--------------|----------|\n");
+            for (String job : jobs) {
+                body.append(job);
+                body.append("\n");
+            }
+            if (omitted > 0) {
+                body.append("\nAnd ");
+                body.append(omitted);
+                body.append(" more jobs\n");
+            }
+
+            for (int i = 0; i < failures.size(); i++) {
+                body.append("\n#### Failure ");
+                body.append(i + 1);
+                if (fresh.contains(signatures.get(i))) {
+                    body.append(" (new failure mode)");
+                }
+                body.append("\n");
+                if (counts.get(i) > 1) {
+                    body.append("Seen ");
+                    body.append(counts.get(i));
+                    body.append(" times\n");
+                }
+                body.append("```\n");
+                body.append(failures.get(i));
+                body.append("\n```\n");
+            }
+
+            return body.toString();
+        }
+
+        private static String toRow(FlakyJob flakyJob, TreeSet<Integer> numbers) {
+            StringBuilder row = new StringBuilder();
+
+            row.append("| [");
+            row.append(flakyJob.getWorkflow());
+            row.append(" - ");
+            row.append(flakyJob.getJobName());
+            row.append("](");
+            row.append(flakyJob.getJobUrl());
+            row.append(") | ");
+
+            if (flakyJob.getPr() != null) {
+                row.append("[#");
+                row.append(flakyJob.getPr());
+                row.append("](");
+                row.append(flakyJob.getPrUrl());
+                row.append(")");
+            }
+            row.append(" | ");
+
+            row.append(String.join(", ", numbers.stream().map(String::valueOf).toList()));
+            row.append(" |");
+
+            return row.toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,265 @@
+package org.keycloak.gh.bot;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.utils.FlakyFailure;
+import org.keycloak.gh.bot.utils.FlakyJob;
+import org.keycloak.gh.bot.utils.FlakyTest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the history of flaky test occurrences in the {@link BotStateStore}, so the flakiest tests and their failure
+ * rates can be queried without searching issues on GitHub.
+ * <p>
+ * Every failure of a flaky test is stored as an occurrence with the test, job, workflow run, pull request and failure
+ * signature. The occurrences are rolled up by day and test when they are recorded, together with the number of
+ * workflow runs per day, so queries over a window only read one entry per test per day. The failures of each test are
+ * also rolled up by day and signature, keyed by test first, so the failure modes of a test are read without going
+ * through the occurrences of other tests.
+ * <p>
+ * A workflow run can be recorded more than once, by a re-run attempt or a redelivery of an attempt that wasn't
+ * complete. The run is counted once, on the day it was first recorded, and so is a test that is flaky in more than one
+ * attempt of the run. Occurrences and rollups older than <code>flaky.history.retention</code> are removed every day.
+ */
+@Singleton
+public class FlakyTestHistory {
+
+    private static final Logger logger = Logger.getLogger(FlakyTestHistory.class);
+
+    private static final char SEPARATOR = '\t';
+
+    @ConfigProperty(name = "flaky.history.retention", defaultValue = "90d")
+    Duration retention;
+
+    @Inject
+    BotStateStore stateStore;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    Clock clock = Clock.systemUTC();
+
+    // Key is the time in microseconds, made unique by incrementing, to [test, job, run id, pr, signature, count]
+    private MVMap<Long, Object[]> occurrences;
+    // Day and test (2024-01-31\torg.keycloak.MyTest#test) to [failures, workflow runs]
+    private MVMap<String, long[]> daily;
+    // Day to the number of workflow runs recorded
+    private MVMap<String, Long> runs;
+    // Test, day and signature (org.keycloak.MyTest#test\t2024-01-31\t0123456789abcdef) to failures
+    private MVMap<String, Long> signatures;
+    // Run id to the day it was first recorded
+    private Map<Long, String> runDays;
+    // Day, test and run id (2024-01-31\torg.keycloak.MyTest#test\t123) of the runs a test was flaky in
+    private MVMap<String, Boolean> testRuns;
+
+    private long lastKey;
+
+    @PostConstruct
+    void init() {
+        occurrences = stateStore.getSortedMap("flaky.history.occurrences");
+        daily = stateStore.getSortedMap("flaky.history.daily");
+        runs = stateStore.getSortedMap("flaky.history.runs");
+        signatures = stateStore.getSortedMap("flaky.history.signatures");
+        runDays = stateStore.getMap("flaky.history.runDays");
+        testRuns = stateStore.getSortedMap("flaky.history.testRuns");
+
+        Long last = occurrences.lastKey();
+        lastKey = last != null ? last : 0;
+
+        meterRegistry.gauge("bot.flaky.history.occurrences", List.of(), this, h -> h.occurrences.sizeAsLong());
+    }
+
+    /**
+     * Records a completed workflow run, with the flaky tests found in it if any. Runs without flaky tests are recorded
+     * as well, as they are needed for the failure rate.
+     */
+    public synchronized void record(long runId, List<FlakyJob> flakyJobs) {
+        long now = clock.millis();
+        String day = runDays.get(runId);
+        if (day == null) {
+            day = toDay(now);
+            runDays.put(runId, day);
+            runs.merge(day, 1L, Long::sum);
+        }
+
+        for (FlakyJob flakyJob : flakyJobs) {
+            for (FlakyTest flakyTest : flakyJob.getFlakyTests()) {
+                String test = toTest(flakyTest);
+                long failures = 0;
+                for (FlakyFailure failure : flakyTest.getFlakyFailures()) {
+                    lastKey = Math.max(now * 1000, lastKey + 1);
+                    occurrences.put(lastKey, new Object[] { test, flakyJob.getJobName(), runId, flakyJob.getPr(), failure.getSignature(), (long) failure.getCount() });
+                    signatures.merge(test + SEPARATOR + day + SEPARATOR + failure.getSignature(), (long) failure.getCount(), Long::sum);
+                    failures += failure.getCount();
+                }
+
+                // A test that is flaky in several jobs or attempts of a run is counted once for the run
+                String key = day + SEPARATOR + test;
+                long[] value = daily.get(key);
+                value = value != null ? value.clone() : new long[2];
+                value[0] += failures;
+                value[1] += testRuns.putIfAbsent(key + SEPARATOR + runId, Boolean.TRUE) == null ? 1 : 0;
+                daily.put(key, value);
+            }
+        }
+
+        stateStore.commit();
+    }
+
+    /**
+     * Returns the tests that were flaky in most workflow runs in the last days, most flaky first
+     */
+    public List<TestStats> top(int days, int limit) {
+        long start = System.nanoTime();
+
+        String from = toDay(clock.millis() - TimeUnit.DAYS.toMillis(days - 1));
+        long totalRuns = countRuns(from);
+
+        Map<String, long[]> tests = new HashMap<>();
+        for (Cursor<String, long[]> c = daily.cursor(from); c.hasNext(); ) {
+            String key = c.next();
+            long[] value = c.getValue();
+            tests.merge(key.substring(key.indexOf(SEPARATOR) + 1), value.clone(), (a, b) -> {
+                a[0] += b[0];
+                a[1] += b[1];
+                return a;
+            });
+        }
+
+        List<TestStats> top = tests.entrySet().stream()
+                .map(e -> new TestStats(e.getKey(), e.getValue()[0], e.getValue()[1], totalRuns, null))
+                .sorted(Comparator.comparingLong(TestStats::runs).thenComparingLong(TestStats::failures).reversed().thenComparing(TestStats::test))
+                .limit(limit)
+                .toList();
+
+        meterRegistry.timer("bot.flaky.history.query", "query", "top").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return top;
+    }
+
+    /**
+     * Returns how often a test was flaky in the last days, with the failures by signature
+     */
+    public TestStats rate(String test, int days) {
+        long start = System.nanoTime();
+
+        LocalDate today = LocalDate.ofInstant(clock.instant(), ZoneOffset.UTC);
+        LocalDate from = today.minusDays(days - 1);
+        long totalRuns = countRuns(from.toString());
+
+        long failures = 0;
+        long testRuns = 0;
+        for (LocalDate day = from; !day.isAfter(today); day = day.plusDays(1)) {
+            long[] value = daily.get(day.toString() + SEPARATOR + test);
+            if (value != null) {
+                failures += value[0];
+                testRuns += value[1];
+            }
+        }
+
+        Map<String, Long> testSignatures = new LinkedHashMap<>();
+        String prefix = test + SEPARATOR;
+        for (Cursor<String, Long> c = signatures.cursor(prefix + from); c.hasNext(); ) {
+            String key = c.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            testSignatures.merge(key.substring(key.lastIndexOf(SEPARATOR) + 1), c.getValue(), Long::sum);
+        }
+
+        meterRegistry.timer("bot.flaky.history.query", "query", "rate").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return new TestStats(test, failures, testRuns, totalRuns, testSignatures);
+    }
+
+    /**
+     * Returns the number of days of history that is kept
+     */
+    public int getMaxDays() {
+        return (int) retention.toDays();
+    }
+
+    @Scheduled(cron = "{flaky.history.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public synchronized void prune() {
+        long cutoff = clock.millis() - retention.toMillis();
+        String cutoffDay = toDay(cutoff);
+
+        int removed = 0;
+        for (Long key = occurrences.firstKey(); key != null && key < cutoff * 1000; key = occurrences.firstKey()) {
+            occurrences.remove(key);
+            removed++;
+        }
+        for (String key = daily.firstKey(); key != null && key.compareTo(cutoffDay) < 0; key = daily.firstKey()) {
+            daily.remove(key);
+        }
+        for (String key = runs.firstKey(); key != null && key.compareTo(cutoffDay) < 0; key = runs.firstKey()) {
+            runs.remove(key);
+        }
+        for (String key = testRuns.firstKey(); key != null && key.compareTo(cutoffDay) < 0; key = testRuns.firstKey()) {
+            testRuns.remove(key);
+        }
+        for (Map.Entry<Long, String> e : runDays.entrySet()) {
+            if (e.getValue().compareTo(cutoffDay) < 0) {
+                runDays.remove(e.getKey(), e.getValue());
+            }
+        }
+        // Keyed by test first, so all entries are checked
+        for (String key : signatures.keySet()) {
+            String day = key.substring(key.indexOf(SEPARATOR) + 1, key.lastIndexOf(SEPARATOR));
+            if (day.compareTo(cutoffDay) < 0) {
+                signatures.remove(key);
+            }
+        }
+
+        stateStore.commit();
+        logger.infov("Pruned flaky test history: removed={0}, occurrences={1}", removed, occurrences.sizeAsLong());
+    }
+
+    private long countRuns(String from) {
+        long count = 0;
+        for (Cursor<String, Long> c = runs.cursor(from); c.hasNext(); ) {
+            c.next();
+            count += c.getValue();
+        }
+        return count;
+    }
+
+    private static String toDay(long millis) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC).toString();
+    }
+
+    static String toTest(FlakyTest flakyTest) {
+        return flakyTest.getClassName() + "#" + flakyTest.getMethodName();
+    }
+
+    /**
+     * How often a test was flaky: the failures, the workflow runs it was flaky in, and the failure rate over all
+     * workflow runs in the window
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record TestStats(String test, long failures, long runs, long totalRuns, Map<String, Long> signatures) {
+
+        public double getFailureRate() {
+            return totalRuns > 0 ? (double) runs / totalRuns : 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.keycloak.gh.bot;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.vertx.web.Route;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import java.util.Map;
+
+/**
+ * Queries on the {@link FlakyTestHistory}:
+ * <ul>
+ *     <li><code>GET /flaky-tests/top?days=30&amp;limit=20</code> returns the tests that were flaky in most workflow runs</li>
+ *     <li><code>GET /flaky-tests/rate?test=org.keycloak.MyTest%23test&amp;days=30</code> returns the failure rate of a test,
+ *     with the failures by signature</li>
+ * </ul>
+ */
+@Singleton
+public class FlakyTestHistoryRoutes {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static final int DEFAULT_DAYS = 30;
+    static final int DEFAULT_LIMIT = 20;
+    static final int MAX_LIMIT = 1000;
+
+    @Inject
+    FlakyTestHistory history;
+
+    @Route(path = "/flaky-tests/top", methods = Route.HttpMethod.GET, type = Route.HandlerType.BLOCKING)
+    void top(RoutingContext rc) throws JsonProcessingException {
+        Integer days = getParam(rc, "days", DEFAULT_DAYS, history.getMaxDays());
+        Integer limit = getParam(rc, "limit", DEFAULT_LIMIT, MAX_LIMIT);
+        if (days == null || limit == null) {
+            return;
+        }
+        send(rc, 200, history.top(days, limit));
+    }
+
+    @Route(path = "/flaky-tests/rate", methods = Route.HttpMethod.GET, type = Route.HandlerType.BLOCKING)
+    void rate(RoutingContext rc) throws JsonProcessingException {
+        String test = rc.request().getParam("test");
+        if (test == null || test.isBlank()) {
+            send(rc, 400, Map.of("error", "Missing parameter test"));
+            return;
+        }
+        Integer days = getParam(rc, "days", DEFAULT_DAYS, history.getMaxDays());
+        if (days == null) {
+            return;
+        }
+        send(rc, 200, history.rate(test, days));
+    }
+
+    /**
+     * Returns the value of a parameter between 1 and the max, or sends an error and returns <code>null</code> if the
+     * value is invalid
+     */
+    private Integer getParam(RoutingContext rc, String name, int defaultValue, int max) throws JsonProcessingException {
+        String value = rc.request().getParam(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value);
+            if (i >= 1 && i <= max) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        send(rc, 400, Map.of("error", "Parameter " + name + " must be a number between 1 and " + max));
+        return null;
+    }
+
+    private void send(RoutingContext rc, int status, Object body) throws JsonProcessingException {
+        rc.response()
+                .setStatusCode(status)
+                .putHeader("Content-Type", "application/json")
+                .end(OBJECT_MAPPER.writeValueAsString(body));
+    }
+
+}
@@ -0,0 +1,244 @@
+package org.keycloak.gh.bot;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkiverse.githubapp.event.Issue;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.utils.Labels;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHLabel;
+import org.kohsuke.github.GHRepository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the open issues with the {@link Labels#FLAKY_TEST} label of each repository, so the issue for a flaky test can
+ * be found by its title without using the search API, which has a low rate limit and doesn't find issues that were
+ * just created.
+ * <p>
+ * The issues of a repository are listed once when the repository is first used, and then kept up to date from issue
+ * webhook events and by {@link #add(GHRepository, GHIssue)} when the bot creates an issue. Events that arrive while the
+ * issues are being listed are applied once the listing is done. The issues are listed again after
+ * <code>flaky.index.refresh</code> in case any events were missed.
+ * <p>
+ * Concurrent workflow runs create issues through {@link #getOrCreate(GHRepository, String, IssueCreator)}, which locks
+ * one of {@link #LOCK_STRIPES} locks picked by the title, so only one run can create the issue for a test while runs
+ * reporting other tests are not blocked. Created issues are reserved for <code>flaky.index.reservation</code>, so they
+ * are found even if the repository is listed again before GitHub returns them.
+ */
+@Singleton
+public class FlakyTestIssueIndex {
+
+    private static final Logger logger = Logger.getLogger(FlakyTestIssueIndex.class);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    static final int LOCK_STRIPES = 64;
+
+    @ConfigProperty(name = "flaky.index.refresh", defaultValue = "6h")
+    Duration refresh;
+
+    @ConfigProperty(name = "flaky.index.reservation", defaultValue = "10m")
+    Duration reservation;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private Cache<String, RepositoryIndex> repositories;
+    // Issues created by the bot, by repository and normalized title
+    private Cache<String, Integer> reservations;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    @PostConstruct
+    void init() {
+        repositories = Caffeine.newBuilder()
+                .expireAfterWrite(refresh)
+                .build();
+        reservations = Caffeine.newBuilder()
+                .expireAfterWrite(reservation)
+                .build();
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+
+        meterRegistry.gauge("bot.flaky.index.issues", List.of(), this, i -> i.repositories.asMap().values().stream().mapToInt(r -> r.issues.size()).sum());
+    }
+
+    void onIssueEvent(@Issue.Opened @Issue.Closed @Issue.Reopened @Issue.Edited @Issue.Labeled @Issue.Unlabeled @Issue.Deleted GHEventPayload.Issue payload) {
+        GHIssue issue = payload.getIssue();
+        boolean indexed = !"deleted".equals(payload.getAction()) && isOpenFlakyTest(issue);
+        if (!indexed) {
+            reservations.asMap().remove(key(payload.getRepository(), issue.getTitle()), issue.getNumber());
+        }
+
+        // Repositories that have not been listed yet get the current issues when they are listed
+        RepositoryIndex index = repositories.getIfPresent(payload.getRepository().getFullName());
+        if (index != null) {
+            index.apply(issue.getNumber(), issue.getTitle(), indexed);
+        }
+    }
+
+    /**
+     * Returns the number of the open flaky test issue with the title, or <code>null</code> if there is none
+     */
+    public Integer find(GHRepository repository, String title) throws IOException {
+        return get(repository).find(title);
+    }
+
+    /**
+     * Returns the open flaky test issue with the title, or creates it if there is none. Only one caller at a time can
+     * find or create the issue for a title, the others wait and then get the created issue.
+     */
+    public Result getOrCreate(GHRepository repository, String title, IssueCreator creator) throws IOException {
+        String key = key(repository, title);
+        Lock lock = locks[Math.floorMod(key.hashCode(), locks.length)];
+        lock.lock();
+        try {
+            Integer number = reservations.getIfPresent(key);
+            if (number == null) {
+                number = find(repository, title);
+            }
+            if (number != null) {
+                return new Result(repository.getIssue(number), false);
+            }
+
+            GHIssue issue = creator.create();
+            reservations.put(key, issue.getNumber());
+            add(repository, issue);
+            return new Result(issue, true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an issue the bot has created, which may not have been received as a webhook event yet
+     */
+    public void add(GHRepository repository, GHIssue issue) {
+        RepositoryIndex index = repositories.getIfPresent(repository.getFullName());
+        if (index != null) {
+            index.apply(issue.getNumber(), issue.getTitle(), true);
+        }
+    }
+
+    private RepositoryIndex get(GHRepository repository) throws IOException {
+        RepositoryIndex index = repositories.get(repository.getFullName(), r -> new RepositoryIndex());
+        index.load(repository);
+        return index;
+    }
+
+    static String key(GHRepository repository, String title) {
+        return repository.getFullName() + "#" + normalize(title);
+    }
+
+    private static boolean isOpenFlakyTest(GHIssue issue) {
+        return GHIssueState.OPEN.equals(issue.getState()) && issue.getLabels().stream().map(GHLabel::getName).anyMatch(Labels.FLAKY_TEST::equals);
+    }
+
+    static String normalize(String title) {
+        return WHITESPACE.matcher(title.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    public interface IssueCreator {
+
+        GHIssue create() throws IOException;
+
+    }
+
+    public record Result(GHIssue issue, boolean created) {
+    }
+
+    private static class RepositoryIndex {
+
+        // Normalized title to issue number
+        private final Map<String, Integer> issues = new ConcurrentHashMap<>();
+        // Issue number to normalized title, to remove the old title when an issue is renamed
+        private final Map<Integer, String> titles = new ConcurrentHashMap<>();
+
+        private final Object loadLock = new Object();
+        private volatile boolean loaded;
+        // Changes from events received while the issues are listed
+        private final List<Update> pending = new LinkedList<>();
+
+        void load(GHRepository repository) throws IOException {
+            if (loaded) {
+                return;
+            }
+            synchronized (loadLock) {
+                if (loaded) {
+                    return;
+                }
+                long start = System.nanoTime();
+
+                List<GHIssue> listed = new LinkedList<>();
+                for (GHIssue issue : repository.queryIssues().label(Labels.FLAKY_TEST).state(GHIssueState.OPEN).pageSize(100).list()) {
+                    if (!issue.isPullRequest()) {
+                        listed.add(issue);
+                    }
+                }
+                synchronized (this) {
+                    listed.forEach(issue -> update(issue.getNumber(), issue.getTitle(), true));
+                    pending.forEach(u -> update(u.number(), u.title(), u.indexed()));
+                    pending.clear();
+                    loaded = true;
+                }
+
+                logger.infov("Listed open flaky test issues: repository={0}, issues={1}, time={2}ms", repository.getFullName(), issues.size(), (System.nanoTime() - start) / 1000000);
+            }
+        }
+
+        Integer find(String title) {
+            return issues.get(normalize(title));
+        }
+
+        /**
+         * Applies a change from an event, or queues it if the issues are still being listed
+         */
+        synchronized void apply(int number, String title, boolean indexed) {
+            if (loaded) {
+                update(number, title, indexed);
+            } else {
+                pending.add(new Update(number, title, indexed));
+            }
+        }
+
+        synchronized void update(int number, String title, boolean indexed) {
+            String previous = titles.remove(number);
+            if (previous != null && issues.remove(previous, number)) {
+                // Another open issue may have the same title
+                titles.entrySet().stream()
+                        .filter(e -> e.getValue().equals(previous))
+                        .mapToInt(Map.Entry::getKey)
+                        .min()
+                        .ifPresent(n -> issues.put(previous, n));
+            }
+            if (indexed) {
+                String normalized = normalize(title);
+                titles.put(number, normalized);
+                // If there are duplicates the oldest issue is used, as it has the most history
+                issues.merge(normalized, number, Math::min);
+            }
+        }
+
+        private record Update(int number, String title, boolean indexed) {
+        }
+
+    }
+
+}
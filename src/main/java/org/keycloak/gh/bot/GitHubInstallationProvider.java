@@ -1,7 +1,11 @@
 package org.keycloak.gh.bot;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import io.quarkiverse.githubapp.GitHubClientProvider;
+import io.quarkiverse.githubapp.InstallationTokenProvider;
 import io.quarkus.runtime.Startup;
+import io.smallrye.graphql.client.dynamic.api.DynamicGraphQLClient;
 import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
@@ -12,6 +16,8 @@ import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GitHub;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,13 +30,25 @@ public class GitHubInstallationProvider {
     @Inject
     GitHubClientProvider gitHubClientProvider;
 
+    @Inject
+    InstallationTokenProvider installationTokenProvider;
+
+    @Inject
+    GitHubRequestGovernor governor;
+
     private String botLogin;
 
+    private final Cache<String, Long> installationIds = Caffeine.newBuilder()
+            .maximumSize(100)
+            .expireAfterWrite(Duration.ofHours(1))
+            .build();
+
     @PostConstruct
     public void init() throws java.io.IOException {
         GitHub appClient = gitHubClientProvider.getApplicationClient();
         GHApp app = appClient.getApp();
         this.botLogin = app.getSlug() + "[bot]";
+        governor.setInstallationResolver(this::registerInstallations);
         LOG.infof("GitHub App Provider initialized globally. Bot Identity: %s", botLogin);
     }
 
@@ -44,6 +62,7 @@ public class GitHubInstallationProvider {
 
         for (GHAppInstallation installation : appClient.getApp().listInstallations()) {
             GitHub installationClient = gitHubClientProvider.getInstallationClient(installation.getId());
+            register(installation.getId());
             for (GHRepository repo : installationClient.getInstallation().listRepositories()) {
                 repositories.put(repo, installationClient);
             }
@@ -55,6 +74,39 @@ public class GitHubInstallationProvider {
      * Fetches the authenticated GitHub client for a specific repository
      */
     public GitHub getGitHubClient(String repositoryFullName) throws IOException {
+        return gitHubClientProvider.getInstallationClient(getGovernedInstallationId(repositoryFullName));
+    }
+
+    /**
+     * Fetches the authenticated GitHub GraphQL client for a specific repository
+     */
+    public DynamicGraphQLClient getGraphQLClient(String repositoryFullName) throws IOException {
+        return gitHubClientProvider.getInstallationGraphQLClient(getGovernedInstallationId(repositoryFullName));
+    }
+
+    // Requests are counted against the installation by the governor once the token of the installation is registered
+    private long getGovernedInstallationId(String repositoryFullName) throws IOException {
+        long installationId = getInstallationId(repositoryFullName);
+        register(installationId);
+        return installationId;
+    }
+
+    // Called by the governor when it sees a token it doesn't know, such as the token of a client for a webhook event
+    void registerInstallations() throws IOException {
+        for (GHAppInstallation installation : gitHubClientProvider.getApplicationClient().getApp().listInstallations()) {
+            register(installation.getId());
+        }
+    }
+
+    private void register(long installationId) {
+        governor.register(installationId, installationTokenProvider.getInstallationToken(installationId).token());
+    }
+
+    /**
+     * Returns the id of the installation for a specific repository, the id is cached to prevent looking it up for
+     * every request
+     */
+    public long getInstallationId(String repositoryFullName) throws IOException {
         int slashIndex = repositoryFullName.indexOf('/');
 
         if (slashIndex <= 0 || slashIndex == repositoryFullName.length() - 1) {
@@ -64,9 +116,17 @@ public class GitHubInstallationProvider {
         String owner = repositoryFullName.substring(0, slashIndex);
         String repoName = repositoryFullName.substring(slashIndex + 1);
 
-        long installId = gitHubClientProvider.getApplicationClient().getApp()
-                .getInstallationByRepository(owner, repoName).getId();
-
-        return gitHubClientProvider.getInstallationClient(installId);
+        try {
+            return installationIds.get(repositoryFullName, r -> {
+                try {
+                    return gitHubClientProvider.getApplicationClient().getApp()
+                            .getInstallationByRepository(owner, repoName).getId();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 }
\ No newline at end of file
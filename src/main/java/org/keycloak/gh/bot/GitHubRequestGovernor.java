@@ -0,0 +1,424 @@
+package org.keycloak.gh.bot;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkiverse.githubapp.GitHubCustomizer;
+import io.quarkiverse.githubapp.JavaHttpClientFactory;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.extras.HttpClientGitHubConnector;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Keeps the requests the bot sends to GitHub within the rate limits of each installation, shared by webhook handlers
+ * and scheduled jobs.
+ * <p>
+ * Each installation has a bucket of tokens for each API category (core, search and graphql). The buckets are filled
+ * from the rate limit headers of the responses and refilled when the limit resets. A request takes a token before it is
+ * sent, and waits if there are no tokens left or if GitHub has asked for requests to be held back with
+ * <code>Retry-After</code>. Requests with {@link Priority#BACKGROUND} priority leave a reserve of tokens for interactive
+ * requests and give way to interactive requests that are waiting, so a large sweep can't starve the webhook handlers.
+ * <p>
+ * All installation clients created by the GitHub app extension send requests through the governor. Installations are
+ * recognized by their token, which is registered by {@link GitHubInstallationProvider} when clients are handed out.
+ * Clients created by the extension for webhook handlers have tokens that have not been registered, so when an unknown
+ * installation token is seen the {@link InstallationResolver} registers the current tokens of all installations. This
+ * way webhook handlers and scheduled jobs share the buckets of the installation.
+ */
+@Singleton
+public class GitHubRequestGovernor implements GitHubCustomizer {
+
+    private static final Logger logger = Logger.getLogger(GitHubRequestGovernor.class);
+
+    static final String UNKNOWN_INSTALLATION = "unknown";
+
+    // Prefix of installation access tokens, other tokens such as the JWT of the app are not resolved
+    static final String INSTALLATION_TOKEN_PREFIX = "ghs_";
+
+    public enum Category {
+        CORE(Duration.ofHours(1)),
+        SEARCH(Duration.ofMinutes(1)),
+        GRAPHQL(Duration.ofHours(1));
+
+        private final Duration window;
+
+        Category(Duration window) {
+            this.window = window;
+        }
+
+        static Category fromResource(String resource) {
+            return switch (resource) {
+                case "core" -> CORE;
+                case "search" -> SEARCH;
+                case "graphql" -> GRAPHQL;
+                default -> null;
+            };
+        }
+
+        static Category fromPath(String path) {
+            if (path.startsWith("/search/")) {
+                return SEARCH;
+            } else if (path.equals("/graphql")) {
+                return GRAPHQL;
+            } else {
+                return CORE;
+            }
+        }
+    }
+
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+    // Share of the limit that background requests leave for interactive requests
+    @ConfigProperty(name = "governor.background.reserve", defaultValue = "0.2")
+    double backgroundReserve;
+
+    @ConfigProperty(name = "governor.maxWait", defaultValue = "5m")
+    Duration maxWait;
+
+    @Inject
+    JavaHttpClientFactory httpClientFactory;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    // Installation token to installation id
+    private final Cache<String, String> installations = Caffeine.newBuilder()
+            .maximumSize(100)
+            .expireAfterWrite(Duration.ofHours(2))
+            .build();
+
+    // Tokens that are not of any installation, so they are not resolved again for every request
+    private final Cache<String, Boolean> unresolved = Caffeine.newBuilder()
+            .maximumSize(100)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    private volatile InstallationResolver resolver;
+
+    private GitHubConnector connector;
+
+    @Override
+    public void customize(GitHubBuilder builder) {
+        builder.withConnector(getConnector());
+    }
+
+    private synchronized GitHubConnector getConnector() {
+        if (connector == null) {
+            connector = new GovernedConnector(new HttpClientGitHubConnector(httpClientFactory.create()));
+        }
+        return connector;
+    }
+
+    /**
+     * Runs requests from the current thread with background priority until the returned scope is closed
+     */
+    public static Scope background() {
+        return withPriority(Priority.BACKGROUND);
+    }
+
+    /**
+     * Runs requests from the current thread with the given priority until the returned scope is closed
+     */
+    public static Scope withPriority(Priority priority) {
+        Priority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        return () -> PRIORITY.set(previous);
+    }
+
+    public static Priority getPriority() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * Registers the current token of an installation, so requests sent with the token are counted against the
+     * installation
+     */
+    public void register(long installationId, String token) {
+        installations.put(token, String.valueOf(installationId));
+    }
+
+    /**
+     * Sets what registers the tokens of all installations when a request is sent with a token that is not known
+     */
+    public void setInstallationResolver(InstallationResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Takes a token from the bucket of the installation for the category, waiting if there are none available for the
+     * priority of the current thread
+     */
+    public void acquire(String installation, Category category) throws IOException {
+        getBucket(installation, category).acquire(PRIORITY.get());
+    }
+
+    /**
+     * Updates the bucket of the installation from the rate limit headers of a response
+     */
+    public void update(String installation, Category category, int status, Function<String, String> headers) {
+        String resource = headers.apply("X-RateLimit-Resource");
+        if (resource != null) {
+            category = Category.fromResource(resource.toLowerCase(Locale.ROOT));
+            if (category == null) {
+                return;
+            }
+        }
+        getBucket(installation, category).update(status, headers);
+    }
+
+    /**
+     * Returns the number of tokens left for the installation and category, or <code>-1</code> if no response has been
+     * received yet
+     */
+    public int getRemaining(String installation, Category category) {
+        Bucket bucket = buckets.get(installation + ":" + category);
+        return bucket != null ? bucket.getRemaining() : -1;
+    }
+
+    private Bucket getBucket(String installation, Category category) {
+        return buckets.computeIfAbsent(installation + ":" + category, k -> {
+            Bucket bucket = new Bucket(installation, category);
+            Gauge.builder("bot.github.ratelimit.remaining", bucket, Bucket::getRemaining)
+                    .tag("installation", installation)
+                    .tag("category", category.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+            return bucket;
+        });
+    }
+
+    private String getInstallation(GitHubConnectorRequest request) {
+        String authorization = request.header("Authorization");
+        if (authorization == null) {
+            return UNKNOWN_INSTALLATION;
+        }
+        String token = authorization.substring(authorization.indexOf(' ') + 1);
+        String installation = installations.getIfPresent(token);
+        if (installation == null && token.startsWith(INSTALLATION_TOKEN_PREFIX)) {
+            installation = resolve(token);
+        }
+        return installation != null ? installation : UNKNOWN_INSTALLATION;
+    }
+
+    private synchronized String resolve(String token) {
+        String installation = installations.getIfPresent(token);
+        if (installation != null || resolver == null || unresolved.getIfPresent(token) != null) {
+            return installation;
+        }
+
+        try {
+            resolver.registerInstallations();
+        } catch (IOException | RuntimeException e) {
+            logger.warnv(e, "Failed to resolve installation of token");
+        }
+
+        installation = installations.getIfPresent(token);
+        if (installation == null) {
+            unresolved.put(token, Boolean.TRUE);
+        }
+        return installation;
+    }
+
+    public interface InstallationResolver {
+
+        /**
+         * Registers the current token of each installation of the app with {@link #register(long, String)}
+         */
+        void registerInstallations() throws IOException;
+
+    }
+
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+    class GovernedConnector implements GitHubConnector {
+
+        private final GitHubConnector delegate;
+
+        GovernedConnector(GitHubConnector delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public GitHubConnectorResponse send(GitHubConnectorRequest request) throws IOException {
+            String installation = getInstallation(request);
+            Category category = Category.fromPath(request.url().getPath());
+
+            acquire(installation, category);
+            GitHubConnectorResponse response = delegate.send(request);
+            update(installation, category, response.statusCode(), response::header);
+            return response;
+        }
+
+    }
+
+    private class Bucket {
+
+        private final String installation;
+        private final Category category;
+
+        // Unknown until the first response has been received, requests are not held back until then
+        private int limit = -1;
+        private int tokens;
+        private long resetAt;
+        private long blockedUntil;
+        private int waitingInteractive;
+
+        // Fair, so requests waiting for tokens are let through in the order they arrived, which shares the budget
+        // between the repositories and jobs using the installation
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final Condition changed = lock.newCondition();
+
+        Bucket(String installation, Category category) {
+            this.installation = installation;
+            this.category = category;
+        }
+
+        int getRemaining() {
+            lock.lock();
+            try {
+                refill(System.currentTimeMillis());
+                return limit != -1 ? tokens : -1;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void acquire(Priority priority) throws IOException {
+            long start = System.currentTimeMillis();
+            long deadline = start + maxWait.toMillis();
+
+            lock.lock();
+            if (priority == Priority.INTERACTIVE) {
+                waitingInteractive++;
+            }
+            try {
+                while (true) {
+                    long now = System.currentTimeMillis();
+                    refill(now);
+
+                    long waitUntil = getWaitUntil(priority, now);
+                    if (waitUntil <= now) {
+                        if (limit != -1) {
+                            tokens--;
+                        }
+                        break;
+                    }
+                    if (now >= deadline) {
+                        throw new IOException("Timed out waiting for GitHub rate limit: installation=" + installation + ", category=" + category);
+                    }
+
+                    logger.debugv("Waiting for GitHub rate limit: installation={0}, category={1}, priority={2}, wait={3}ms", installation, category, priority, waitUntil - now);
+                    changed.await(Math.min(waitUntil, deadline) - now, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for GitHub rate limit");
+            } finally {
+                if (priority == Priority.INTERACTIVE) {
+                    waitingInteractive--;
+                    changed.signalAll();
+                }
+                lock.unlock();
+
+                Timer.builder("bot.github.ratelimit.wait")
+                        .tag("category", category.name().toLowerCase(Locale.ROOT))
+                        .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+                        .register(meterRegistry)
+                        .record(System.currentTimeMillis() - start, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void update(int status, Function<String, String> headers) {
+            lock.lock();
+            try {
+                update(System.currentTimeMillis(), status, headers);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void update(long now, int status, Function<String, String> headers) {
+            String limitHeader = headers.apply("X-RateLimit-Limit");
+            String remainingHeader = headers.apply("X-RateLimit-Remaining");
+            String resetHeader = headers.apply("X-RateLimit-Reset");
+            if (limitHeader != null && remainingHeader != null && resetHeader != null) {
+                int remaining = Integer.parseInt(remainingHeader);
+                long reset = Long.parseLong(resetHeader) * 1000;
+
+                limit = Integer.parseInt(limitHeader);
+                // Other requests may have taken tokens since this response was sent, unless the limit has been reset
+                tokens = reset != resetAt ? remaining : Math.min(tokens, remaining);
+                resetAt = reset;
+            }
+
+            // Secondary rate limits don't have a reset time, instead GitHub says how long to wait
+            String retryAfter = headers.apply("Retry-After");
+            if ((status == 403 || status == 429) && retryAfter != null) {
+                blockedUntil = Math.max(blockedUntil, now + Long.parseLong(retryAfter.trim()) * 1000);
+                meterRegistry.counter("bot.github.ratelimit.secondary", "installation", installation).increment();
+                logger.warnv("GitHub secondary rate limit hit: installation={0}, category={1}, retryAfter={2}s", installation, category, retryAfter);
+            }
+        }
+
+        private long getWaitUntil(Priority priority, long now) {
+            if (now < blockedUntil) {
+                return blockedUntil;
+            }
+            if (limit == -1) {
+                return now;
+            }
+            if (priority == Priority.BACKGROUND) {
+                // Woken up when the interactive requests are done
+                if (waitingInteractive > 0) {
+                    return now + 1000;
+                }
+                if (tokens > (int) Math.ceil(limit * backgroundReserve)) {
+                    return now;
+                }
+            } else if (tokens > 0) {
+                return now;
+            }
+            return resetAt;
+        }
+
+        private void refill(long now) {
+            if (limit != -1 && now >= resetAt) {
+                tokens = limit;
+                resetAt = now + category.window.toMillis();
+            }
+        }
+
+    }
+
+}
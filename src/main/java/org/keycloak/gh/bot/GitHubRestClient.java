@@ -0,0 +1,171 @@
+package org.keycloak.gh.bot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkiverse.githubapp.InstallationTokenProvider;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.utils.IssueUpdate;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.HttpException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Sends requests to the GitHub REST API that are not available through the GitHub API client, authenticated with the
+ * token of the installation for the repository.
+ */
+@Singleton
+public class GitHubRestClient {
+
+    private static final Logger logger = Logger.getLogger(GitHubRestClient.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    @Inject
+    GitHubInstallationProvider gitHubProvider;
+
+    @Inject
+    InstallationTokenProvider installationTokenProvider;
+
+    @Inject
+    BotMutationRegistry mutationRegistry;
+
+    @Inject
+    GitHubRequestGovernor governor;
+
+    /**
+     * Updates labels, state and milestone of an issue with a single request
+     */
+    public void updateIssue(IssueUpdate update) throws IOException {
+        if (!update.isChanged()) {
+            return;
+        }
+
+        GHIssue issue = update.getIssue();
+        URL url = issue.getApiURL();
+
+        logger.debugv("Updating issue={0}, {1}", issue.getNumber(), update);
+
+        // Recorded before sending, as the webhook events for the changes may arrive before the response
+        mutationRegistry.record(update);
+        try {
+            send(getRepository(url), "PATCH", url.toString(), update.toPayload());
+        } catch (IOException e) {
+            mutationRegistry.forget(update);
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the body of a comment on an issue by id
+     */
+    public void updateIssueComment(GHIssue issue, long commentId, String body) throws IOException {
+        send(getRepository(issue.getApiURL()), "PATCH", getCommentUrl(issue, commentId), Map.of("body", body));
+    }
+
+    /**
+     * Deletes a comment on an issue by id, comments that are already deleted are ignored
+     */
+    public void deleteIssueComment(GHIssue issue, long commentId) throws IOException {
+        String url = getCommentUrl(issue, commentId);
+
+        try {
+            send(getRepository(issue.getApiURL()), "DELETE", url, null);
+        } catch (HttpException e) {
+            if (e.getResponseCode() != 404) {
+                throw e;
+            }
+            logger.debugv("Comment already deleted: issue={0}, comment={1}", issue.getNumber(), commentId);
+        }
+    }
+
+    /**
+     * Dismisses a review on a pull request by id, reviews that are already deleted are ignored
+     */
+    public void dismissPullRequestReview(GHPullRequest pullRequest, long reviewId, String message) throws IOException {
+        String url = getPullRequestUrl(pullRequest) + "/reviews/" + reviewId + "/dismissals";
+
+        try {
+            send(getRepository(pullRequest.getApiURL()), "PUT", url, Map.of("message", message, "event", "DISMISS"));
+        } catch (HttpException e) {
+            if (e.getResponseCode() != 404) {
+                throw e;
+            }
+            logger.debugv("Review already deleted: pullRequest={0}, review={1}", pullRequest.getNumber(), reviewId);
+        }
+    }
+
+    private static String getCommentUrl(GHIssue issue, long commentId) {
+        String issueUrl = issue.getApiURL().toString();
+        String issuesUrl = issueUrl.substring(0, issueUrl.lastIndexOf('/'));
+        // Comments on pull requests are issue comments, but the url of a pull request is under /pulls
+        if (issuesUrl.endsWith("/pulls")) {
+            issuesUrl = issuesUrl.substring(0, issuesUrl.length() - "/pulls".length()) + "/issues";
+        }
+        return issuesUrl + "/comments/" + commentId;
+    }
+
+    private static String getPullRequestUrl(GHPullRequest pullRequest) {
+        String url = pullRequest.getApiURL().toString();
+        return url.substring(0, url.lastIndexOf('/')).replaceFirst("/issues$", "/pulls") + "/" + pullRequest.getNumber();
+    }
+
+    private String send(String repository, String method, String url, Map<String, Object> body) throws IOException {
+        long installationId = gitHubProvider.getInstallationId(repository);
+        String token = installationTokenProvider.getInstallationToken(installationId).token();
+
+        HttpRequest.BodyPublisher bodyPublisher = body != null
+                ? HttpRequest.BodyPublishers.ofByteArray(OBJECT_MAPPER.writeValueAsBytes(body))
+                : HttpRequest.BodyPublishers.noBody();
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .header("Accept", "application/vnd.github+json")
+                .header("Authorization", "Bearer " + token)
+                .header("X-GitHub-Api-Version", "2022-11-28")
+                .method(method, bodyPublisher)
+                .build();
+
+        String installation = String.valueOf(installationId);
+        governor.acquire(installation, GitHubRequestGovernor.Category.CORE);
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            governor.update(installation, GitHubRequestGovernor.Category.CORE, response.statusCode(), h -> response.headers().firstValue(h).orElse(null));
+            if (response.statusCode() >= 400) {
+                throw new HttpException(response.body(), response.statusCode(), method + " " + url + " failed", url);
+            }
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending " + method + " " + url);
+        }
+    }
+
+    /**
+     * Resolves the repository from an API url with the format <code>/repos/{owner}/{repo}/...</code>
+     */
+    static String getRepository(URL url) {
+        String[] path = url.getPath().split("/");
+        for (int i = 0; i < path.length - 2; i++) {
+            if (path[i].equals("repos")) {
+                return path[i + 1] + "/" + path[i + 2];
+            }
+        }
+        throw new IllegalArgumentException("Repository not found in url " + url);
+    }
+
+}
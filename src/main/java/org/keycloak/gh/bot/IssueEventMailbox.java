@@ -0,0 +1,171 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.kohsuke.github.GHIssue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs webhook events for the same issue one at a time and in the order they were received, while events for
+ * different issues run in parallel.
+ * <p>
+ * Events are held for a short debounce window before they are processed, and if the same kind of event is received
+ * again for an issue within the window only the last one is processed. Tasks are given the issue from the most recent
+ * event, so a burst of events is handled against the final state of the issue.
+ */
+@Singleton
+public class IssueEventMailbox {
+
+    private static final Logger logger = Logger.getLogger(IssueEventMailbox.class);
+
+    @ConfigProperty(name = "mailbox.debounce", defaultValue = "1s")
+    Duration debounce;
+
+    @ConfigProperty(name = "mailbox.threads", defaultValue = "4")
+    int threads;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private ScheduledExecutorService executor;
+    private Counter submittedCounter;
+    private Counter coalescedCounter;
+    private Counter failedCounter;
+    private DistributionSummary batchSize;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newScheduledThreadPool(threads);
+
+        meterRegistry.gauge("bot.mailbox.queued", queued);
+        meterRegistry.gaugeMapSize("bot.mailbox.issues", List.of(), mailboxes);
+        submittedCounter = meterRegistry.counter("bot.mailbox.submitted");
+        coalescedCounter = meterRegistry.counter("bot.mailbox.coalesced");
+        failedCounter = meterRegistry.counter("bot.mailbox.failed");
+        batchSize = meterRegistry.summary("bot.mailbox.batch.size");
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Queues a task for an issue
+     *
+     * @param repository the full name of the repository
+     * @param issue the issue from the webhook event
+     * @param coalesceKey tasks with the same key replace earlier tasks for the issue that have not been run yet
+     * @param task the task to run
+     */
+    public void submit(String repository, GHIssue issue, String coalesceKey, IssueTask task) {
+        String key = repository + "#" + issue.getNumber();
+        submittedCounter.increment();
+
+        mailboxes.compute(key, (k, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new Mailbox(k);
+            }
+            mailbox.add(issue, coalesceKey, task);
+            return mailbox;
+        });
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public interface IssueTask {
+
+        void run(GHIssue issue) throws IOException;
+
+    }
+
+    private class Mailbox {
+
+        private final String key;
+        private final LinkedHashMap<String, IssueTask> tasks = new LinkedHashMap<>();
+        private GHIssue issue;
+        private boolean scheduled = false;
+        private boolean running = false;
+
+        Mailbox(String key) {
+            this.key = key;
+        }
+
+        // Called while holding the lock for the key in the mailboxes map
+        void add(GHIssue issue, String coalesceKey, IssueTask task) {
+            this.issue = issue;
+
+            if (tasks.remove(coalesceKey) != null) {
+                coalescedCounter.increment();
+            } else {
+                queued.incrementAndGet();
+            }
+            tasks.put(coalesceKey, task);
+
+            if (!scheduled && !running) {
+                scheduled = true;
+                executor.schedule(this::drain, debounce.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void drain() {
+            Map<String, IssueTask> batch = new LinkedHashMap<>();
+            GHIssue[] batchIssue = new GHIssue[1];
+
+            mailboxes.compute(key, (k, mailbox) -> {
+                batch.putAll(tasks);
+                batchIssue[0] = issue;
+                tasks.clear();
+                scheduled = false;
+                running = true;
+                return this;
+            });
+
+            queued.addAndGet(-batch.size());
+            batchSize.record(batch.size());
+
+            for (Map.Entry<String, IssueTask> e : batch.entrySet()) {
+                try {
+                    e.getValue().run(batchIssue[0]);
+                } catch (Throwable t) {
+                    failedCounter.increment();
+                    logger.errorv(t, "Failed to process event: issue={0}, event={1}", key, e.getKey());
+                }
+            }
+
+            mailboxes.compute(key, (k, mailbox) -> {
+                running = false;
+                if (tasks.isEmpty()) {
+                    return null;
+                }
+                scheduled = true;
+                executor.schedule(this::drain, debounce.toMillis(), TimeUnit.MILLISECONDS);
+                return this;
+            });
+        }
+
+    }
+
+}
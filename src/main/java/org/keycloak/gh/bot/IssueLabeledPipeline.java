@@ -0,0 +1,166 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkiverse.githubapp.event.Issue;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.utils.IssueUpdate;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs all {@link IssueLabeledRule}s when a label is added to an issue, and sends the combined changes to GitHub with
+ * a single update of the issue.
+ * <p>
+ * Rules are run in a fixed order, and each rule sees the changes made by the rules before it, so if rules disagree the
+ * last rule wins. Labels added by a rule are passed through the rules again within the same plan, instead of waiting
+ * for the webhook event GitHub sends for the label.
+ * <p>
+ * All labels added to an issue within the debounce window of the {@link IssueEventMailbox} are run through a single
+ * plan, so the issue is updated once against its final labels. Separate updates per label would each replace the
+ * labels of the issue from the same event, and undo each other's changes.
+ */
+@Singleton
+public class IssueLabeledPipeline {
+
+    private static final Logger logger = Logger.getLogger(IssueLabeledPipeline.class);
+
+    @Inject
+    IssueEventMailbox mailbox;
+
+    @Inject
+    GitHubRestClient gitHubRest;
+
+    @Inject
+    GitHubInstallationProvider gitHubProvider;
+
+    @Inject
+    BotMutationRegistry mutationRegistry;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @Inject
+    AddTeamLabelToIssues addTeamLabelToIssues;
+
+    @Inject
+    BumpPriorityForTeam bumpPriorityForTeam;
+
+    @Inject
+    UpdatedLabelsOnPriorityChange updatedLabelsOnPriorityChange;
+
+    @Inject
+    BugActionsOnLabel bugActionsOnLabel;
+
+    List<IssueLabeledRule> rules;
+
+    // Labels added to each issue (owner/repo#number) that have not been processed yet
+    private final Map<String, Set<String>> pendingLabels = new ConcurrentHashMap<>();
+
+    private Counter echoCounter;
+
+    @PostConstruct
+    void init() {
+        rules = List.of(addTeamLabelToIssues, bumpPriorityForTeam, updatedLabelsOnPriorityChange, bugActionsOnLabel);
+        echoCounter = meterRegistry.counter("bot.webhook.echo.dropped", "event", "issues.labeled");
+    }
+
+    void onLabeled(@Issue.Labeled GHEventPayload.Issue payload) {
+        String repository = payload.getRepository().getFullName();
+        String label = payload.getLabel().getName();
+
+        if (isEcho(repository, payload.getIssue().getNumber(), label, payload.getSender().getLogin())) {
+            echoCounter.increment();
+            logger.debugv("Ignoring label={0} added by the bot to issue={1}#{2}", label, repository, payload.getIssue().getNumber());
+            return;
+        }
+
+        String key = repository + "#" + payload.getIssue().getNumber();
+        pendingLabels.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(label);
+        mailbox.submit(repository, payload.getIssue(), "labeled", issue -> {
+            Set<String> labels = pendingLabels.remove(key);
+            if (labels != null) {
+                process(labels, issue);
+            }
+        });
+    }
+
+    /**
+     * Labels added by the bot have already been passed through the rules when the bot added them
+     */
+    boolean isEcho(String repository, int number, String label, String sender) {
+        return sender.equals(gitHubProvider.getBotLogin())
+                && mutationRegistry.consume(repository + "#" + number, label);
+    }
+
+    void process(Collection<String> labels, GHIssue issue) throws IOException {
+        Plan plan = new Plan(issue);
+
+        Set<String> processed = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(labels);
+
+        while (!pending.isEmpty()) {
+            String next = pending.poll();
+            if (processed.add(next)) {
+                for (IssueLabeledRule rule : rules) {
+                    rule.apply(next, plan);
+                }
+                for (String added : plan.getUpdate().getAddedLabels()) {
+                    if (!processed.contains(added)) {
+                        pending.add(added);
+                    }
+                }
+            }
+        }
+
+        if (plan.getUpdate().isChanged()) {
+            logger.infov("Updating issue={0} on labels={1}: {2}", issue.getHtmlUrl(), labels, plan.getUpdate());
+            gitHubRest.updateIssue(plan.getUpdate());
+        }
+
+        for (IssueEventMailbox.IssueTask task : plan.afterUpdate) {
+            task.run(issue);
+        }
+    }
+
+    public static class Plan {
+
+        private final IssueUpdate update;
+        private final List<IssueEventMailbox.IssueTask> afterUpdate = new LinkedList<>();
+
+        Plan(GHIssue issue) {
+            this.update = IssueUpdate.of(issue);
+        }
+
+        public IssueUpdate getUpdate() {
+            return update;
+        }
+
+        public GHIssue getIssue() {
+            return update.getIssue();
+        }
+
+        /**
+         * Adds a task that is run after the issue has been updated, for example to add a comment
+         */
+        public void afterUpdate(IssueEventMailbox.IssueTask task) {
+            afterUpdate.add(task);
+        }
+
+    }
+
+}
@@ -0,0 +1,19 @@
+package org.keycloak.gh.bot;
+
+import java.io.IOException;
+
+/**
+ * A rule that is run by {@link IssueLabeledPipeline} when a label is added to an issue
+ */
+public interface IssueLabeledRule {
+
+    /**
+     * Adds the changes for the label to the plan. Rules must not update the issue directly, but can add tasks to the
+     * plan that are run after the issue has been updated.
+     *
+     * @param label the label that was added
+     * @param plan the plan for the issue
+     */
+    void apply(String label, IssueLabeledPipeline.Plan plan) throws IOException;
+
+}
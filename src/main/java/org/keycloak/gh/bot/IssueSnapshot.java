@@ -0,0 +1,105 @@
+package org.keycloak.gh.bot;
+
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHLabel;
+import org.kohsuke.github.GHRepository;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The state of an issue as returned by {@link IssueSnapshotQuery}. The full issue is only fetched from GitHub if it
+ * is needed.
+ */
+public class IssueSnapshot {
+
+    private final GHRepository repository;
+    private final int number;
+    private final boolean open;
+    private final Set<String> labels;
+    private final Date updatedAt;
+    private final int reactions;
+    private final Date lastBotComment;
+    private final boolean complete;
+
+    private GHIssue issue;
+
+    /**
+     * Creates a snapshot of an issue that has already been fetched, with the last bot comment from the ledger
+     */
+    static IssueSnapshot of(GHRepository repository, GHIssue issue, BotCommentLedger botCommentLedger) throws IOException {
+        Set<String> labels = issue.getLabels().stream().map(GHLabel::getName).collect(Collectors.toSet());
+        IssueSnapshot snapshot = new IssueSnapshot(repository, issue.getNumber(), GHIssueState.OPEN.equals(issue.getState()), labels,
+                issue.getUpdatedAt(), 0, botCommentLedger.getLastBotComment(issue), true);
+        snapshot.issue = issue;
+        return snapshot;
+    }
+
+    IssueSnapshot(GHRepository repository, int number, boolean open, Set<String> labels, Date updatedAt, int reactions, Date lastBotComment, boolean complete) {
+        this.repository = repository;
+        this.number = number;
+        this.open = open;
+        this.labels = labels;
+        this.updatedAt = updatedAt;
+        this.reactions = reactions;
+        this.lastBotComment = lastBotComment;
+        this.complete = complete;
+    }
+
+    public GHRepository getRepository() {
+        return repository;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public Set<String> getLabels() {
+        return labels;
+    }
+
+    public boolean hasLabel(String label) {
+        return labels.contains(label);
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public int getReactions() {
+        return reactions;
+    }
+
+    /**
+     * Returns when the bot last added or updated a comment, or <code>null</code> if no comment from the bot was found
+     */
+    public Date getLastBotComment() {
+        return lastBotComment;
+    }
+
+    /**
+     * Returns <code>false</code> if the issue has more comments than were fetched and none of the fetched comments are
+     * from the bot, in which case the comments have to be looked up with the REST API
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Fetches the issue from GitHub the first time it is called
+     */
+    public GHIssue getIssue() throws IOException {
+        if (issue == null) {
+            issue = repository.getIssue(number);
+        }
+        return issue;
+    }
+
+}
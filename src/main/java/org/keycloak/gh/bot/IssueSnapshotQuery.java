@@ -0,0 +1,277 @@
+package org.keycloak.gh.bot;
+
+import io.smallrye.graphql.client.GraphQLError;
+import io.smallrye.graphql.client.Response;
+import io.smallrye.graphql.client.dynamic.api.DynamicGraphQLClient;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonValue;
+import org.jboss.logging.Logger;
+import org.kohsuke.github.GHRepository;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Searches for issues using the GitHub GraphQL API, returning the state, labels, last update, number of reactions and
+ * last bot comment of up to 100 issues per request. This replaces listing the issues and then listing the comments of
+ * each issue with the REST API.
+ * <p>
+ * GitHub returns at most 1000 results for a search. Searches with more results are split into slices by when the
+ * issues were created, and slices are split again until each slice is within the limit, so all matching issues are
+ * returned however many there are. Slices are counted with {@link #COUNT_QUERY} before they are fetched, so a slice that
+ * has to be split again doesn't fetch a full page of issues and comments that is thrown away.
+ */
+@Singleton
+public class IssueSnapshotQuery {
+
+    private static final Logger logger = Logger.getLogger(IssueSnapshotQuery.class);
+
+    static final int PAGE_SIZE = 100;
+
+    // Only the latest comments are fetched, if the bot comment is older the issue is marked as incomplete
+    static final int COMMENTS = 20;
+
+    // Maximum number of results GitHub returns for a search
+    static final int SEARCH_LIMIT = 1000;
+
+    // Earliest creation date searched for when a search is split, before any issue on GitHub was created
+    static final Instant FIRST_CREATED = Instant.parse("2008-01-01T00:00:00Z");
+
+    static final String QUERY = """
+            query($query: String!, $first: Int!, $comments: Int!, $after: String) {
+              search(query: $query, type: ISSUE, first: $first, after: $after) {
+                issueCount
+                pageInfo {
+                  hasNextPage
+                  endCursor
+                }
+                nodes {
+                  ... on Issue {
+                    number
+                    state
+                    updatedAt
+                    labels(first: 100) {
+                      nodes {
+                        name
+                      }
+                    }
+                    reactions {
+                      totalCount
+                    }
+                    comments(last: $comments) {
+                      totalCount
+                      nodes {
+                        updatedAt
+                        author {
+                          login
+                        }
+                      }
+                    }
+                  }
+                }
+              }
+            }
+            """;
+
+    // Only returns the number of matching issues, to find out if a slice has to be split
+    static final String COUNT_QUERY = """
+            query($query: String!) {
+              search(query: $query, type: ISSUE, first: 0) {
+                issueCount
+              }
+            }
+            """;
+
+    @Inject
+    GitHubInstallationProvider gitHubProvider;
+
+    @Inject
+    GitHubRequestGovernor governor;
+
+    /**
+     * Returns all issues in the repository matching the search query
+     *
+     * @param query search query, without the <code>repo:</code> qualifier
+     */
+    public List<IssueSnapshot> findIssues(GHRepository repository, String query) throws IOException {
+        Search search = new Search(repository, "repo:" + repository.getFullName() + " is:issue " + query);
+        search.run();
+
+        logger.debugv("Found {0} issues in {1} requests and {2} slices: query={3}", search.issues.size(), search.requests, search.slices, search.query);
+
+        return new LinkedList<>(search.issues.values());
+    }
+
+    private JsonObject execute(DynamicGraphQLClient client, String installation, String query, Map<String, Object> variables) throws IOException {
+        governor.acquire(installation, GitHubRequestGovernor.Category.GRAPHQL);
+        try {
+            Response response = client.executeSync(query, variables);
+            Map<String, List<String>> headers = response.getTransportMeta();
+            if (headers != null) {
+                governor.update(installation, GitHubRequestGovernor.Category.GRAPHQL, 200, h -> getHeader(headers, h));
+            }
+            if (response.hasError()) {
+                throw new IOException("GraphQL query failed: " + response.getErrors().stream().map(GraphQLError::getMessage).collect(Collectors.joining(", ")));
+            }
+            return response.getData();
+        } catch (ExecutionException e) {
+            throw new IOException("GraphQL query failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running GraphQL query");
+        }
+    }
+
+    private IssueSnapshot toSnapshot(GHRepository repository, JsonObject node) {
+        Set<String> labels = new LinkedHashSet<>();
+        for (JsonValue label : node.getJsonObject("labels").getJsonArray("nodes")) {
+            labels.add(label.asJsonObject().getString("name"));
+        }
+
+        JsonObject comments = node.getJsonObject("comments");
+        Date lastBotComment = null;
+        for (JsonValue value : comments.getJsonArray("nodes")) {
+            JsonObject comment = value.asJsonObject();
+            if (comment.isNull("author") || !isBot(comment.getJsonObject("author").getString("login"))) {
+                continue;
+            }
+            Date updatedAt = parseDate(comment.getString("updatedAt"));
+            if (lastBotComment == null || lastBotComment.before(updatedAt)) {
+                lastBotComment = updatedAt;
+            }
+        }
+
+        boolean complete = lastBotComment != null || comments.getInt("totalCount") <= COMMENTS;
+
+        return new IssueSnapshot(repository, node.getInt("number"), node.getString("state").equals("OPEN"), labels, parseDate(node.getString("updatedAt")),
+                node.getJsonObject("reactions").getInt("totalCount"), lastBotComment, complete);
+    }
+
+    private class Search {
+
+        private final GHRepository repository;
+        private final String query;
+        private final DynamicGraphQLClient client;
+        private final String installation;
+
+        // Issues can move between pages while paging, so they are collected by number to drop duplicates
+        private final Map<Integer, IssueSnapshot> issues = new LinkedHashMap<>();
+        private int requests;
+        private int slices;
+
+        Search(GHRepository repository, String query) throws IOException {
+            this.repository = repository;
+            this.query = query;
+            this.client = gitHubProvider.getGraphQLClient(repository.getFullName());
+            this.installation = String.valueOf(gitHubProvider.getInstallationId(repository.getFullName()));
+        }
+
+        /**
+         * Searches for all issues. Most searches are within the limit, so the first page is fetched straight away and
+         * the search is only split if it turns out to be over the limit.
+         */
+        void run() throws IOException {
+            fetch(null, null);
+        }
+
+        /**
+         * Searches for the issues created within the range, both ends included, splitting the range if there are more
+         * issues than the limit
+         */
+        private void run(Instant from, Instant to) throws IOException {
+            if (count(from, to) > SEARCH_LIMIT) {
+                split(from, to);
+            } else {
+                fetch(from, to);
+            }
+        }
+
+        private void fetch(Instant from, Instant to) throws IOException {
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("query", getQuery(from, to));
+            variables.put("first", PAGE_SIZE);
+            variables.put("comments", COMMENTS);
+
+            String after = null;
+            do {
+                variables.put("after", after);
+                JsonObject search = execute(client, installation, QUERY, variables).getJsonObject("search");
+                requests++;
+
+                if (after == null && from == null && search.getInt("issueCount") > SEARCH_LIMIT) {
+                    split(FIRST_CREATED, Instant.now().truncatedTo(ChronoUnit.SECONDS));
+                    return;
+                }
+
+                for (JsonValue node : search.getJsonArray("nodes")) {
+                    if (node.getValueType() == JsonValue.ValueType.OBJECT && !node.asJsonObject().isEmpty()) {
+                        IssueSnapshot snapshot = toSnapshot(repository, node.asJsonObject());
+                        issues.put(snapshot.getNumber(), snapshot);
+                    }
+                }
+
+                JsonObject pageInfo = search.getJsonObject("pageInfo");
+                after = pageInfo.getBoolean("hasNextPage") ? pageInfo.getString("endCursor") : null;
+            } while (after != null);
+
+            slices++;
+        }
+
+        private void split(Instant from, Instant to) throws IOException {
+            if (!from.isBefore(to)) {
+                logger.warnv("More than {0} issues created at {1}, only the first are returned: query={2}", SEARCH_LIMIT, from, query);
+                fetch(from, to);
+                return;
+            }
+            Instant middle = from.plus(Duration.between(from, to).dividedBy(2)).truncatedTo(ChronoUnit.SECONDS);
+            run(from, middle);
+            run(middle.plusSeconds(1), to);
+        }
+
+        private int count(Instant from, Instant to) throws IOException {
+            JsonObject search = execute(client, installation, COUNT_QUERY, Map.of("query", getQuery(from, to))).getJsonObject("search");
+            requests++;
+            return search.getInt("issueCount");
+        }
+
+        private String getQuery(Instant from, Instant to) {
+            return from != null ? query + " created:" + from + ".." + to : query;
+        }
+
+    }
+
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            if (e.getKey().equalsIgnoreCase(name) && !e.getValue().isEmpty()) {
+                return e.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    // GraphQL returns the login of apps without the [bot] suffix
+    private boolean isBot(String login) {
+        String botLogin = gitHubProvider.getBotLogin();
+        return login.equals(botLogin) || (login + "[bot]").equals(botLogin);
+    }
+
+    private static Date parseDate(String date) {
+        return Date.from(Instant.parse(date));
+    }
+
+}
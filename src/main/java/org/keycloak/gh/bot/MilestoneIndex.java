@@ -0,0 +1,185 @@
+package org.keycloak.gh.bot;
+
+import io.quarkiverse.githubapp.GitHubEvent;
+import io.quarkiverse.githubapp.event.RawEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.vertx.core.json.JsonObject;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHMilestone;
+import org.kohsuke.github.GHRepository;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of open release milestones for each repository. The index is loaded the first time a repository is used, and
+ * is kept up-to-date from the number and title of the milestones in milestone webhook events. Events that arrive while
+ * the milestones are being listed are applied once the listing is done. The milestones are listed again after
+ * <code>milestones.refresh</code> in case any events were missed.
+ */
+@Singleton
+public class MilestoneIndex {
+
+    private static final Logger logger = Logger.getLogger(MilestoneIndex.class);
+
+    static final Pattern MAJOR_VERSION_PATTERN = Pattern.compile("(\\d+)\\.\\d+.\\d+");
+
+    @ConfigProperty(name = "milestones.refresh", defaultValue = "6h")
+    Duration refresh;
+
+    private Cache<String, Milestones> repositories;
+
+    @PostConstruct
+    void init() {
+        repositories = Caffeine.newBuilder()
+                .expireAfterWrite(refresh)
+                .build();
+    }
+
+    public Milestone getNextMajorRelease(GHRepository repository) {
+        Milestones milestones = repositories.get(repository.getFullName(), r -> new Milestones());
+        milestones.load(repository);
+        return milestones.getNextMajorRelease();
+    }
+
+    void onMilestone(@RawEvent(event = "milestone") GitHubEvent event) {
+        String repositoryName = event.getRepositoryOrThrow();
+        Milestones milestones = repositories.getIfPresent(repositoryName);
+        if (milestones == null) {
+            // Not loaded yet, will be fetched when it is first needed
+            return;
+        }
+
+        JsonObject milestone = event.getParsedPayload().getJsonObject("milestone");
+        int number = milestone.getInteger("number");
+        String title = milestone.getString("title");
+        boolean open = "open".equals(milestone.getString("state"));
+
+        switch (event.getAction()) {
+            case "created", "opened", "edited" -> {
+                if (open && getMajorVersion(title) != null) {
+                    milestones.apply(ms -> ms.put(new Milestone(number, title)));
+                } else {
+                    milestones.apply(ms -> ms.remove(number));
+                }
+            }
+            case "closed", "deleted" -> milestones.apply(ms -> ms.remove(number));
+            default -> {
+                return;
+            }
+        }
+
+        logger.infov("Milestone {0}: repository={1}, milestone={2}, nextMajorRelease={3}", event.getAction(), repositoryName, title, milestones.getNextMajorReleaseTitle());
+    }
+
+    static Integer getMajorVersion(String title) {
+        if (title == null) {
+            return null;
+        }
+        Matcher matcher = MAJOR_VERSION_PATTERN.matcher(title);
+        return matcher.matches() ? Integer.valueOf(matcher.group(1)) : null;
+    }
+
+    static class Milestones {
+
+        // Keeps the order milestones are listed in, which is used when there are multiple milestones for the same major
+        private final Map<Integer, Integer> majorVersions = new LinkedHashMap<>();
+        private final Map<Integer, Milestone> milestones = new HashMap<>();
+        private Milestone nextMajorRelease;
+
+        private final Object loadLock = new Object();
+        private volatile boolean loaded;
+        // Changes from events received while the milestones are listed
+        private final List<Consumer<Milestones>> pending = new LinkedList<>();
+
+        void load(GHRepository repository) {
+            if (loaded) {
+                return;
+            }
+            synchronized (loadLock) {
+                if (loaded) {
+                    return;
+                }
+                List<Milestone> listed = new LinkedList<>();
+                for (GHMilestone milestone : repository.listMilestones(GHIssueState.OPEN)) {
+                    listed.add(new Milestone(milestone.getNumber(), milestone.getTitle()));
+                }
+                synchronized (this) {
+                    listed.forEach(this::put);
+                    pending.forEach(c -> c.accept(this));
+                    pending.clear();
+                    loaded = true;
+                }
+                logger.infov("Loaded milestones: repository={0}, nextMajorRelease={1}", repository.getFullName(), getNextMajorReleaseTitle());
+            }
+        }
+
+        /**
+         * Applies a change from an event, or queues it if the milestones are still being listed
+         */
+        synchronized void apply(Consumer<Milestones> change) {
+            if (loaded) {
+                change.accept(this);
+            } else {
+                pending.add(change);
+            }
+        }
+
+        synchronized void put(Milestone milestone) {
+            Integer majorVersion = getMajorVersion(milestone.title());
+            if (majorVersion != null) {
+                majorVersions.put(milestone.number(), majorVersion);
+                milestones.put(milestone.number(), milestone);
+            } else {
+                majorVersions.remove(milestone.number());
+                milestones.remove(milestone.number());
+            }
+            updateNextMajorRelease();
+        }
+
+        synchronized void remove(int number) {
+            majorVersions.remove(number);
+            milestones.remove(number);
+            updateNextMajorRelease();
+        }
+
+        synchronized Milestone getNextMajorRelease() {
+            return nextMajorRelease;
+        }
+
+        synchronized String getNextMajorReleaseTitle() {
+            return nextMajorRelease != null ? nextMajorRelease.title() : null;
+        }
+
+        private void updateNextMajorRelease() {
+            Integer nextMajorVersion = null;
+            nextMajorRelease = null;
+            for (Map.Entry<Integer, Integer> e : majorVersions.entrySet()) {
+                if (nextMajorVersion == null || e.getValue() < nextMajorVersion) {
+                    nextMajorVersion = e.getValue();
+                    nextMajorRelease = milestones.get(e.getKey());
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The number and title of a milestone, which is all that is needed to set the milestone of an issue
+     */
+    public record Milestone(int number, String title) {
+    }
+
+}
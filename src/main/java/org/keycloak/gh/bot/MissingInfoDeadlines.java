@@ -0,0 +1,163 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expires issues that are missing information when their deadline is reached, instead of when the next triage sweep
+ * runs.
+ * <p>
+ * Deadlines are kept in the {@link BotStateStore} so they survive restarts, and are scheduled in memory on a single
+ * thread, which holds them in a queue ordered by deadline. Deadlines are added when the bot asks for more information
+ * and cancelled when the reporter responds. The triage sweep adds deadlines for issues it finds without one, for example
+ * if the labels were added by hand, and still expires issues itself in case a deadline was missed.
+ * <p>
+ * Timers are only started once the handler is set, so deadlines that passed while the bot was down are not run before
+ * there is anything to run them.
+ */
+@Startup
+@Singleton
+public class MissingInfoDeadlines {
+
+    private static final Logger logger = Logger.getLogger(MissingInfoDeadlines.class);
+
+    // Delay before trying again if an issue failed to expire
+    static final Duration RETRY = Duration.ofMinutes(15);
+
+    @Inject
+    BotStateStore stateStore;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    // Issue (owner/repo#number) to deadline
+    private Map<String, Long> deadlines;
+    private final Map<String, ScheduledFuture<?>> timers = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+    private volatile Handler handler;
+
+    @PostConstruct
+    void init() {
+        deadlines = stateStore.getMap("missingInfo.deadlines");
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        meterRegistry.gaugeMapSize("bot.missingInfo.deadlines", List.of(), deadlines);
+    }
+
+    @PreDestroy
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Sets what is done when the deadline of an issue is reached, the deadline is removed once the handler has
+     * completed. Starts the timers for the deadlines kept in the store.
+     */
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+
+        for (Map.Entry<String, Long> e : deadlines.entrySet()) {
+            startTimer(e.getKey(), e.getValue(), e.getValue());
+        }
+        logger.infov("Scheduled deadlines for issues missing information: {0}", deadlines.size());
+    }
+
+    /**
+     * Schedules an issue to be expired at the deadline, replacing any earlier deadline for the issue
+     *
+     * @param issue the issue in the format <code>owner/repo#number</code>
+     * @param deadline the deadline in milliseconds since the epoch
+     */
+    public void schedule(String issue, long deadline) {
+        deadlines.put(issue, deadline);
+        stateStore.commit();
+        startTimer(issue, deadline, deadline);
+        logger.debugv("Scheduled deadline for issue={0}, deadline={1}", issue, Instant.ofEpochMilli(deadline));
+    }
+
+    /**
+     * Schedules an issue to be expired at the deadline, unless the issue already has a deadline
+     */
+    public void scheduleIfAbsent(String issue, long deadline) {
+        if (!deadlines.containsKey(issue)) {
+            schedule(issue, deadline);
+        }
+    }
+
+    /**
+     * Cancels the deadline of an issue, if there is one
+     */
+    public void cancel(String issue) {
+        if (deadlines.remove(issue) != null) {
+            stateStore.commit();
+            logger.debugv("Cancelled deadline for issue={0}", issue);
+        }
+        ScheduledFuture<?> timer = timers.remove(issue);
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+
+    public Long getDeadline(String issue) {
+        return deadlines.get(issue);
+    }
+
+    private void startTimer(String issue, long deadline, long runAt) {
+        // Started when the handler is set
+        if (handler == null) {
+            return;
+        }
+
+        long delay = Math.max(0, runAt - System.currentTimeMillis());
+        timers.compute(issue, (k, timer) -> {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            return scheduler.schedule(() -> onDeadline(issue, deadline), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void onDeadline(String issue, long deadline) {
+        // The deadline has been changed or cancelled since the timer was started
+        Long current = deadlines.get(issue);
+        if (current == null || current != deadline) {
+            return;
+        }
+
+        try (GitHubRequestGovernor.Scope background = GitHubRequestGovernor.background()) {
+            handler.onDeadline(issue);
+
+            if (deadlines.remove(issue, deadline)) {
+                timers.remove(issue);
+                stateStore.commit();
+            }
+        } catch (Throwable t) {
+            logger.warnv(t, "Failed to expire issue={0}, trying again in {1}", issue, RETRY);
+            startTimer(issue, deadline, System.currentTimeMillis() + RETRY.toMillis());
+        }
+    }
+
+    public interface Handler {
+
+        void onDeadline(String issue) throws IOException;
+
+    }
+
+}
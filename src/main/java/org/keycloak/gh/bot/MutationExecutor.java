@@ -0,0 +1,162 @@
+package org.keycloak.gh.bot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the changes scheduled jobs make to issues in parallel, with at most <code>mutations.concurrency</code> requests
+ * in flight. Changes submitted for the same issue run one after the other in the order they were submitted, and are
+ * skipped if an earlier change for the issue failed.
+ * <p>
+ * Failures don't stop the other changes, instead they are collected in the {@link Report} for the run. Changes run with
+ * the {@link GitHubRequestGovernor.Priority} of the thread that submitted them.
+ */
+@Singleton
+public class MutationExecutor {
+
+    private static final Logger logger = Logger.getLogger(MutationExecutor.class);
+
+    @ConfigProperty(name = "mutations.concurrency", defaultValue = "8")
+    int concurrency;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Starts a new run, changes are submitted to the run and then awaited together
+     */
+    public Run start(String name) {
+        return new Run(name);
+    }
+
+    public interface Mutation {
+
+        void run() throws IOException;
+
+    }
+
+    public class Run {
+
+        private final String name;
+        private final Map<String, CompletableFuture<Void>> tails = new LinkedHashMap<>();
+        private final Map<String, Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        Run(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Submits a change for an issue, which runs after all changes submitted earlier for the same issue. Changes
+         * are submitted from the thread that started the run.
+         *
+         * @param key the issue in the format <code>owner/repo#number</code>
+         */
+        public void submit(String key, Mutation mutation) {
+            GitHubRequestGovernor.Priority priority = GitHubRequestGovernor.getPriority();
+
+            CompletableFuture<Void> tail = tails.getOrDefault(key, CompletableFuture.completedFuture(null));
+            tails.put(key, tail.thenRunAsync(() -> {
+                try (GitHubRequestGovernor.Scope scope = GitHubRequestGovernor.withPriority(priority)) {
+                    mutation.run();
+                } catch (Throwable t) {
+                    failures.put(key, t);
+                    throw new CompletionException(t);
+                }
+            }, executor));
+        }
+
+        /**
+         * Records a failure for an issue that happened before a change could be submitted for it, so it's included in
+         * the report of the run
+         *
+         * @param key the issue in the format <code>owner/repo#number</code>
+         */
+        public void fail(String key, Throwable failure) {
+            failures.put(key, failure);
+        }
+
+        /**
+         * Waits for all changes to complete
+         */
+        public Report await() throws IOException {
+            List<String> succeeded = new ArrayList<>();
+            for (Map.Entry<String, CompletableFuture<Void>> e : tails.entrySet()) {
+                try {
+                    e.getValue().get();
+                    succeeded.add(e.getKey());
+                } catch (ExecutionException ex) {
+                    // Recorded in failures by the change that failed
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for " + name);
+                }
+            }
+
+            Report report = new Report(name, succeeded, Map.copyOf(failures));
+            for (Map.Entry<String, Throwable> e : report.getFailures().entrySet()) {
+                logger.errorv(e.getValue(), "Failed to process issue={0} in {1}", e.getKey(), name);
+            }
+            return report;
+        }
+
+    }
+
+    /**
+     * The outcome of a run, issues are either succeeded or failed. Changes that were skipped because an earlier change
+     * for the issue failed are not included.
+     */
+    public static class Report {
+
+        private final String name;
+        private final List<String> succeeded;
+        private final Map<String, Throwable> failures;
+
+        Report(String name, List<String> succeeded, Map<String, Throwable> failures) {
+            this.name = name;
+            this.succeeded = succeeded;
+            this.failures = failures;
+        }
+
+        public List<String> getSucceeded() {
+            return succeeded;
+        }
+
+        public Map<String, Throwable> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            List<String> failed = new ArrayList<>(failures.keySet());
+            Collections.sort(failed);
+            return name + ": succeeded=" + succeeded.size() + ", failed=" + failed;
+        }
+
+    }
+
+}
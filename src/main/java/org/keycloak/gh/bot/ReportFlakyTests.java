@@ -1,12 +1,13 @@
 package org.keycloak.gh.bot;
 
 import io.quarkiverse.githubapp.event.WorkflowRun;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.utils.FlakyFailure;
 import org.keycloak.gh.bot.utils.FlakyJob;
-import org.keycloak.gh.bot.utils.FlakyJobParser;
 import org.keycloak.gh.bot.utils.FlakyTest;
 import org.keycloak.gh.bot.utils.Labels;
-import org.kohsuke.github.GHArtifact;
 import org.kohsuke.github.GHEvent;
 import org.kohsuke.github.GHEventPayload;
 import org.kohsuke.github.GHIssue;
@@ -25,17 +26,46 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ReportFlakyTests {
 
     Logger logger = Logger.getLogger(ReportFlakyTests.class);
 
+    @Inject
+    FlakyArtifactDownloader flakyArtifactDownloader;
+
+    @Inject
+    FlakyTestIssueIndex flakyTestIssueIndex;
+
+    @Inject
+    FlakyTestDigest flakyTestDigest;
+
+    @Inject
+    FlakyTestHistory flakyTestHistory;
+
+    @Inject
+    FlakyRunRegistry flakyRunRegistry;
+
+    @Inject
+    BotPullRequestRegistry botPullRequestRegistry;
+
+    @Inject
+    GitHubRestClient gitHubRest;
+
+    @ConfigProperty(name = "flaky.digest.enabled", defaultValue = "true")
+    boolean digestEnabled;
+
     void onCompleted(@WorkflowRun.Completed GHEventPayload.WorkflowRun workflowRunEvent, GitHub gitHub) throws IOException {
         GHWorkflow workflow = workflowRunEvent.getWorkflow();
         GHWorkflowRun workflowRun = workflowRunEvent.getWorkflowRun();
-        boolean isPullRequest = GHEvent.PULL_REQUEST == workflowRun.getEvent();
 
         if(!workflow.getName().equals("Keycloak CI")) {
             return;
@@ -46,7 +76,24 @@ public class ReportFlakyTests {
             return;
         }
 
-        List<FlakyJob> flakyJobs = findFlakyJobs(workflowRun);
+        // Redelivered events are ignored, and re-runs only download the artifacts that are new
+        flakyRunRegistry.process(workflowRun.getId(), workflowRun.getRunAttempt(), run -> {
+            FlakyArtifactDownloader.Result result = findFlakyJobs(workflowRun, run.getProcessedArtifacts());
+            run.getProcessedArtifacts().addAll(result.artifactIds());
+            report(workflow, workflowRun, result.flakyJobs(), run.getUnreportedTests());
+            return result.failed() == 0;
+        });
+    }
+
+    /**
+     * Reports the flaky jobs found in the new artifacts of a run. The unreported tests of the run are updated with the
+     * flaky tests without an issue, and the pull request review is created from all of them.
+     */
+    void report(GHWorkflow workflow, GHWorkflowRun workflowRun, List<FlakyJob> flakyJobs, Map<String, List<String>> unreportedTests) throws IOException {
+        boolean isPullRequest = GHEvent.PULL_REQUEST == workflowRun.getEvent();
+
+        // Runs without flaky tests are recorded too, for the failure rate
+        flakyTestHistory.record(workflowRun.getId(), flakyJobs);
         if (flakyJobs.isEmpty()) {
             logger.infov("No flakes found in {0}", workflowRun.getHtmlUrl());
             return;
@@ -63,51 +110,68 @@ public class ReportFlakyTests {
             }
         }
 
-        List<FlakyTest> unreportedFlakyTestsFromPr = new LinkedList<>();
+        // Occurrences of the same test in all jobs of the run are reported together
+        Map<Integer, List<FlakyTest>> reportedFlakyTests = new LinkedHashMap<>();
+        Map<Integer, GHIssue> reportedIssues = new HashMap<>();
 
         for (FlakyJob flakyJob : flakyJobs) {
             for (FlakyTest flakyTest : flakyJob.getFlakyTests()) {
-                GHIssue issue = findIssue(gitHub, flakyTest);
-
-                if (issue != null) {
-                    createIssueComment(flakyTest, workflowRun, issue);
-                } else if (isPullRequest) {
-                    unreportedFlakyTestsFromPr.add(flakyTest);
+                if (isPullRequest) {
+                    GHIssue issue = findIssue(workflowRun.getRepository(), flakyTest);
+                    if (issue != null) {
+                        reportedIssues.putIfAbsent(issue.getNumber(), issue);
+                        reportedFlakyTests.computeIfAbsent(issue.getNumber(), n -> new LinkedList<>()).add(flakyTest);
+                    } else {
+                        unreportedTests.computeIfAbsent(flakyTest.getIssueTitle(), t -> new LinkedList<>())
+                                .add(getPullRequestReviewSection(flakyTest, workflowRun.getRepository().getHtmlUrl()));
+                    }
                 } else {
-                    createIssue(flakyTest, workflowRun);
+                    // Runs that finish at the same time may report the same test, only one of them creates the issue
+                    FlakyTestIssueIndex.Result result = flakyTestIssueIndex.getOrCreate(workflowRun.getRepository(), flakyTest.getIssueTitle(), () -> createIssue(flakyTest, workflowRun));
+                    if (!result.created()) {
+                        reportedIssues.putIfAbsent(result.issue().getNumber(), result.issue());
+                        reportedFlakyTests.computeIfAbsent(result.issue().getNumber(), n -> new LinkedList<>()).add(flakyTest);
+                    }
                 }
             }
         }
 
-        if (pullRequest != null) {
-            if (!unreportedFlakyTestsFromPr.isEmpty()) {
-                createPullRequestReview(unreportedFlakyTestsFromPr, workflowRun, pullRequest);
+        for (Map.Entry<Integer, List<FlakyTest>> e : reportedFlakyTests.entrySet()) {
+            GHIssue issue = reportedIssues.get(e.getKey());
+            if (digestEnabled) {
+                flakyTestDigest.report(issue, e.getValue());
+                logger.infov("Flakes found in {0}, updated digest on existing issue {1}", workflowRun.getHtmlUrl(), issue.getHtmlUrl());
             } else {
-                deleteBotPullRequestReview(pullRequest, true);
+                for (FlakyTest flakyTest : e.getValue()) {
+                    createIssueComment(flakyTest, workflowRun, issue);
+                }
             }
         }
-    }
 
-    public List<FlakyJob> findFlakyJobs(GHWorkflowRun workflowRun) throws IOException {
-        List<FlakyJob> allFlakyJobs = new LinkedList<>();
+        if (pullRequest != null) {
+            // Tests from earlier attempts and deliveries of the run stay in the review until they are reported
+            Iterator<String> itr = unreportedTests.keySet().iterator();
+            while (itr.hasNext()) {
+                if (flakyTestIssueIndex.find(workflowRun.getRepository(), itr.next()) != null) {
+                    itr.remove();
+                }
+            }
 
-        PagedIterator<GHArtifact> iterator = workflowRun.listArtifacts().iterator();
-        while (iterator.hasNext()) {
-            GHArtifact ghArtifact = iterator.next();
-            if (ghArtifact.getName().startsWith("flaky-tests-")) {
-                FlakyJob flakyJob = ghArtifact.download(inputStream -> FlakyJobParser.parse(inputStream));
-                flakyJob.setWorkflow(workflowRun.getName());
-                allFlakyJobs.add(flakyJob);
+            if (!unreportedTests.isEmpty()) {
+                createPullRequestReview(unreportedTests.values().stream().flatMap(List::stream).toList(), pullRequest);
+            } else {
+                deleteBotPullRequestReview(pullRequest, true);
             }
         }
+    }
 
-        return allFlakyJobs;
+    public FlakyArtifactDownloader.Result findFlakyJobs(GHWorkflowRun workflowRun, Set<String> processedArtifacts) throws IOException {
+        return flakyArtifactDownloader.findFlakyJobs(workflowRun, processedArtifacts);
     }
 
-    public GHIssue findIssue(GitHub gitHub, FlakyTest flakyTest) throws IOException {
-        String title = flakyTest.getIssueTitle();
-        List<GHIssue> issues = gitHub.searchIssues().isOpen().q("label:" + Labels.FLAKY_TEST + " in:title " + title).list().withPageSize(1).toList();
-        return !issues.isEmpty() ? issues.get(0) : null;
+    public GHIssue findIssue(GHRepository repository, FlakyTest flakyTest) throws IOException {
+        Integer number = flakyTestIssueIndex.find(repository, flakyTest.getIssueTitle());
+        return number != null ? repository.getIssue(number) : null;
     }
 
     public GHPullRequest findPullRequest(GHRepository repository, List<FlakyJob> flakyJobs) throws IOException {
@@ -119,7 +183,7 @@ public class ReportFlakyTests {
         return null;
     }
 
-    public void createIssue(FlakyTest flakyTest, GHWorkflowRun workflowRun) throws IOException {
+    public GHIssue createIssue(FlakyTest flakyTest, GHWorkflowRun workflowRun) throws IOException {
         String title = flakyTest.getIssueTitle();
         String body = flakyTest.getIssueBody();
         GHIssue issue = workflowRun.getRepository()
@@ -130,6 +194,7 @@ public class ReportFlakyTests {
                 .label(Labels.FLAKY_TEST)
                 .create();
         logger.infov("Flakes found in {0}, created issue {1}", workflowRun.getHtmlUrl(), issue.getHtmlUrl());
+        return issue;
     }
 
     public void createIssueComment(FlakyTest flakyTest, GHWorkflowRun workflowRun, GHIssue issue) throws IOException {
@@ -139,92 +204,121 @@ public class ReportFlakyTests {
         logger.infov("Flakes found in {0}, added comment to existing issue {1}", workflowRun.getHtmlUrl(), issue.getHtmlUrl());
     }
 
-    public void createPullRequestReview(List<FlakyTest> flakyTests, GHWorkflowRun workflowRun, GHPullRequest pullRequest) throws IOException {
+    public void createPullRequestReview(List<String> sections, GHPullRequest pullRequest) throws IOException {
         boolean reviewExists = deleteBotPullRequestReview(pullRequest, false);
 
-        String body = getPullRequestReviewBody(flakyTests, workflowRun.getRepository().getHtmlUrl());
+        String body = getPullRequestReviewBody(sections);
 
         if (!reviewExists) {
-            pullRequest
+            GHPullRequestReview review = pullRequest
                     .createReview()
                     .event(GHPullRequestReviewEvent.COMMENT)
                     .body("Unreported flaky test detected, please review")
                     .create();
+            botPullRequestRegistry.addReview(pullRequest, review.getId());
         }
 
-        pullRequest.comment(body);
+        GHIssueComment comment = pullRequest.comment(body);
+        botPullRequestRegistry.addComment(pullRequest, comment.getId());
     }
 
     public boolean deleteBotPullRequestReview(GHPullRequest pullRequest, boolean dismissReview) throws IOException {
-        boolean reviewFound = false;
+        // Reviews and comments are only listed if the bot hasn't seen the pull request before
+        BotPullRequestRegistry.BotEntries botEntries = botPullRequestRegistry.get(pullRequest);
+        if (botEntries == null) {
+            botEntries = listBotPullRequestEntries(pullRequest);
+        }
+
+        if (dismissReview) {
+            for (long reviewId : botEntries.reviews()) {
+                gitHubRest.dismissPullRequestReview(pullRequest, reviewId, "Flaky tests resolved or reported");
+            }
+        }
+
+        for (long commentId : botEntries.comments()) {
+            gitHubRest.deleteIssueComment(pullRequest, commentId);
+        }
+        botPullRequestRegistry.put(pullRequest, botEntries.reviews(), Set.of());
+
+        return !botEntries.reviews().isEmpty();
+    }
 
+    private BotPullRequestRegistry.BotEntries listBotPullRequestEntries(GHPullRequest pullRequest) throws IOException {
+        Set<Long> reviews = new HashSet<>();
         PagedIterator<GHPullRequestReview> reviewItr = pullRequest.listReviews().iterator();
         while (reviewItr.hasNext()) {
             GHPullRequestReview review = reviewItr.next();
-            GHUser user = review.getUser();
-            if (user.getType().equals("Bot") && user.getLogin().startsWith("keycloak-bot")) {
-                reviewFound = true;
-                if (dismissReview) {
-                    review.dismiss("Flaky tests resolved or reported");
-                }
+            if (isBot(review.getUser())) {
+                reviews.add(review.getId());
             }
         }
 
+        Set<Long> comments = new HashSet<>();
         PagedIterator<GHIssueComment> commentItr = pullRequest.listComments().iterator();
         while (commentItr.hasNext()) {
             GHIssueComment comment = commentItr.next();
-            GHUser user = comment.getUser();
-            if (user.getType().equals("Bot") && user.getLogin().startsWith("keycloak-bot")) {
-                comment.delete();
+            if (isBot(comment.getUser())) {
+                comments.add(comment.getId());
             }
         }
 
-        return reviewFound;
+        logger.debugv("Listed bot reviews and comments: pullRequest={0}, reviews={1}, comments={2}", pullRequest.getNumber(), reviews.size(), comments.size());
+        return new BotPullRequestRegistry.BotEntries(reviews, comments);
+    }
+
+    private static boolean isBot(GHUser user) throws IOException {
+        return user.getType().equals("Bot") && user.getLogin().startsWith("keycloak-bot");
     }
 
-    public String getPullRequestReviewBody(List<FlakyTest> flakyTests, URL repositoryUrl) {
+    public String getPullRequestReviewBody(List<String> sections) {
         StringBuilder body = new StringBuilder();
 
         body.append("## Unreported flaky test detected\n");
         body.append("If the flaky tests below are affected by the changes, please review and update the changes accordingly. Otherwise, a maintainer should report the flaky tests prior to merging the PR.\n\n");
 
-        for (FlakyTest flakyTest : flakyTests) {
-            body.append("### ");
-            body.append(flakyTest.getClassName());
-            body.append("#");
-            body.append(flakyTest.getMethodName());
-            body.append("\n\n");
-
-            body.append("[");
-            body.append(flakyTest.getFlakyJob().getWorkflow());
-            body.append(" - ");
-            body.append(flakyTest.getFlakyJob().getJobName());
-            body.append("](");
-            body.append(flakyTest.getFlakyJob().getJobUrl());
-            body.append(")\n\n");
-
-            for (String failure : flakyTest.getFailures()) {
-                body.append("\n```\n");
-                body.append(failure);
-                body.append("\n```\n");
-            }
+        for (String section : sections) {
+            body.append(section);
+        }
 
-            String issueTitle = URLEncoder.encode(flakyTest.getIssueTitle(), StandardCharsets.UTF_8);
-            String issueBody = URLEncoder.encode(flakyTest.getIssueBody(), StandardCharsets.UTF_8);
-            String issueLabels = URLEncoder.encode(Labels.FLAKY_TEST + "," + Labels.AREA_CI + "," + Labels.KIND_BUG, StandardCharsets.UTF_8);
-
-            body.append("[Report flaky test](");
-            body.append(repositoryUrl);
-            body.append("/issues/new");
-            body.append("?title=");
-            body.append(issueTitle);
-            body.append("&labels=");
-            body.append(issueLabels);
-            body.append("&body=");
-            body.append(issueBody);
-            body.append(")\n");
+        return body.toString();
+    }
+
+    public String getPullRequestReviewSection(FlakyTest flakyTest, URL repositoryUrl) {
+        StringBuilder body = new StringBuilder();
+
+        body.append("### ");
+        body.append(flakyTest.getClassName());
+        body.append("#");
+        body.append(flakyTest.getMethodName());
+        body.append("\n\n");
+
+        body.append("[");
+        body.append(flakyTest.getFlakyJob().getWorkflow());
+        body.append(" - ");
+        body.append(flakyTest.getFlakyJob().getJobName());
+        body.append("](");
+        body.append(flakyTest.getFlakyJob().getJobUrl());
+        body.append(")\n\n");
+
+        for (FlakyFailure failure : flakyTest.getFlakyFailures()) {
+            FlakyTest.appendFailure(body, failure);
         }
 
+        String issueTitle = URLEncoder.encode(flakyTest.getIssueTitle(), StandardCharsets.UTF_8);
+        String issueBody = URLEncoder.encode(flakyTest.getIssueBody(), StandardCharsets.UTF_8);
+        String issueLabels = URLEncoder.encode(Labels.FLAKY_TEST + "," + Labels.AREA_CI + "," + Labels.KIND_BUG, StandardCharsets.UTF_8);
+
+        body.append("[Report flaky test](");
+        body.append(repositoryUrl);
+        body.append("/issues/new");
+        body.append("?title=");
+        body.append(issueTitle);
+        body.append("&labels=");
+        body.append(issueLabels);
+        body.append("&body=");
+        body.append(issueBody);
+        body.append(")\n");
+
         return body.toString();
     }
 
@@ -0,0 +1,29 @@
+package org.keycloak.gh.bot;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.Config;
+
+/**
+ * Settings that can be overridden for a single repository, with properties in the format
+ * <code>repository."owner/repo".name</code>. For example <code>repository."keycloak/keycloak-client".autoExpire.low.expiresDays=30</code>
+ * overrides <code>autoExpire.low.expiresDays</code> for the <code>keycloak/keycloak-client</code> repository.
+ */
+@Singleton
+public class RepositoryConfig {
+
+    @Inject
+    Config config;
+
+    /**
+     * Returns the value for the repository, or the default value if it is not overridden for the repository
+     */
+    public <T> T get(String repository, String name, Class<T> type, T defaultValue) {
+        return config.getOptionalValue(key(repository, name), type).orElse(defaultValue);
+    }
+
+    static String key(String repository, String name) {
+        return "repository.\"" + repository + "\"." + name;
+    }
+
+}
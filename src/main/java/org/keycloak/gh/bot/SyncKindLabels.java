@@ -4,7 +4,9 @@ import io.quarkiverse.githubapp.GitHubEvent;
 import io.quarkiverse.githubapp.event.RawEvent;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.utils.IssueUpdate;
 import org.kohsuke.github.GHIssue;
 import org.kohsuke.github.GitHub;
 
@@ -16,6 +18,9 @@ public class SyncKindLabels {
 
     private static final Logger logger = Logger.getLogger(SyncKindLabels.class);
 
+    @Inject
+    GitHubRestClient gitHubRest;
+
     void onTyped(@RawEvent(event = "issues", action = "typed") GitHubEvent event, GitHub gitHub) throws IOException {
         onTypeChange(event, true, gitHub);
     }
@@ -58,12 +63,11 @@ public class SyncKindLabels {
             logger.infov("issue={0}, typed={1}, labelToAdd={2}, labelsToRemove={3}", issueNumber, typed, labelToAdd, labelsToRemove);
 
             GHIssue ghIssue = gitHub.getRepository(event.getRepositoryOrThrow()).getIssue(issue.getInteger("number"));
+            IssueUpdate update = IssueUpdate.of(ghIssue).removeLabels(labelsToRemove.toArray(new String[0]));
             if (labelToAdd != null) {
-                ghIssue.addLabels(labelToAdd);
-            }
-            if (!labelsToRemove.isEmpty()) {
-                ghIssue.removeLabels(labelsToRemove.toArray(new String[0]));
+                update.addLabels(labelToAdd);
             }
+            gitHubRest.updateIssue(update);
         }
     }
 
@@ -0,0 +1,41 @@
+package org.keycloak.gh.bot;
+
+import org.keycloak.gh.bot.utils.IssueUpdate;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHIssueStateReason;
+
+/**
+ * The changes {@link TriageRule}s want to make to an issue, which are sent to GitHub as a single update of the issue
+ * and at most one comment.
+ */
+public class TriagePlan {
+
+    private final IssueUpdate update;
+    private String comment;
+
+    TriagePlan(GHIssue issue) {
+        this.update = IssueUpdate.of(issue);
+    }
+
+    public IssueUpdate getUpdate() {
+        return update;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    /**
+     * Closes the issue as not planned with a comment explaining why
+     */
+    public void close(String comment) {
+        update.close(GHIssueStateReason.NOT_PLANNED);
+        this.comment = comment;
+    }
+
+    public boolean isClosing() {
+        return GHIssueState.CLOSED.equals(update.getState());
+    }
+
+}
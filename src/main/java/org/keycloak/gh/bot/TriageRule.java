@@ -0,0 +1,32 @@
+package org.keycloak.gh.bot;
+
+import java.io.IOException;
+
+/**
+ * A rule that is evaluated by {@link TriageSweep} for each issue in the sweep
+ */
+public interface TriageRule {
+
+    /**
+     * Name of the rule used in logs and metrics
+     */
+    String getName();
+
+    /**
+     * Checks if the rule applies to the issue. This should only use the snapshot unless the snapshot is incomplete.
+     */
+    boolean matches(IssueSnapshot snapshot) throws IOException;
+
+    /**
+     * Adds the changes for the issue to the plan. Rules are applied in a fixed order, and can see the changes made by
+     * the rules before them.
+     */
+    void apply(IssueSnapshot snapshot, TriagePlan plan) throws IOException;
+
+    /**
+     * Called after all issues in the sweep have been evaluated
+     */
+    default void finish() {
+    }
+
+}
@@ -0,0 +1,356 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.Startup;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.keycloak.gh.bot.labels.Status;
+import org.kohsuke.github.GHException;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHRepository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the issues the bot triages on a schedule once per run, evaluates all {@link TriageRule}s against each issue,
+ * and sends the changes from all rules with one update per issue. Issues are updated in parallel by the
+ * {@link MutationExecutor}, and an issue that fails to be evaluated or updated doesn't stop the others.
+ * <p>
+ * All rules work on issues with the {@link Status#AUTO_EXPIRE} label, so only these issues are searched for. The
+ * issues are kept between runs, and most runs only search for issues updated since the latest update seen in the
+ * previous run. A full search is done on the first run and then at the reconcile interval, to pick up anything the
+ * incremental searches missed, such as reactions, which don't change when an issue was updated.
+ * <p>
+ * The repositories in <code>triage.repositories</code> are swept in parallel, or all repositories the app is
+ * installed on if set to <code>*</code>. Settings of the rules can be overridden for each repository with
+ * {@link RepositoryConfig}.
+ */
+@Startup
+@Singleton
+public class TriageSweep {
+
+    private static final Logger logger = Logger.getLogger(TriageSweep.class);
+
+    // The search index lags behind updates, so incremental searches overlap with the previous search
+    static final Duration OVERLAP = Duration.ofMinutes(10);
+
+    static final String ALL_REPOSITORIES = "*";
+
+    @ConfigProperty(name = "triage.repositories", defaultValue = "${repository.mainRepository}")
+    List<String> repositories;
+
+    @ConfigProperty(name = "triage.repositories.concurrency", defaultValue = "2")
+    int repositoryConcurrency;
+
+    @ConfigProperty(name = "triage.reconcile.interval", defaultValue = "6h")
+    Duration reconcileInterval;
+
+    @Inject
+    GitHubInstallationProvider gitHubProvider;
+
+    @Inject
+    IssueSnapshotQuery issueSnapshotQuery;
+
+    @Inject
+    GitHubRestClient gitHubRest;
+
+    @Inject
+    BotCommentLedger botCommentLedger;
+
+    @Inject
+    MutationExecutor mutationExecutor;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @Inject
+    BugActionScheduleAutoBump autoBump;
+
+    @Inject
+    BugActionScheduleExpireMissingInfo expireMissingInfo;
+
+    @Inject
+    BugActionScheduleAutoExpire autoExpire;
+
+    @Inject
+    MissingInfoDeadlines missingInfoDeadlines;
+
+    // Bumping comes first, as issues that are bumped should not be expired
+    List<TriageRule> rules;
+
+    private final Map<String, RepositoryState> states = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        rules = List.of(autoBump, expireMissingInfo, autoExpire);
+        executor = Executors.newFixedThreadPool(repositoryConcurrency);
+        missingInfoDeadlines.setHandler(this::expireMissingInfo);
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdown();
+    }
+
+    @Scheduled(cron = "{triage.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void sweep() throws IOException {
+        // Webhook handlers take precedence over the sweep when the rate limit is running low
+        try (GitHubRequestGovernor.Scope background = GitHubRequestGovernor.background()) {
+            long start = System.nanoTime();
+
+            Map<String, RuleStats> stats = new LinkedHashMap<>();
+            for (TriageRule rule : rules) {
+                stats.put(rule.getName(), new RuleStats(rule.getName()));
+            }
+
+            Map<String, Future<?>> sweeps = new LinkedHashMap<>();
+            for (GHRepository repository : getRepositories()) {
+                sweeps.put(repository.getFullName(), executor.submit(() -> {
+                    try (GitHubRequestGovernor.Scope scope = GitHubRequestGovernor.background()) {
+                        sweep(repository, stats);
+                    }
+                    return null;
+                }));
+            }
+
+            int failed = 0;
+            for (Map.Entry<String, Future<?>> e : sweeps.entrySet()) {
+                try {
+                    e.getValue().get();
+                } catch (ExecutionException ex) {
+                    failed++;
+                    logger.errorv(ex.getCause(), "Triage sweep failed for repository={0}", e.getKey());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for triage sweep");
+                }
+            }
+
+            // Rules clean up their state once all repositories have been swept
+            for (TriageRule rule : rules) {
+                try {
+                    rule.finish();
+                } catch (RuntimeException ex) {
+                    logger.errorv(ex, "Failed to finish triage rule={0}", rule.getName());
+                }
+            }
+
+            for (RuleStats ruleStats : stats.values()) {
+                Timer.builder("bot.triage.rule.time").tag("rule", ruleStats.name).register(meterRegistry).record(ruleStats.nanos.sum(), TimeUnit.NANOSECONDS);
+                meterRegistry.counter("bot.triage.rule.hits", "rule", ruleStats.name).increment(ruleStats.hits.sum());
+                logger.infov("Triage rule={0}, hits={1}, time={2}ms", ruleStats.name, ruleStats.hits.sum(), ruleStats.nanos.sum() / 1000000);
+            }
+
+            logger.infov("Triage sweep completed: repositories={0}, failed={1}, time={2}ms", sweeps.size(), failed, (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    private List<GHRepository> getRepositories() throws IOException {
+        if (repositories.contains(ALL_REPOSITORIES)) {
+            return gitHubProvider.getAllInstalledRepositories().keySet().stream()
+                    .filter(r -> !r.isArchived())
+                    .toList();
+        }
+
+        List<GHRepository> resolved = new LinkedList<>();
+        for (String repository : repositories) {
+            resolved.add(gitHubProvider.getGitHubClient(repository).getRepository(repository));
+        }
+        return resolved;
+    }
+
+    private void sweep(GHRepository repository, Map<String, RuleStats> stats) throws IOException {
+        logger.infov("Running triage sweep for repository: {0}", repository.getFullName());
+
+        long start = System.nanoTime();
+
+        RepositoryState state = states.computeIfAbsent(repository.getFullName(), r -> new RepositoryState());
+
+        boolean full = state.candidates == null || Instant.now().isAfter(state.lastReconciled.plus(reconcileInterval));
+        int fetched = full ? reconcile(repository, state) : update(repository, state);
+        meterRegistry.counter("bot.triage.searches", "mode", full ? "full" : "incremental").increment();
+
+        List<IssueSnapshot> snapshots = List.copyOf(state.candidates.values());
+
+        AtomicInteger updated = new AtomicInteger();
+        MutationExecutor.Run run = mutationExecutor.start("triage sweep of " + repository.getFullName());
+        Map<String, Integer> submitted = new HashMap<>();
+
+        for (IssueSnapshot snapshot : snapshots) {
+            String key = repository.getFullName() + "#" + snapshot.getNumber();
+            List<TriageRule> matched = new LinkedList<>();
+            boolean failed = false;
+            for (TriageRule rule : rules) {
+                RuleStats ruleStats = stats.get(rule.getName());
+                long ruleStart = System.nanoTime();
+                try {
+                    if (rule.matches(snapshot)) {
+                        matched.add(rule);
+                        ruleStats.hits.increment();
+                    }
+                } catch (IOException | GHException e) {
+                    // The other rules are still evaluated, so they see all issues before they finish
+                    run.fail(key, e);
+                    failed = true;
+                }
+                ruleStats.nanos.add(System.nanoTime() - ruleStart);
+            }
+
+            // An issue is only updated if all rules could be evaluated, as the rules depend on each other, for example
+            // bumped issues are not expired. The issue is kept as a candidate and evaluated again in the next run.
+            if (!failed && !matched.isEmpty()) {
+                submitted.put(key, snapshot.getNumber());
+                run.submit(key, () -> {
+                    if (apply(snapshot, matched, stats)) {
+                        updated.incrementAndGet();
+                    }
+                });
+            }
+        }
+
+        MutationExecutor.Report report = run.await();
+
+        // Picked up again by the next search, as the issues have been updated. Failed issues are kept, so they are
+        // tried again in the next run.
+        for (String key : report.getSucceeded()) {
+            state.candidates.remove(submitted.get(key));
+        }
+
+        meterRegistry.counter("bot.triage.issues").increment(snapshots.size());
+        meterRegistry.counter("bot.triage.updated").increment(updated.get());
+        meterRegistry.counter("bot.triage.failed").increment(report.getFailures().size());
+
+        logger.infov("Triage sweep completed: repository={0}, full={1}, fetched={2}, issues={3}, updated={4}, failed={5}, time={6}ms", repository.getFullName(), full, fetched, snapshots.size(), updated.get(), report.getFailures().keySet(), (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Applies the matched rules to the issue and sends the changes to GitHub
+     *
+     * @return <code>true</code> if the issue was updated
+     */
+    private boolean apply(IssueSnapshot snapshot, List<TriageRule> matched, Map<String, RuleStats> stats) throws IOException {
+        GHIssue issue = snapshot.getIssue();
+        String key = BotCommentLedger.key(issue);
+
+        // The issue may have been closed since it was found, for example when a missing information deadline was reached
+        if (!GHIssueState.OPEN.equals(issue.getState())) {
+            logger.debugv("Skipping closed issue={0}", key);
+            return false;
+        }
+
+        TriagePlan plan = new TriagePlan(issue);
+        for (TriageRule rule : matched) {
+            long ruleStart = System.nanoTime();
+            rule.apply(snapshot, plan);
+            stats.get(rule.getName()).nanos.add(System.nanoTime() - ruleStart);
+        }
+
+        if (plan.getComment() != null) {
+            botCommentLedger.record(issue, issue.comment(plan.getComment()));
+        }
+        if (plan.getUpdate().isChanged()) {
+            gitHubRest.updateIssue(plan.getUpdate());
+        }
+
+        logger.infov("Triaged issue={0}, rules={1}, {2}", key, matched.stream().map(TriageRule::getName).toList(), plan.getUpdate());
+        return plan.getUpdate().isChanged();
+    }
+
+    // Called by MissingInfoDeadlines when the deadline of an issue is reached
+    void expireMissingInfo(String key) throws IOException {
+        String repositoryName = key.substring(0, key.indexOf('#'));
+        int number = Integer.parseInt(key.substring(key.indexOf('#') + 1));
+
+        GHRepository repository = gitHubProvider.getGitHubClient(repositoryName).getRepository(repositoryName);
+        IssueSnapshot snapshot = IssueSnapshot.of(repository, repository.getIssue(number), botCommentLedger);
+
+        if (snapshot.isOpen() && expireMissingInfo.matches(snapshot)) {
+            Map<String, RuleStats> stats = Map.of(expireMissingInfo.getName(), new RuleStats(expireMissingInfo.getName()));
+            apply(snapshot, List.of(expireMissingInfo), stats);
+            meterRegistry.counter("bot.missingInfo.deadline.expired").increment();
+        }
+    }
+
+    private int reconcile(GHRepository repository, RepositoryState state) throws IOException {
+        List<IssueSnapshot> snapshots = issueSnapshotQuery.findIssues(repository, "is:open label:\"" + Status.AUTO_EXPIRE.toLabel() + "\"");
+
+        state.candidates = new LinkedHashMap<>();
+        state.lastReconciled = Instant.now();
+        for (IssueSnapshot snapshot : snapshots) {
+            state.candidates.put(snapshot.getNumber(), snapshot);
+            state.advanceWatermark(snapshot);
+        }
+        return snapshots.size();
+    }
+
+    // Searches for all issues updated since the watermark, as issues that have been closed or have had the label
+    // removed have to be removed from the candidates
+    private int update(GHRepository repository, RepositoryState state) throws IOException {
+        Instant since = state.watermark.minus(OVERLAP).truncatedTo(ChronoUnit.SECONDS);
+        List<IssueSnapshot> snapshots = issueSnapshotQuery.findIssues(repository, "updated:>=" + since);
+
+        for (IssueSnapshot snapshot : snapshots) {
+            if (snapshot.isOpen() && snapshot.hasLabel(Status.AUTO_EXPIRE.toLabel())) {
+                state.candidates.put(snapshot.getNumber(), snapshot);
+            } else {
+                state.candidates.remove(snapshot.getNumber());
+            }
+            state.advanceWatermark(snapshot);
+        }
+        return snapshots.size();
+    }
+
+    private static class RepositoryState {
+
+        // Open issues with the auto-expire label from the last full search, updated by incremental searches
+        private Map<Integer, IssueSnapshot> candidates;
+        private Instant watermark;
+        private Instant lastReconciled;
+
+        private void advanceWatermark(IssueSnapshot snapshot) {
+            Instant updatedAt = snapshot.getUpdatedAt().toInstant();
+            if (watermark == null || watermark.isBefore(updatedAt)) {
+                watermark = updatedAt;
+            }
+        }
+
+    }
+
+    private static class RuleStats {
+
+        private final String name;
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+
+        RuleStats(String name) {
+            this.name = name;
+        }
+
+    }
+
+}
@@ -0,0 +1,268 @@
+package org.keycloak.gh.bot.utils;
+
+/**
+ * Creates a stable signature for a failure, so the same failure mode is recognized across jobs and runs although the
+ * stack traces differ in details.
+ * <p>
+ * Before hashing, the stack trace is normalized:
+ * <ul>
+ *     <li>numbers after <code>:</code>, which are line numbers and ports, are replaced with <code>0</code></li>
+ *     <li>numbers after <code>$</code>, <code>Accessor</code> and <code>Proxy</code>, which are lambdas, anonymous and
+ *     generated classes, are replaced with <code>0</code></li>
+ *     <li>hex numbers (<code>0x7f3a</code>) and identity hash codes (<code>@1b2c3d</code>) are replaced with
+ *     <code>0</code></li>
+ *     <li>UUIDs are replaced with <code>&lt;uuid&gt;</code>, dates and times with <code>&lt;time&gt;</code></li>
+ *     <li>runs of whitespace are replaced with a single space</li>
+ * </ul>
+ * The normalized trace is hashed while it is scanned (64-bit FNV-1a), without building the normalized string.
+ */
+public class FailureFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final String[] GENERATED_PREFIXES = { "$", "Accessor", "Proxy" };
+
+    private static final String UUID = "<uuid>";
+    private static final String TIME = "<time>";
+
+    /**
+     * Returns the signature of a stack trace as 16 hex characters
+     */
+    public static String signature(String stackTrace) {
+        long hash = hash(stackTrace);
+        char[] chars = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = HEX[(int) (hash & 0xf)];
+            hash >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the 64-bit hash of the normalized stack trace
+     */
+    public static long hash(String stackTrace) {
+        return normalize(stackTrace, null);
+    }
+
+    /**
+     * Returns the normalized stack trace, the signature is the hash of this string
+     */
+    public static String normalize(String stackTrace) {
+        StringBuilder sb = new StringBuilder(stackTrace.length());
+        normalize(stackTrace, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Normalizes the string and returns the hash, the normalized string is only built if a builder is given. The hash
+     * is kept in a local variable, as this is called for every failure.
+     */
+    private static long normalize(String s, StringBuilder sb) {
+        long hash = FNV_OFFSET;
+        int length = s.length();
+        int i = 0;
+
+        // Leading and trailing whitespace is ignored
+        while (i < length && isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        while (length > i && isWhitespace(s.charAt(length - 1))) {
+            length--;
+        }
+
+        while (i < length) {
+            char c = s.charAt(i);
+
+            if ((c >= 'g' && c <= 'z') || (c >= 'G' && c <= 'Z') || c == '.') {
+                // Most characters are letters that can't start a number, handled first as it's faster
+                hash = append(hash, sb, c);
+                i++;
+            } else if (isWhitespace(c)) {
+                hash = append(hash, sb, ' ');
+                while (i < length && isWhitespace(s.charAt(i))) {
+                    i++;
+                }
+            } else if (isDigit(c) && !isIdentifierPart(s, i - 1)) {
+                int end;
+                if ((end = matchUuid(s, i, length)) != -1) {
+                    hash = append(hash, sb, UUID);
+                } else if ((end = matchTime(s, i, length)) != -1) {
+                    hash = append(hash, sb, TIME);
+                } else if (c == '0' && i + 1 < length && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X') && i + 2 < length && isHex(s.charAt(i + 2))) {
+                    hash = append(hash, sb, "0x0");
+                    end = skipHex(s, i + 2, length);
+                } else if (i > 0 && s.charAt(i - 1) == ':') {
+                    hash = append(hash, sb, '0');
+                    end = skipDigits(s, i, length);
+                } else {
+                    end = skipDigits(s, i, length);
+                    hash = append(hash, sb, s, i, end);
+                }
+                i = end;
+            } else if (isHex(c) && !isIdentifierPart(s, i - 1) && matchUuid(s, i, length) != -1) {
+                hash = append(hash, sb, UUID);
+                i = matchUuid(s, i, length);
+            } else if (c == '@' && i + 1 < length && isHex(s.charAt(i + 1))) {
+                int end = skipHex(s, i + 1, length);
+                if (end == length || !isLetterOrDigit(s.charAt(end))) {
+                    hash = append(hash, sb, "@0");
+                } else {
+                    hash = append(hash, sb, s, i, end);
+                }
+                i = end;
+            } else if (isDigit(c) && endsWithGeneratedPrefix(s, i)) {
+                hash = append(hash, sb, '0');
+                i = skipDigits(s, i, length);
+            } else {
+                hash = append(hash, sb, c);
+                i++;
+            }
+        }
+        return hash;
+    }
+
+    private static long append(long hash, StringBuilder sb, char c) {
+        if (sb != null) {
+            sb.append(c);
+        }
+        return (hash ^ c) * FNV_PRIME;
+    }
+
+    private static long append(long hash, StringBuilder sb, String s) {
+        return append(hash, sb, s, 0, s.length());
+    }
+
+    private static long append(long hash, StringBuilder sb, String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            hash = append(hash, sb, s.charAt(i));
+        }
+        return hash;
+    }
+
+    private static boolean endsWithGeneratedPrefix(String s, int i) {
+        for (String prefix : GENERATED_PREFIXES) {
+            int start = i - prefix.length();
+            if (start >= 0 && s.startsWith(prefix, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches a UUID (8-4-4-4-12 hex characters), returns the end or -1
+     */
+    private static int matchUuid(String s, int i, int length) {
+        if (i + 36 > length) {
+            return -1;
+        }
+        for (int j = 0; j < 36; j++) {
+            char c = s.charAt(i + j);
+            if (j == 8 || j == 13 || j == 18 || j == 23 ? c != '-' : !isHex(c)) {
+                return -1;
+            }
+        }
+        return i + 36 < length && isLetterOrDigit(s.charAt(i + 36)) ? -1 : i + 36;
+    }
+
+    /**
+     * Matches a date (<code>2024-01-31</code>), optionally followed by a time, or a time (<code>13:45:00</code>)
+     * optionally followed by fractions of a second and a zone, returns the end or -1
+     */
+    private static int matchTime(String s, int i, int length) {
+        int end = i;
+        if (matchDigits(s, i, 4, length) && matchChar(s, i + 4, '-', length) && matchDigits(s, i + 5, 2, length)
+                && matchChar(s, i + 7, '-', length) && matchDigits(s, i + 8, 2, length)) {
+            end = i + 10;
+            if (end < length && (s.charAt(end) == 'T' || s.charAt(end) == ' ') && matchClock(s, end + 1, length) != -1) {
+                end = matchClock(s, end + 1, length);
+            }
+        } else if (matchClock(s, i, length) != -1) {
+            end = matchClock(s, i, length);
+        } else {
+            return -1;
+        }
+
+        // Zone
+        if (end < length && s.charAt(end) == 'Z') {
+            end++;
+        } else if (end < length && (s.charAt(end) == '+' || s.charAt(end) == '-') && matchDigits(s, end + 1, 2, length)) {
+            end += 3;
+            if (matchChar(s, end, ':', length) && matchDigits(s, end + 1, 2, length)) {
+                end += 3;
+            } else if (matchDigits(s, end, 2, length)) {
+                end += 2;
+            }
+        }
+        return end;
+    }
+
+    private static int matchClock(String s, int i, int length) {
+        if (!(matchDigits(s, i, 2, length) && matchChar(s, i + 2, ':', length) && matchDigits(s, i + 3, 2, length)
+                && matchChar(s, i + 5, ':', length) && matchDigits(s, i + 6, 2, length))) {
+            return -1;
+        }
+        int end = i + 8;
+        if (end + 1 < length && (s.charAt(end) == '.' || s.charAt(end) == ',') && isDigit(s.charAt(end + 1))) {
+            end = skipDigits(s, end + 1, length);
+        }
+        return end;
+    }
+
+    private static boolean matchDigits(String s, int i, int count, int length) {
+        if (i + count > length) {
+            return false;
+        }
+        for (int j = i; j < i + count; j++) {
+            if (!isDigit(s.charAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchChar(String s, int i, char c, int length) {
+        return i < length && s.charAt(i) == c;
+    }
+
+    private static int skipDigits(String s, int i, int length) {
+        while (i < length && isDigit(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipHex(String s, int i, int length) {
+        while (i < length && isHex(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isIdentifierPart(String s, int i) {
+        return i >= 0 && (isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '_' || s.charAt(i) == '$');
+    }
+
+    // Stack traces are mostly ASCII, the Character methods are only used for other characters as they are much slower
+
+    private static boolean isWhitespace(char c) {
+        return c < 128 ? c == ' ' || (c >= '\t' && c <= '\r') : Character.isWhitespace(c);
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return c < 128 ? isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') : Character.isLetterOrDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHex(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+}
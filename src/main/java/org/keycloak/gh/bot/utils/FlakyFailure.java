@@ -0,0 +1,34 @@
+package org.keycloak.gh.bot.utils;
+
+/**
+ * A failure mode of a flaky test, identified by the {@link FailureFingerprint} of its stack trace. The stack trace of
+ * the first occurrence is kept, later occurrences with the same signature are only counted.
+ */
+public class FlakyFailure {
+
+    private final String signature;
+    private final String stackTrace;
+    private int count;
+
+    public FlakyFailure(String signature, String stackTrace) {
+        this.signature = signature;
+        this.stackTrace = stackTrace;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public String getStackTrace() {
+        return stackTrace;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    void increment() {
+        count++;
+    }
+
+}
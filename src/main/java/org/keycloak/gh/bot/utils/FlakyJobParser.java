@@ -1,60 +1,126 @@
 package org.keycloak.gh.bot.utils;
 
-import org.apache.commons.io.input.CloseShieldInputStream;
+import org.jboss.logging.Logger;
 import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 public class FlakyJobParser {
 
-    private static int FAILURE_MAX_LINES;
+    private static final Logger logger = Logger.getLogger(FlakyJobParser.class);
 
-    public static FlakyJob parse(InputStream is) {
+    static final int FAILURE_MAX_LINES = 5;
+
+    private static final String TRIM_SUFFIX = "\n...";
+
+    private static final String JOB_SUMMARY = "job-summary.properties";
+
+    private static final Pattern TEST_REPORT = Pattern.compile(".*/TEST-.*.xml");
+
+    // Parsers are not thread-safe, artifacts are parsed in parallel so each thread reuses its own parser
+    private static final ThreadLocal<SAXParser> SAX_PARSER = ThreadLocal.withInitial(FlakyJobParser::createParser);
+
+    /**
+     * Parses an artifact that has been saved to a file, only reading the entries that are needed. Test reports are
+     * parsed in parallel on the pool, and the flaky tests are added in the order of the entries in the zip.
+     */
+    public static FlakyJob parse(ZipFile zipFile, ForkJoinPool pool) {
         FlakyJob flakyJob = new FlakyJob();
-        FlakyTestHandler flakyTestHandler = new FlakyTestHandler(flakyJob);
 
         try {
-            ZipInputStream zipInputStream = new ZipInputStream(is);
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            saxParserFactory.setNamespaceAware(true);
-            saxParserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-
-            for (ZipEntry ze = zipInputStream.getNextEntry(); ze != null; ze = zipInputStream.getNextEntry()) {
-                if (ze.getName().matches(".*/TEST-.*.xml")) {
-                    SAXParser saxParser = saxParserFactory.newSAXParser();
-                    saxParser.parse(CloseShieldInputStream.wrap(zipInputStream), flakyTestHandler);
-                } else if (ze.getName().equals("job-summary.properties")) {
-                    Properties properties = new Properties();
-                    properties.load(CloseShieldInputStream.wrap(zipInputStream));
-
-                    flakyJob.setJobName(properties.getProperty("job_name"));
-                    flakyJob.setJobUrl(properties.getProperty("job_url"));
-                    flakyJob.setPr(properties.getProperty("pr"));
-                    flakyJob.setPrUrl(properties.getProperty("pr_url"));
+            ZipEntry jobSummary = zipFile.getEntry(JOB_SUMMARY);
+            if (jobSummary != null) {
+                try (InputStream is = zipFile.getInputStream(jobSummary)) {
+                    parseJobSummary(is, flakyJob);
                 }
             }
+
+            List<ForkJoinTask<List<FlakyTest>>> reports = zipFile.stream()
+                    .filter(ze -> TEST_REPORT.matcher(ze.getName()).matches())
+                    .map(ze -> pool.submit(() -> parseReport(zipFile, ze, flakyJob)))
+                    .toList();
+
+            for (ForkJoinTask<List<FlakyTest>> report : reports) {
+                report.join().forEach(flakyJob::addFlakyTest);
+            }
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.errorv(e, "Failed to parse flaky test artifact={0}", getArtifactName(zipFile));
         }
 
         return flakyJob;
     }
 
+    private static List<FlakyTest> parseReport(ZipFile zipFile, ZipEntry ze, FlakyJob flakyJob) {
+        List<FlakyTest> flakyTests = new LinkedList<>();
+        try (InputStream is = zipFile.getInputStream(ze)) {
+            SAXParser saxParser = SAX_PARSER.get();
+            saxParser.reset();
+            saxParser.parse(is, new FlakyTestHandler(flakyJob, flakyTests::add));
+        } catch (Exception e) {
+            logger.errorv(e, "Failed to parse flaky test artifact={0}: entry={1}", getArtifactName(zipFile), ze.getName());
+        }
+        return flakyTests;
+    }
+
+    // Artifacts are saved to temporary files starting with the name of the artifact
+    private static String getArtifactName(ZipFile zipFile) {
+        return Path.of(zipFile.getName()).getFileName().toString();
+    }
+
+    private static void parseJobSummary(InputStream is, FlakyJob flakyJob) throws IOException {
+        Properties properties = new Properties();
+        properties.load(is);
+
+        flakyJob.setJobName(properties.getProperty("job_name"));
+        flakyJob.setJobUrl(properties.getProperty("job_url"));
+        flakyJob.setPr(properties.getProperty("pr"));
+        flakyJob.setPrUrl(properties.getProperty("pr_url"));
+    }
+
+    private static SAXParser createParser() {
+        try {
+            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+            saxParserFactory.setNamespaceAware(true);
+            saxParserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            return saxParserFactory.newSAXParser();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Failed to create XML parser", e);
+        }
+    }
+
     static class FlakyTestHandler extends DefaultHandler {
 
         FlakyJob flakyJob;
+        Consumer<FlakyTest> flakyTests;
         FlakyTest currentFlakyTest = null;
-        StringBuilder currentStackTrace = null;
 
-        public FlakyTestHandler(FlakyJob flakyJob) {
+        // Only the first lines of a stack trace are kept, so the rest is skipped instead of buffered. The buffer is
+        // reused for all stack traces.
+        private final StringBuilder stackTrace = new StringBuilder();
+        private boolean inStackTrace;
+        private int lines;
+        private boolean trimmed;
+
+        public FlakyTestHandler(FlakyJob flakyJob, Consumer<FlakyTest> flakyTests) {
             this.flakyJob = flakyJob;
+            this.flakyTests = flakyTests;
         }
 
         @Override
@@ -67,7 +133,10 @@ public class FlakyJobParser {
                     currentFlakyTest = new FlakyTest(flakyJob, className, methodName);
                     break;
                 case "stackTrace":
-                    currentStackTrace = new StringBuilder();
+                    stackTrace.setLength(0);
+                    inStackTrace = true;
+                    lines = 0;
+                    trimmed = false;
                     break;
             }
         }
@@ -76,24 +145,52 @@ public class FlakyJobParser {
         public void endElement(String uri, String localName, String qName) {
             switch (localName) {
                 case "testcase":
-                    if (!currentFlakyTest.getFailures().isEmpty()) {
-                        flakyJob.addFlakyTest(currentFlakyTest);
+                    if (currentFlakyTest.hasFailures()) {
+                        flakyTests.accept(currentFlakyTest);
                     }
                     currentFlakyTest = null;
                     break;
                 case "stackTrace":
-                    FAILURE_MAX_LINES = 5;
-                    currentFlakyTest.addFailure(StringUtils.trimLines(currentStackTrace.toString(), FAILURE_MAX_LINES, true));
-                    currentStackTrace = null;
+                    currentFlakyTest.addFailure(getStackTrace());
+                    inStackTrace = false;
                     break;
             }
         }
 
         @Override
         public void characters(char[] ch, int start, int length) {
-            if (currentStackTrace != null) {
-                currentStackTrace.append(new String(ch, start, length).trim());
+            if (!inStackTrace || trimmed) {
+                return;
+            }
+
+            for (int i = start; i < start + length; i++) {
+                char c = ch[i];
+                if (stackTrace.length() == 0 && c <= ' ') {
+                    // Leading whitespace is trimmed
+                    continue;
+                }
+                if (lines == FAILURE_MAX_LINES) {
+                    // Only whitespace after the last line is trimmed, anything else means the stack trace was trimmed
+                    if (c > ' ') {
+                        trimmed = true;
+                        return;
+                    }
+                } else if (c != '\n' || ++lines < FAILURE_MAX_LINES) {
+                    stackTrace.append(c);
+                }
+            }
+        }
+
+        private String getStackTrace() {
+            if (trimmed) {
+                return stackTrace + TRIM_SUFFIX;
+            }
+
+            int end = stackTrace.length();
+            while (end > 0 && stackTrace.charAt(end - 1) <= ' ') {
+                end--;
             }
+            return stackTrace.substring(0, end);
         }
 
     }
@@ -1,14 +1,16 @@
 package org.keycloak.gh.bot.utils;
 
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class FlakyTest {
 
     private FlakyJob flakyJob;
     private String className;
     private String methodName;
-    private List<String> failures = new LinkedList<>();
+    // Identical failures in a job are only kept once, by signature
+    private Map<String, FlakyFailure> failures = new LinkedHashMap<>();
 
     public FlakyTest(FlakyJob flakyJob, String className, String methodName) {
         this.flakyJob = flakyJob;
@@ -17,7 +19,7 @@ public class FlakyTest {
     }
 
     public void addFailure(String stackTrace) {
-        this.failures.add(stackTrace);
+        this.failures.computeIfAbsent(FailureFingerprint.signature(stackTrace), s -> new FlakyFailure(s, stackTrace)).increment();
     }
 
     public FlakyJob getFlakyJob() {
@@ -32,8 +34,19 @@ public class FlakyTest {
         return methodName;
     }
 
+    /**
+     * Returns the stack traces of the distinct failures
+     */
     public List<String> getFailures() {
-        return failures;
+        return failures.values().stream().map(FlakyFailure::getStackTrace).toList();
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    public List<FlakyFailure> getFlakyFailures() {
+        return List.copyOf(failures.values());
     }
 
     public String getIssueTitle() {
@@ -69,13 +82,25 @@ public class FlakyTest {
         }
         body.append("\n");
 
-        for (String failure : getFailures()) {
-            body.append("\n```\n");
-            body.append(failure);
-            body.append("\n```\n");
+        for (FlakyFailure failure : failures.values()) {
+            appendFailure(body, failure);
         }
 
         return body.toString();
     }
 
+    /**
+     * Appends the stack trace of a failure, and how often it was seen instead of repeating it
+     */
+    public static void appendFailure(StringBuilder body, FlakyFailure failure) {
+        if (failure.getCount() > 1) {
+            body.append("\nSeen ");
+            body.append(failure.getCount());
+            body.append(" times\n");
+        }
+        body.append("\n```\n");
+        body.append(failure.getStackTrace());
+        body.append("\n```\n");
+    }
+
 }
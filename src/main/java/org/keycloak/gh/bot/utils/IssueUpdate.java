@@ -0,0 +1,163 @@
+package org.keycloak.gh.bot.utils;
+
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHIssueStateReason;
+import org.kohsuke.github.GHLabel;
+import org.kohsuke.github.GHMilestone;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Collects the final labels, state and milestone of an issue, so all changes can be sent to GitHub with a single
+ * update of the issue.
+ */
+public class IssueUpdate {
+
+    private final GHIssue issue;
+    private final Set<String> currentLabels;
+    private final Set<String> labels;
+
+    private GHIssueState state;
+    private GHIssueStateReason stateReason;
+
+    private boolean milestoneChanged = false;
+    private Integer milestone;
+
+    private IssueUpdate(GHIssue issue) {
+        this.issue = issue;
+        this.currentLabels = new LinkedHashSet<>();
+        for (GHLabel label : issue.getLabels()) {
+            currentLabels.add(label.getName());
+        }
+        this.labels = new LinkedHashSet<>(currentLabels);
+    }
+
+    public static IssueUpdate of(GHIssue issue) {
+        return new IssueUpdate(issue);
+    }
+
+    public GHIssue getIssue() {
+        return issue;
+    }
+
+    public boolean hasLabel(String label) {
+        return labels.contains(label);
+    }
+
+    public IssueUpdate addLabels(String... labels) {
+        Collections.addAll(this.labels, labels);
+        return this;
+    }
+
+    public IssueUpdate removeLabels(String... labels) {
+        for (String label : labels) {
+            this.labels.remove(label);
+        }
+        return this;
+    }
+
+    public IssueUpdate removeLabelsIf(Predicate<String> filter) {
+        labels.removeIf(filter);
+        return this;
+    }
+
+    public IssueUpdate close(GHIssueStateReason stateReason) {
+        if (!GHIssueState.CLOSED.equals(issue.getState()) || !stateReason.equals(issue.getStateReason())) {
+            this.state = GHIssueState.CLOSED;
+            this.stateReason = stateReason;
+        }
+        return this;
+    }
+
+    public IssueUpdate reopen() {
+        if (GHIssueState.CLOSED.equals(issue.getState())) {
+            this.state = GHIssueState.OPEN;
+            this.stateReason = null;
+        } else {
+            this.state = null;
+            this.stateReason = null;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the number of the milestone, or removes the milestone if <code>null</code>
+     */
+    public IssueUpdate milestone(Integer milestone) {
+        GHMilestone current = issue.getMilestone();
+        milestoneChanged = !Objects.equals(current != null ? current.getNumber() : null, milestone);
+        this.milestone = milestone;
+        return this;
+    }
+
+    public Set<String> getLabels() {
+        return Collections.unmodifiableSet(labels);
+    }
+
+    public Set<String> getAddedLabels() {
+        Set<String> added = new LinkedHashSet<>(labels);
+        added.removeAll(currentLabels);
+        return added;
+    }
+
+    public Set<String> getRemovedLabels() {
+        Set<String> removed = new LinkedHashSet<>(currentLabels);
+        removed.removeAll(labels);
+        return removed;
+    }
+
+    public GHIssueState getState() {
+        return state;
+    }
+
+    public GHIssueStateReason getStateReason() {
+        return stateReason;
+    }
+
+    public boolean isLabelsChanged() {
+        return !labels.equals(currentLabels);
+    }
+
+    public boolean isMilestoneChanged() {
+        return milestoneChanged;
+    }
+
+    public boolean isChanged() {
+        return isLabelsChanged() || state != null || milestoneChanged;
+    }
+
+    /**
+     * Returns the body for <code>PATCH /repos/{owner}/{repo}/issues/{issue_number}</code>, only including the fields
+     * that are changed.
+     */
+    public Map<String, Object> toPayload() {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        if (isLabelsChanged()) {
+            payload.put("labels", labels);
+        }
+        if (state != null) {
+            payload.put("state", state.name().toLowerCase(Locale.ENGLISH));
+            if (stateReason != null) {
+                payload.put("state_reason", stateReason.name().toLowerCase(Locale.ENGLISH));
+            }
+        }
+        if (milestoneChanged) {
+            payload.put("milestone", milestone);
+        }
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + getAddedLabels() + ", removed=" + getRemovedLabels() + ", state=" + state + ", milestoneChanged=" + milestoneChanged;
+    }
+
+}
@@ -1,15 +1,15 @@
 package org.keycloak.gh.bot;
 
 import org.junit.jupiter.api.Test;
-import org.kohsuke.github.GHEventPayload;
 import org.kohsuke.github.GHIssue;
-import org.kohsuke.github.GHLabel;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class AddTeamLabelToIssuesTest {
@@ -33,21 +33,14 @@ public class AddTeamLabelToIssuesTest {
     private void verifyLabelAdded(String areaLabel, String expectedTeam) throws IOException {
         AddTeamLabelToIssues addTeamLabelToIssues = new AddTeamLabelToIssues();
 
-        GHEventPayload.Issue payload = mock(GHEventPayload.Issue.class);
         GHIssue issue = mock(GHIssue.class);
-        when(payload.getIssue()).thenReturn(issue);
+        when(issue.getLabels()).thenReturn(List.of());
 
-        GHLabel label = mock(GHLabel.class);
-        when(payload.getLabel()).thenReturn(label);
+        IssueLabeledPipeline.Plan plan = new IssueLabeledPipeline.Plan(issue);
 
-        when(label.getName()).thenReturn(areaLabel);
+        addTeamLabelToIssues.apply(areaLabel, plan);
 
-        addTeamLabelToIssues.onOpen(payload);
-
-        if (expectedTeam != null) {
-            verify(issue).addLabels(expectedTeam);
-        }
-        verifyNoMoreInteractions(issue);
+        assertEquals(expectedTeam != null ? Set.of(expectedTeam) : Set.of(), plan.getUpdate().getAddedLabels());
     }
 
 }
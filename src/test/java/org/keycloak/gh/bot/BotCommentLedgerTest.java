@@ -0,0 +1,122 @@
+package org.keycloak.gh.bot;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHUser;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.PagedIterable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.keycloak.gh.bot.BotTestUtils.pagedIterable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BotCommentLedgerTest {
+
+    private BotCommentLedger ledger;
+    private GHIssue issue;
+
+    @BeforeEach
+    public void before() throws IOException {
+        GitHubInstallationProvider gitHubProvider = mock(GitHubInstallationProvider.class);
+        when(gitHubProvider.getBotLogin()).thenReturn("keycloak-github-bot[bot]");
+
+        ledger = new BotCommentLedger();
+        ledger.gitHubProvider = gitHubProvider;
+
+        issue = mock(GHIssue.class);
+        when(issue.getNumber()).thenReturn(1234);
+        when(issue.getApiURL()).thenReturn(new URL("https://api.github.com/repos/myorg/myrepo/issues/1234"));
+
+        mockListComments(
+                createComment(1, "keycloak-github-bot[bot]", 1000),
+                createComment(2, "someone", 2000),
+                createComment(3, "keycloak-github-bot[bot]", 3000));
+    }
+
+    @Test
+    public void backfilledOnce() throws IOException {
+        assertEquals(Set.of(1L, 3L), ledger.getBotComments(issue));
+        assertEquals(new Date(3000), ledger.getLastBotComment(issue));
+
+        verify(issue, times(1)).listComments();
+    }
+
+    @Test
+    public void recordedAndRemoved() throws IOException {
+        ledger.getBotComments(issue);
+
+        ledger.remove(issue, 1);
+        ledger.record(issue, createComment(4, "keycloak-github-bot[bot]", 4000));
+
+        assertEquals(Set.of(3L, 4L), ledger.getBotComments(issue));
+        assertEquals(new Date(4000), ledger.getLastBotComment(issue));
+
+        verify(issue, times(1)).listComments();
+    }
+
+    @Test
+    public void recordedFromWebhook() throws IOException {
+        ledger.getBotComments(issue);
+
+        ledger.onCommentCreated(createPayload(createComment(5, "keycloak-github-bot[bot]", 5000), "keycloak-github-bot[bot]"));
+        ledger.onCommentCreated(createPayload(createComment(6, "someone", 6000), "someone"));
+
+        assertEquals(Set.of(1L, 3L, 5L), ledger.getBotComments(issue));
+
+        ledger.onCommentDeleted(createPayload(createComment(5, "keycloak-github-bot[bot]", 5000), "someone"));
+
+        assertEquals(Set.of(1L, 3L), ledger.getBotComments(issue));
+    }
+
+    @Test
+    public void noBotComments() throws IOException {
+        mockListComments(createComment(2, "someone", 2000));
+
+        assertEquals(Set.of(), ledger.getBotComments(issue));
+        assertNull(ledger.getLastBotComment(issue));
+    }
+
+    private GHEventPayload.IssueComment createPayload(GHIssueComment comment, String sender) {
+        GHEventPayload.IssueComment payload = mock(GHEventPayload.IssueComment.class);
+        GHUser user = mock(GHUser.class);
+        when(user.getLogin()).thenReturn(sender);
+        when(payload.getSender()).thenReturn(user);
+        when(payload.getIssue()).thenReturn(issue);
+        when(payload.getComment()).thenReturn(comment);
+        return payload;
+    }
+
+    private GHIssueComment createComment(long id, String login, long updatedAt) throws IOException {
+        // getId has bridge methods with other return types, which prevents mocking it, so a comment is parsed from a
+        // webhook payload instead
+        JsonObject json = new JsonObject()
+                .put("action", "created")
+                .put("comment", new JsonObject()
+                        .put("id", id)
+                        .put("updated_at", Instant.ofEpochMilli(updatedAt).toString())
+                        .put("user", new JsonObject().put("login", login)));
+        return GitHub.offline().parseEventPayload(new StringReader(json.encode()), GHEventPayload.IssueComment.class).getComment();
+    }
+
+    private void mockListComments(GHIssueComment... comments) throws IOException {
+        PagedIterable<GHIssueComment> iterable = pagedIterable(List.of(comments));
+        when(issue.listComments()).thenReturn(iterable);
+    }
+
+}
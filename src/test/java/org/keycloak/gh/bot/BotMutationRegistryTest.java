@@ -0,0 +1,58 @@
+package org.keycloak.gh.bot;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.gh.bot.utils.IssueUpdate;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHLabel;
+
+import java.net.URL;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BotMutationRegistryTest {
+
+    @Test
+    public void consumedOnce() throws Exception {
+        BotMutationRegistry registry = new BotMutationRegistry();
+        GHIssue issue = createIssue("priority/low");
+
+        registry.record(IssueUpdate.of(issue).removeLabels("priority/low").addLabels("priority/important"));
+
+        assertFalse(registry.consume("myorg/myrepo#4321", "priority/important"));
+
+        assertTrue(registry.consume("myorg/myrepo#1234", "priority/important"));
+        assertFalse(registry.consume("myorg/myrepo#1234", "priority/important"));
+
+        // Removed labels are not recorded
+        assertFalse(registry.consume("myorg/myrepo#1234", "priority/low"));
+    }
+
+    @Test
+    public void forgotten() throws Exception {
+        BotMutationRegistry registry = new BotMutationRegistry();
+        IssueUpdate update = IssueUpdate.of(createIssue()).addLabels("priority/important");
+
+        registry.record(update);
+        registry.forget(update);
+
+        assertFalse(registry.consume("myorg/myrepo#1234", "priority/important"));
+    }
+
+    private GHIssue createIssue(String... labels) throws Exception {
+        GHIssue issue = mock(GHIssue.class);
+        when(issue.getNumber()).thenReturn(1234);
+        when(issue.getApiURL()).thenReturn(new URL("https://api.github.com/repos/myorg/myrepo/issues/1234"));
+        List<GHLabel> ghLabels = List.of(labels).stream().map(l -> {
+            GHLabel label = mock(GHLabel.class);
+            when(label.getName()).thenReturn(l);
+            return label;
+        }).toList();
+        when(issue.getLabels()).thenReturn(ghLabels);
+        return issue;
+    }
+
+}
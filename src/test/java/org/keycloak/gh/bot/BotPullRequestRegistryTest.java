@@ -0,0 +1,82 @@
+package org.keycloak.gh.bot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHPullRequest;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.keycloak.gh.bot.BotTestUtils.openStateStore;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BotPullRequestRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BotStateStore store;
+    private BotPullRequestRegistry registry;
+
+    @BeforeEach
+    public void before() throws IOException {
+        open();
+    }
+
+    @AfterEach
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void registry() throws IOException {
+        GHPullRequest pullRequest = mockPullRequest(123);
+        GHPullRequest other = mockPullRequest(456);
+
+        assertNull(registry.get(pullRequest));
+
+        registry.addReview(pullRequest, 1);
+        registry.addComment(pullRequest, 10);
+        registry.addComment(pullRequest, 11);
+        registry.addComment(pullRequest, 11);
+        assertEquals(new BotPullRequestRegistry.BotEntries(Set.of(1L), Set.of(10L, 11L)), registry.get(pullRequest));
+        assertNull(registry.get(other));
+
+        // Kept after a restart
+        store.close();
+        open();
+        assertEquals(new BotPullRequestRegistry.BotEntries(Set.of(1L), Set.of(10L, 11L)), registry.get(pullRequest));
+
+        registry.put(pullRequest, Set.of(1L), Set.of());
+        assertEquals(new BotPullRequestRegistry.BotEntries(Set.of(1L), Set.of()), registry.get(pullRequest));
+
+        GHEventPayload.PullRequest payload = mock(GHEventPayload.PullRequest.class);
+        when(payload.getPullRequest()).thenReturn(pullRequest);
+        registry.onClosed(payload);
+        assertNull(registry.get(pullRequest));
+    }
+
+    private void open() throws IOException {
+        store = openStateStore(tempDir);
+
+        registry = new BotPullRequestRegistry();
+        registry.stateStore = store;
+        registry.init();
+    }
+
+    static GHPullRequest mockPullRequest(int number) throws IOException {
+        GHPullRequest pullRequest = mock(GHPullRequest.class);
+        when(pullRequest.getNumber()).thenReturn(number);
+        when(pullRequest.getApiURL()).thenReturn(new URL("https://api.github.com/repos/keycloak/keycloak/pulls/" + number));
+        return pullRequest;
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.keycloak.gh.bot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GitHub;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class BotStateStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void persistedOnClose() throws IOException {
+        BotStateStore store = open(tempDir.resolve("data/test.mv.db"));
+        Map<Long, long[]> map = store.getMap("test");
+        map.put(1L, new long[] { 1000, 2000 });
+        store.close();
+
+        store = open(tempDir.resolve("data/test.mv.db"));
+        map = store.getMap("test");
+        assertArrayEquals(new long[] { 1000, 2000 }, map.get(1L));
+        store.close();
+    }
+
+    @Test
+    public void lastCheckedSkipsUnchangedIssues() throws IOException {
+        BotStateStore store = open(tempDir.resolve("test.mv.db"));
+
+        BugActionScheduleExpireMissingInfo.LastChecked lastChecked = new BugActionScheduleExpireMissingInfo.LastChecked(store.getMap("missingInfo.lastChecked"));
+        lastChecked.checked(createIssue(1, 1000), new Date(500));
+        lastChecked.checked(createIssue(2, 1000), new Date(600));
+        lastChecked.clean();
+        store.close();
+
+        // Resumed after a restart
+        store = open(tempDir.resolve("test.mv.db"));
+        lastChecked = new BugActionScheduleExpireMissingInfo.LastChecked(store.getMap("missingInfo.lastChecked"));
+
+        assertEquals(new Date(600), lastChecked.getLastBotComment(createIssue(2, 1000)));
+        assertNull(lastChecked.getLastBotComment(createIssue(1, 2000)));
+
+        // Issues no longer returned by the query are removed
+        lastChecked.clean();
+        lastChecked.getLastBotComment(createIssue(1, 1000));
+        lastChecked.clean();
+        assertNull(lastChecked.getLastBotComment(createIssue(2, 1000)));
+
+        store.close();
+    }
+
+    private BotStateStore open(Path path) throws IOException {
+        BotStateStore store = new BotStateStore();
+        store.path = Optional.of(path.toString());
+        store.init();
+        return store;
+    }
+
+    private GHIssue createIssue(long id, long updatedAt) throws IOException {
+        // Getters of GHObject have bridge methods with other return types, which prevents mocking them, so an issue is
+        // parsed from a webhook payload instead
+        String json = "{\"action\":\"labeled\",\"issue\":{\"id\":" + id + ",\"number\":" + id + ",\"updated_at\":\"" + Instant.ofEpochMilli(updatedAt)
+                + "\",\"url\":\"https://api.github.com/repos/myorg/myrepo/issues/" + id + "\"}}";
+        return GitHub.offline().parseEventPayload(new StringReader(json), GHEventPayload.Issue.class).getIssue();
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.keycloak.gh.bot;
+
+import org.kohsuke.github.PagedIterable;
+import org.kohsuke.github.PagedIterator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Fixtures shared by the tests of the bot
+ */
+final class BotTestUtils {
+
+    // The time tests start at, unless they need a specific date
+    static final Instant START = Instant.parse("2026-01-01T12:00:00Z");
+
+    private BotTestUtils() {
+    }
+
+    /**
+     * Opens a state store in the directory, so the state is kept when the store is closed and opened again
+     */
+    static BotStateStore openStateStore(Path dir) throws IOException {
+        return openStateStore(Optional.of(dir.resolve("test.mv.db").toString()));
+    }
+
+    /**
+     * Opens a state store in memory
+     */
+    static BotStateStore openStateStore() throws IOException {
+        return openStateStore(Optional.empty());
+    }
+
+    private static BotStateStore openStateStore(Optional<String> path) throws IOException {
+        BotStateStore store = new BotStateStore();
+        store.path = path;
+        store.init();
+        return store;
+    }
+
+    static Clock fixedClock(Duration sinceStart) {
+        return Clock.fixed(START.plus(sinceStart), ZoneOffset.UTC);
+    }
+
+    static Clock fixedClock(String instant) {
+        return Clock.fixed(Instant.parse(instant), ZoneOffset.UTC);
+    }
+
+    /**
+     * Mocks a paged iterable, which can be iterated more than once
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PagedIterable<T> pagedIterable(List<T> items) {
+        PagedIterable<T> iterable = mock(PagedIterable.class);
+        when(iterable.iterator()).thenAnswer(i -> {
+            Iterator<T> itr = items.iterator();
+            PagedIterator<T> pagedIterator = mock(PagedIterator.class);
+            when(pagedIterator.hasNext()).thenAnswer(a -> itr.hasNext());
+            when(pagedIterator.next()).thenAnswer(a -> itr.next());
+            return pagedIterator;
+        });
+        return iterable;
+    }
+
+}
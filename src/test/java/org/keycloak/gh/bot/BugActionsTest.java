@@ -0,0 +1,99 @@
+package org.keycloak.gh.bot;
+
+import org.junit.jupiter.api.Test;
+import org.keycloak.gh.bot.labels.Action;
+import org.keycloak.gh.bot.utils.IssueUpdate;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHIssueStateReason;
+import org.kohsuke.github.GHLabel;
+import org.kohsuke.github.GHMilestone;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BugActionsTest {
+
+    @Test
+    public void priorityLow() {
+        GHMilestone milestone = mock(GHMilestone.class);
+        when(milestone.getNumber()).thenReturn(12);
+
+        GHIssue issue = createIssue(GHIssueState.CLOSED, milestone, "kind/bug", "priority/normal", "status/triage", "action/priority-low", "area/oidc");
+
+        IssueUpdate update = new BugActions().plan(BugActions.getBugAction(Action.PRIORITY_LOW), issue);
+
+        assertEquals(Set.of("kind/bug", "area/oidc", "priority/low", "help wanted", "status/auto-expire", "status/auto-bump"), update.getLabels());
+        assertEquals(Set.of("priority/normal", "status/triage", "action/priority-low"), update.getRemovedLabels());
+        assertEquals(GHIssueState.OPEN, update.getState());
+        assertTrue(update.isMilestoneChanged());
+
+        Map<String, Object> payload = update.toPayload();
+        assertEquals(List.of("labels", "state", "milestone"), List.copyOf(payload.keySet()));
+        assertEquals("open", payload.get("state"));
+        assertNull(payload.get("milestone"));
+    }
+
+    @Test
+    public void question() {
+        GHIssue issue = createIssue(GHIssueState.OPEN, null, "kind/bug", "status/triage", "action/question");
+
+        IssueUpdate update = new BugActions().plan(BugActions.getBugAction(Action.QUESTION), issue);
+
+        assertEquals(Set.of("kind/bug"), update.getLabels());
+        assertEquals(GHIssueState.CLOSED, update.getState());
+        assertEquals(GHIssueStateReason.NOT_PLANNED, update.getStateReason());
+        assertFalse(update.isMilestoneChanged());
+
+        Map<String, Object> payload = update.toPayload();
+        assertEquals("closed", payload.get("state"));
+        assertEquals("not_planned", payload.get("state_reason"));
+        assertFalse(payload.containsKey("milestone"));
+    }
+
+    @Test
+    public void missingInfo() {
+        GHIssue issue = createIssue(GHIssueState.OPEN, null, "kind/bug", "status/triage", "action/missing-info");
+
+        IssueUpdate update = new BugActions().plan(BugActions.getBugAction(Action.MISSING_INFO), issue);
+
+        assertEquals(Set.of("kind/bug", "status/missing-information", "status/auto-expire"), update.getLabels());
+        assertNull(update.getState());
+        assertEquals(Set.of("labels"), update.toPayload().keySet());
+    }
+
+    @Test
+    public void noChanges() {
+        GHIssue issue = createIssue(GHIssueState.OPEN, null, "kind/bug", "priority/important");
+
+        IssueUpdate update = new BugActions().plan(BugActions.getBugAction(Action.PRIORITY_IMPORTANT), issue);
+
+        assertFalse(update.isChanged());
+        assertTrue(update.toPayload().isEmpty());
+    }
+
+    private GHIssue createIssue(GHIssueState state, GHMilestone milestone, String... labels) {
+        GHIssue issue = mock(GHIssue.class);
+        when(issue.getState()).thenReturn(state);
+        when(issue.getMilestone()).thenReturn(milestone);
+
+        List<GHLabel> ghLabels = Arrays.stream(labels).map(l -> {
+            GHLabel label = mock(GHLabel.class);
+            when(label.getName()).thenReturn(l);
+            return label;
+        }).toList();
+        when(issue.getLabels()).thenReturn(ghLabels);
+
+        return issue;
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.runtime.configuration.MemorySize;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.gh.bot.utils.FlakyJob;
+import org.kohsuke.github.GHArtifact;
+import org.kohsuke.github.GHWorkflowRun;
+import org.kohsuke.github.PagedIterable;
+import org.kohsuke.github.function.InputStreamFunction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.keycloak.gh.bot.BotTestUtils.pagedIterable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FlakyArtifactDownloaderTest {
+
+    private FlakyArtifactDownloader downloader;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void before() {
+        meterRegistry = new SimpleMeterRegistry();
+
+        downloader = new FlakyArtifactDownloader();
+        downloader.concurrency = 4;
+        downloader.timeout = Duration.ofSeconds(5);
+        downloader.maxSize = new MemorySize(BigInteger.valueOf(1024 * 1024));
+        downloader.parseParallelism = 2;
+        downloader.meterRegistry = meterRegistry;
+        downloader.init();
+    }
+
+    @AfterEach
+    public void after() {
+        downloader.close();
+    }
+
+    @Test
+    public void jobOrder() throws IOException {
+        // The first artifact takes longest, but is still returned first
+        GHArtifact pr = mockArtifact("flaky-tests-pr", "utils/flaky-tests-pr.zip", 500);
+        GHArtifact other = mockArtifact("test-reports", "utils/flaky-tests-pr.zip", 0);
+        GHArtifact push = mockArtifact("flaky-tests-push", "utils/flaky-tests-push.zip", 0);
+
+        List<FlakyJob> flakyJobs = downloader.findFlakyJobs(mockWorkflowRun(pr, other, push));
+
+        assertEquals(List.of("Base IT (1)", "Unit Tests"), flakyJobs.stream().map(FlakyJob::getJobName).toList());
+        assertEquals("Keycloak CI", flakyJobs.get(0).getWorkflow());
+        verify(other, never()).download(any());
+
+        assertEquals(2.0, meterRegistry.counter("bot.flaky.artifacts", "result", "parsed").count());
+        assertEquals(2, meterRegistry.get("bot.flaky.artifact.bytes").summary().count());
+        assertEquals(2412 + 2745, meterRegistry.get("bot.flaky.artifact.bytes").summary().totalAmount());
+        assertEquals(2, meterRegistry.get("bot.flaky.artifact.download").timer().count());
+        assertEquals(2, meterRegistry.get("bot.flaky.artifact.parse").timer().count());
+    }
+
+    @Test
+    public void limits() throws IOException {
+        downloader.timeout = Duration.ofMillis(500);
+        downloader.maxSize = new MemorySize(BigInteger.valueOf(2600));
+
+        GHArtifact slow = mockArtifact("flaky-tests-slow", "utils/flaky-tests-pr.zip", 5000);
+        GHArtifact large = mockArtifact("flaky-tests-large", "utils/flaky-tests-pr.zip", 0);
+        when(large.getSizeInBytes()).thenReturn(10000L);
+        // Reported as small, but larger than the limit when downloaded
+        GHArtifact truncated = mockArtifact("flaky-tests-truncated", "utils/flaky-tests-push.zip", 0);
+        GHArtifact pr = mockArtifact("flaky-tests-pr", "utils/flaky-tests-pr.zip", 0);
+
+        List<FlakyJob> flakyJobs = downloader.findFlakyJobs(mockWorkflowRun(slow, large, truncated, pr));
+
+        assertEquals(List.of("Base IT (1)"), flakyJobs.stream().map(FlakyJob::getJobName).toList());
+        verify(large, never()).download(any());
+
+        assertEquals(1.0, meterRegistry.counter("bot.flaky.artifacts", "result", "parsed").count());
+        assertEquals(2.0, meterRegistry.counter("bot.flaky.artifacts", "result", "failed").count());
+        assertEquals(1.0, meterRegistry.counter("bot.flaky.artifacts", "result", "skipped").count());
+    }
+
+    @Test
+    public void processedArtifacts() throws IOException {
+        downloader.maxSize = new MemorySize(BigInteger.valueOf(2600));
+
+        GHArtifact processed = mockArtifact("flaky-tests-pr", "utils/flaky-tests-pr.zip", 0);
+        GHArtifact push = mockArtifact("flaky-tests-push", "utils/flaky-tests-push.zip", 0);
+        GHArtifact large = mockArtifact("flaky-tests-large", "utils/flaky-tests-pr.zip", 0);
+        when(large.getSizeInBytes()).thenReturn(10000L);
+
+        FlakyArtifactDownloader.Result result = downloader.findFlakyJobs(mockWorkflowRun(processed, push, large), Set.of(processed.getNodeId()));
+
+        // Too large once the limit is exceeded while downloading, and too large before downloading
+        assertEquals(List.of(), result.flakyJobs());
+        assertEquals(Set.of(large.getNodeId()), result.artifactIds());
+        assertEquals(1, result.failed());
+        verify(processed, never()).download(any());
+
+        downloader.maxSize = new MemorySize(BigInteger.valueOf(1024 * 1024));
+        result = downloader.findFlakyJobs(mockWorkflowRun(processed, push, large), Set.of(processed.getNodeId(), large.getNodeId()));
+
+        assertEquals(List.of("Unit Tests"), result.flakyJobs().stream().map(FlakyJob::getJobName).toList());
+        assertEquals(Set.of(push.getNodeId()), result.artifactIds());
+        assertEquals(0, result.failed());
+        verify(processed, never()).download(any());
+        verify(large, never()).download(any());
+    }
+
+    private GHWorkflowRun mockWorkflowRun(GHArtifact... artifacts) throws IOException {
+        GHWorkflowRun workflowRun = mock(GHWorkflowRun.class);
+        when(workflowRun.getName()).thenReturn("Keycloak CI");
+
+        PagedIterable<GHArtifact> iterable = pagedIterable(List.of(artifacts));
+        when(workflowRun.listArtifacts()).thenReturn(iterable);
+        return workflowRun;
+    }
+
+    @SuppressWarnings("unchecked")
+    private GHArtifact mockArtifact(String name, String resource, long delay) throws IOException {
+        GHArtifact artifact = mock(GHArtifact.class);
+        when(artifact.getName()).thenReturn(name);
+        when(artifact.getNodeId()).thenReturn("MDg6QXJ0aWZhY3Q" + name);
+        when(artifact.getSizeInBytes()).thenReturn(1000L);
+        when(artifact.download(any())).thenAnswer(i -> {
+            Thread.sleep(delay);
+            try (InputStream is = FlakyArtifactDownloaderTest.class.getResourceAsStream(resource)) {
+                return i.<InputStreamFunction<FlakyJob>>getArgument(0).apply(is);
+            }
+        });
+        return artifact;
+    }
+
+}
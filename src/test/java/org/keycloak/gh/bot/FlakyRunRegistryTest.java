@@ -0,0 +1,204 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.keycloak.gh.bot.BotTestUtils.fixedClock;
+import static org.keycloak.gh.bot.BotTestUtils.openStateStore;
+
+public class FlakyRunRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BotStateStore store;
+    private FlakyRunRegistry registry;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void before() throws IOException {
+        open();
+    }
+
+    @AfterEach
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void redelivery() throws IOException {
+        List<Set<String>> seen = new LinkedList<>();
+
+        assertTrue(registry.process(1, 1, run -> {
+            seen.add(Set.copyOf(run.getProcessedArtifacts()));
+            run.getProcessedArtifacts().addAll(Set.of("10", "11"));
+            return true;
+        }));
+
+        // Kept after a restart
+        store.close();
+        open();
+
+        assertFalse(registry.process(1, 1, run -> {
+            throw new AssertionError("Redelivered attempt processed");
+        }));
+
+        // A re-run only gets the artifacts of the earlier attempt
+        assertTrue(registry.process(1, 2, run -> {
+            seen.add(Set.copyOf(run.getProcessedArtifacts()));
+            run.getProcessedArtifacts().add("12");
+            return true;
+        }));
+
+        // Other runs are not affected
+        assertTrue(registry.process(2, 1, run -> {
+            seen.add(Set.copyOf(run.getProcessedArtifacts()));
+            return true;
+        }));
+
+        assertEquals(List.of(Set.of(), Set.of("10", "11"), Set.of()), seen);
+        assertEquals(1.0, meterRegistry.counter("bot.flaky.runs", "result", "duplicate").count());
+        assertEquals(2.0, meterRegistry.counter("bot.flaky.runs", "result", "processed").count());
+    }
+
+    @Test
+    public void incomplete() throws IOException {
+        // Artifact 11 failed, so a redelivery tries again without downloading artifact 10
+        assertTrue(registry.process(1, 1, run -> {
+            run.getProcessedArtifacts().add("10");
+            return false;
+        }));
+        assertTrue(registry.process(1, 1, run -> {
+            assertEquals(Set.of("10"), run.getProcessedArtifacts());
+            run.getProcessedArtifacts().add("11");
+            return true;
+        }));
+        assertFalse(registry.process(1, 1, run -> true));
+
+        assertEquals(1.0, meterRegistry.counter("bot.flaky.runs", "result", "incomplete").count());
+    }
+
+    @Test
+    public void unreportedTests() throws IOException {
+        assertTrue(registry.process(1, 1, run -> {
+            run.getUnreportedTests().computeIfAbsent("Flaky test: A#a", t -> new LinkedList<>()).addAll(List.of("a1", "a2"));
+            run.getUnreportedTests().computeIfAbsent("Flaky test: B#b", t -> new LinkedList<>()).add("b1");
+            return true;
+        }));
+
+        // Kept after a restart, in the order they were found
+        store.close();
+        open();
+
+        assertTrue(registry.process(1, 2, run -> {
+            assertEquals(List.of("Flaky test: A#a", "Flaky test: B#b"), List.copyOf(run.getUnreportedTests().keySet()));
+            assertEquals(List.of("a1", "a2"), run.getUnreportedTests().get("Flaky test: A#a"));
+            run.getUnreportedTests().remove("Flaky test: A#a");
+            return true;
+        }));
+        assertTrue(registry.process(1, 3, run -> {
+            assertEquals(Map.of("Flaky test: B#b", List.of("b1")), run.getUnreportedTests());
+            return true;
+        }));
+    }
+
+    @Test
+    public void failure() throws IOException {
+        assertThrows(IOException.class, () -> registry.process(1, 1, run -> {
+            run.getProcessedArtifacts().add("10");
+            throw new IOException("Failed");
+        }));
+
+        assertThrows(IOException.class, () -> registry.process(1, 1, run -> {
+            run.getUnreportedTests().put("Flaky test: A#a", new LinkedList<>(List.of("a1")));
+            throw new IOException("Failed");
+        }));
+
+        // Nothing is recorded if processing fails
+        assertTrue(registry.process(1, 1, run -> {
+            assertEquals(Set.of(), run.getProcessedArtifacts());
+            assertEquals(Map.of(), run.getUnreportedTests());
+            return true;
+        }));
+    }
+
+    @Test
+    public void concurrentDeliveries() throws Exception {
+        AtomicInteger processed = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new LinkedList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                    latch.await();
+                    return registry.process(1, 1, p -> {
+                        processed.incrementAndGet();
+                        return true;
+                    });
+                }));
+            }
+            latch.countDown();
+
+            int count = 0;
+            for (Future<Boolean> f : futures) {
+                count += f.get() ? 1 : 0;
+            }
+            assertEquals(1, count);
+            assertEquals(1, processed.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void prune() throws IOException {
+        registry.process(1, 1, run -> true);
+        setTime(Duration.ofDays(20));
+        registry.process(2, 1, run -> true);
+
+        setTime(Duration.ofDays(40));
+        registry.prune();
+
+        assertTrue(registry.process(1, 1, run -> true));
+        assertFalse(registry.process(2, 1, run -> true));
+    }
+
+    private void open() throws IOException {
+        store = openStateStore(tempDir);
+
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new FlakyRunRegistry();
+        registry.retention = Duration.ofDays(35);
+        registry.stateStore = store;
+        registry.meterRegistry = meterRegistry;
+        registry.init();
+        setTime(Duration.ZERO);
+    }
+
+    private void setTime(Duration offset) {
+        registry.clock = fixedClock(offset);
+    }
+
+}
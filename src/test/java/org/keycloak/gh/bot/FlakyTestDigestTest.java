@@ -0,0 +1,270 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.keycloak.gh.bot.utils.FlakyJob;
+import org.keycloak.gh.bot.utils.FlakyTest;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.HttpException;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.keycloak.gh.bot.BotTestUtils.fixedClock;
+import static org.keycloak.gh.bot.BotTestUtils.openStateStore;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FlakyTestDigestTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BotStateStore store;
+    private FlakyTestDigest digest;
+    private GitHubRestClient gitHubRest;
+    private SimpleMeterRegistry meterRegistry;
+    private GHIssue issue;
+
+    @BeforeEach
+    public void before() throws IOException {
+        gitHubRest = mock(GitHubRestClient.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        issue = mock(GHIssue.class);
+        when(issue.getNumber()).thenReturn(10);
+        when(issue.getApiURL()).thenReturn(new URL("https://api.github.com/repos/keycloak/keycloak/issues/10"));
+        GHIssueComment first = createComment(1000);
+        GHIssueComment second = createComment(2000);
+        when(issue.comment(anyString())).thenReturn(first, second);
+
+        open();
+    }
+
+    @AfterEach
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void sameDay() throws IOException {
+        digest.report(issue, List.of(createFlakyTest("Base IT (1)", "1", null, "Failure 1"), createFlakyTest("Base IT (2)", "2", null, "Failure 1")));
+        ArgumentCaptor<String> created = ArgumentCaptor.forClass(String.class);
+        verify(issue, times(1)).comment(created.capture());
+
+        assertTrue(created.getValue().startsWith("## org.keycloak.MyTest#flaky on 2026-10-18\n"));
+        assertTrue(created.getValue().contains("| [Keycloak CI - Base IT (1)](https://github.com/keycloak/keycloak/actions/runs/1/job/1) |  | 1 |\n"));
+        assertTrue(created.getValue().contains("| [Keycloak CI - Base IT (2)](https://github.com/keycloak/keycloak/actions/runs/1/job/2) |  | 1 |\n"));
+        assertFalse(created.getValue().contains("```\nFailure 2\n```"));
+
+        // A later run merges its jobs and failures into the same comment
+        digest.report(issue, List.of(createFlakyTest("Base IT (3)", "3", "123", "Failure 1", "Failure 2")));
+        verify(issue, times(1)).comment(anyString());
+
+        ArgumentCaptor<String> edited = ArgumentCaptor.forClass(String.class);
+        verify(gitHubRest, times(1)).updateIssueComment(eq(issue), eq(1000L), edited.capture());
+        assertTrue(edited.getValue().contains("Base IT (1)"));
+        assertTrue(edited.getValue().contains("Base IT (2)"));
+        assertTrue(edited.getValue().contains("| [Keycloak CI - Base IT (3)](https://github.com/keycloak/keycloak/actions/runs/1/job/3) | [#123](https://github.com/keycloak/keycloak/pull/123) | 1, 2 |\n"));
+        assertEquals(1, countOf(edited.getValue(), "```\nFailure 1\n```"));
+        assertEquals(1, countOf(edited.getValue(), "```\nFailure 2\n```"));
+
+        assertEquals(1.0, meterRegistry.counter("bot.flaky.digest", "result", "created").count());
+        assertEquals(1.0, meterRegistry.counter("bot.flaky.digest", "result", "edited").count());
+    }
+
+    @Test
+    public void nextDay() throws IOException {
+        digest.report(issue, List.of(createFlakyTest("Base IT (1)", "1", null, "Failure 1")));
+
+        digest.clock = fixedClock("2026-10-19T00:10:00Z");
+        digest.report(issue, List.of(createFlakyTest("Base IT (2)", "2", null, "Failure 2")));
+
+        ArgumentCaptor<String> created = ArgumentCaptor.forClass(String.class);
+        verify(issue, times(2)).comment(created.capture());
+        verify(gitHubRest, never()).updateIssueComment(eq(issue), anyLong(), anyString());
+
+        String body = created.getAllValues().get(1);
+        assertTrue(body.contains("on 2026-10-19"));
+        assertFalse(body.contains("Base IT (1)"));
+        assertFalse(body.contains("```\nFailure 1\n```"));
+    }
+
+    @Test
+    public void commentDeleted() throws IOException {
+        digest.report(issue, List.of(createFlakyTest("Base IT (1)", "1", null, "Failure 1")));
+
+        doThrow(new HttpException("Not Found", 404, "Not Found", "url")).when(gitHubRest).updateIssueComment(eq(issue), eq(1000L), anyString());
+        digest.report(issue, List.of(createFlakyTest("Base IT (2)", "2", null, "Failure 1")));
+        verify(issue, times(2)).comment(anyString());
+
+        // The new comment is edited from now on
+        digest.report(issue, List.of(createFlakyTest("Base IT (3)", "3", null, "Failure 1")));
+        verify(issue, times(2)).comment(anyString());
+        verify(gitHubRest, times(1)).updateIssueComment(eq(issue), eq(2000L), anyString());
+    }
+
+    @Test
+    public void restart() throws IOException {
+        digest.report(issue, List.of(createFlakyTest("Base IT (1)", "1", null, "Failure 1")));
+
+        store.close();
+        open();
+
+        digest.report(issue, List.of(createFlakyTest("Base IT (2)", "2", null, "Failure 1")));
+        verify(issue, times(1)).comment(anyString());
+
+        ArgumentCaptor<String> edited = ArgumentCaptor.forClass(String.class);
+        verify(gitHubRest, times(1)).updateIssueComment(eq(issue), eq(1000L), edited.capture());
+        assertTrue(edited.getValue().contains("Base IT (1)"));
+        assertTrue(edited.getValue().contains("Base IT (2)"));
+    }
+
+    @Test
+    public void failureModes() throws IOException {
+        // Failures that only differ in line numbers are the same failure mode
+        digest.report(issue, List.of(createFlakyTest("Base IT (1)", "1", null, "Failure\n\tat MyTest.java:10"), createFlakyTest("Base IT (2)", "2", null, "Failure\n\tat MyTest.java:11")));
+        ArgumentCaptor<String> created = ArgumentCaptor.forClass(String.class);
+        verify(issue, times(1)).comment(created.capture());
+
+        assertTrue(created.getValue().contains("#### Failure 1 (new failure mode)\nSeen 2 times\n```\nFailure\n\tat MyTest.java:10\n```"));
+        assertEquals(1, countOf(created.getValue(), "#### Failure"));
+
+        // Failure modes seen on a previous day are known
+        digest.clock = fixedClock("2026-10-19T12:00:00Z");
+        digest.report(issue, List.of(createFlakyTest("Base IT (1)", "3", null, "Failure\n\tat MyTest.java:12", "Other failure")));
+        verify(issue, times(2)).comment(created.capture());
+
+        assertTrue(created.getValue().contains("#### Failure 1\n```\nFailure\n\tat MyTest.java:12\n```"));
+        assertTrue(created.getValue().contains("#### Failure 2 (new failure mode)\n```\nOther failure\n```"));
+
+        assertEquals(2.0, meterRegistry.counter("bot.flaky.failures", "mode", "new").count());
+        assertEquals(1.0, meterRegistry.counter("bot.flaky.failures", "mode", "known").count());
+    }
+
+    @Test
+    public void limits() throws IOException {
+        for (int i = 0; i < FlakyTestDigest.MAX_JOBS + 5; i++) {
+            digest.report(issue, List.of(createFlakyTest("Base IT (" + i + ")", String.valueOf(i), null, "Failure " + i)));
+        }
+
+        ArgumentCaptor<String> edited = ArgumentCaptor.forClass(String.class);
+        verify(gitHubRest, times(FlakyTestDigest.MAX_JOBS + 4)).updateIssueComment(eq(issue), eq(1000L), edited.capture());
+        String body = edited.getValue();
+
+        assertEquals(FlakyTestDigest.MAX_JOBS, countOf(body, "| [Keycloak CI"));
+        assertTrue(body.contains("\nAnd 5 more jobs\n"));
+        assertEquals(FlakyTestDigest.MAX_FAILURES, countOf(body, "#### Failure"));
+    }
+
+    @Test
+    public void prune() throws IOException {
+        digest.report(issue, List.of(createFlakyTest("Base IT (1)", "1", null, "Failure 1")));
+
+        // The digest of the day is removed the next day, the signatures are kept for the retention
+        digest.clock = fixedClock("2026-10-19T03:15:00Z");
+        digest.prune();
+        digest.clock = fixedClock("2026-10-18T12:00:00Z");
+        digest.report(issue, List.of(createFlakyTest("Base IT (2)", "2", null, "Failure 1")));
+        ArgumentCaptor<String> created = ArgumentCaptor.forClass(String.class);
+        verify(issue, times(2)).comment(created.capture());
+        assertFalse(created.getValue().contains("(new failure mode)"));
+
+        digest.clock = fixedClock("2027-01-17T03:15:00Z");
+        digest.prune();
+        digest.report(issue, List.of(createFlakyTest("Base IT (3)", "3", null, "Failure 1")));
+        verify(issue, times(3)).comment(created.capture());
+        assertTrue(created.getValue().contains("#### Failure 1 (new failure mode)"));
+    }
+
+    @Test
+    public void closed() throws IOException {
+        digest.report(issue, List.of(createFlakyTest("Base IT (1)", "1", null, "Failure 1")));
+
+        String json = new JsonObject()
+                .put("action", "closed")
+                .put("issue", new JsonObject()
+                        .put("number", 10)
+                        .put("url", "https://api.github.com/repos/keycloak/keycloak/issues/10"))
+                .encode();
+        digest.onClosed(GitHub.offline().parseEventPayload(new StringReader(json), GHEventPayload.Issue.class));
+
+        // Reported again as if the issue was new
+        digest.report(issue, List.of(createFlakyTest("Base IT (2)", "2", null, "Failure 1")));
+        ArgumentCaptor<String> created = ArgumentCaptor.forClass(String.class);
+        verify(issue, times(2)).comment(created.capture());
+        assertTrue(created.getValue().contains("#### Failure 1 (new failure mode)"));
+        assertFalse(created.getValue().contains("Base IT (1)"));
+    }
+
+    private void open() throws IOException {
+        store = openStateStore(tempDir);
+
+        digest = new FlakyTestDigest();
+        digest.retention = Duration.ofDays(90);
+        digest.stateStore = store;
+        digest.gitHubRest = gitHubRest;
+        digest.commentLedger = mock(BotCommentLedger.class);
+        digest.meterRegistry = meterRegistry;
+        digest.clock = fixedClock("2026-10-18T12:00:00Z");
+        digest.init();
+    }
+
+    private FlakyTest createFlakyTest(String jobName, String jobId, String pr, String... failures) {
+        FlakyJob flakyJob = new FlakyJob();
+        flakyJob.setWorkflow("Keycloak CI");
+        flakyJob.setJobName(jobName);
+        flakyJob.setJobUrl("https://github.com/keycloak/keycloak/actions/runs/1/job/" + jobId);
+        if (pr != null) {
+            flakyJob.setPr(pr);
+            flakyJob.setPrUrl("https://github.com/keycloak/keycloak/pull/" + pr);
+        }
+
+        FlakyTest flakyTest = new FlakyTest(flakyJob, "org.keycloak.MyTest", "flaky");
+        for (String failure : failures) {
+            flakyTest.addFailure(failure);
+        }
+        return flakyTest;
+    }
+
+    private GHIssueComment createComment(long id) throws IOException {
+        String json = new JsonObject()
+                .put("action", "created")
+                .put("comment", new JsonObject()
+                        .put("id", id)
+                        .put("user", new JsonObject().put("login", "keycloak-bot")))
+                .encode();
+        return GitHub.offline().parseEventPayload(new StringReader(json), GHEventPayload.IssueComment.class).getComment();
+    }
+
+    private static int countOf(String s, String sub) {
+        int count = 0;
+        for (int i = s.indexOf(sub); i != -1; i = s.indexOf(sub, i + sub.length())) {
+            count++;
+        }
+        return count;
+    }
+
+}
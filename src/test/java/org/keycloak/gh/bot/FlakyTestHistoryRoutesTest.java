@@ -0,0 +1,87 @@
+package org.keycloak.gh.bot;
+
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FlakyTestHistoryRoutesTest {
+
+    private FlakyTestHistoryRoutes routes;
+    private RoutingContext rc;
+    private HttpServerRequest request;
+    private HttpServerResponse response;
+
+    @BeforeEach
+    public void before() {
+        routes = new FlakyTestHistoryRoutes();
+        routes.history = Mockito.mock(FlakyTestHistory.class);
+        when(routes.history.getMaxDays()).thenReturn(90);
+
+        rc = Mockito.mock(RoutingContext.class);
+        request = Mockito.mock(HttpServerRequest.class);
+        response = Mockito.mock(HttpServerResponse.class, Answers.RETURNS_SELF);
+        when(rc.request()).thenReturn(request);
+        when(rc.response()).thenReturn(response);
+    }
+
+    @Test
+    public void top() throws Exception {
+        when(routes.history.top(30, 20)).thenReturn(List.of(new FlakyTestHistory.TestStats("org.keycloak.MyTest#test", 3, 2, 4, null)));
+
+        routes.top(rc);
+
+        verify(response).setStatusCode(200);
+        verify(response).end("[{\"test\":\"org.keycloak.MyTest#test\",\"failures\":3,\"runs\":2,\"totalRuns\":4,\"failureRate\":0.5}]");
+    }
+
+    @Test
+    public void topInvalid() throws Exception {
+        when(request.getParam("days")).thenReturn("7");
+        when(request.getParam("limit")).thenReturn("5000");
+
+        routes.top(rc);
+
+        verify(response).setStatusCode(400);
+        verify(response).end("{\"error\":\"Parameter limit must be a number between 1 and 1000\"}");
+        verify(routes.history, never()).top(anyInt(), anyInt());
+    }
+
+    @Test
+    public void rate() throws Exception {
+        when(request.getParam("test")).thenReturn("org.keycloak.MyTest#test");
+        when(request.getParam("days")).thenReturn("7");
+        when(routes.history.rate("org.keycloak.MyTest#test", 7)).thenReturn(new FlakyTestHistory.TestStats("org.keycloak.MyTest#test", 3, 2, 4, Map.of("0123456789abcdef", 3L)));
+
+        routes.rate(rc);
+
+        verify(response).setStatusCode(200);
+        verify(response).end("{\"test\":\"org.keycloak.MyTest#test\",\"failures\":3,\"runs\":2,\"totalRuns\":4,\"signatures\":{\"0123456789abcdef\":3},\"failureRate\":0.5}");
+    }
+
+    @Test
+    public void rateInvalid() throws Exception {
+        routes.rate(rc);
+        verify(response).setStatusCode(400);
+        verify(response).end("{\"error\":\"Missing parameter test\"}");
+
+        when(request.getParam("test")).thenReturn("org.keycloak.MyTest#test");
+        when(request.getParam("days")).thenReturn("abc");
+        routes.rate(rc);
+        verify(response).end("{\"error\":\"Parameter days must be a number between 1 and 90\"}");
+        verify(routes.history, never()).rate(anyString(), anyInt());
+    }
+
+}
@@ -0,0 +1,211 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.keycloak.gh.bot.utils.FailureFingerprint;
+import org.keycloak.gh.bot.utils.FlakyJob;
+import org.keycloak.gh.bot.utils.FlakyTest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.keycloak.gh.bot.BotTestUtils.fixedClock;
+import static org.keycloak.gh.bot.BotTestUtils.openStateStore;
+
+public class FlakyTestHistoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BotStateStore store;
+    private FlakyTestHistory history;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void before() throws IOException {
+        open(openStateStore(tempDir));
+    }
+
+    @AfterEach
+    public void after() {
+        store.close();
+    }
+
+    @Test
+    public void top() {
+        setDay(1);
+        history.record(1, List.of(createJob("Base IT (1)", null, createTest("FirstTest", "A", "A")), createJob("Base IT (2)", null, createTest("FirstTest", "A"), createTest("SecondTest", "B"))));
+        history.record(2, List.of());
+        setDay(2);
+        history.record(3, List.of(createJob("Base IT (1)", "123", createTest("SecondTest", "B"))));
+        history.record(4, List.of(createJob("Base IT (1)", null, createTest("SecondTest", "C"), createTest("ThirdTest", "C"))));
+
+        List<FlakyTestHistory.TestStats> top = history.top(30, 10);
+        assertEquals(List.of("org.keycloak.SecondTest#test", "org.keycloak.FirstTest#test", "org.keycloak.ThirdTest#test"), top.stream().map(FlakyTestHistory.TestStats::test).toList());
+
+        FlakyTestHistory.TestStats second = top.get(0);
+        assertEquals(3, second.failures());
+        assertEquals(3, second.runs());
+        assertEquals(4, second.totalRuns());
+        assertEquals(0.75, second.getFailureRate());
+
+        // Flaky in two jobs of the same run, counted once for the run
+        FlakyTestHistory.TestStats first = top.get(1);
+        assertEquals(3, first.failures());
+        assertEquals(1, first.runs());
+        assertEquals(0.25, first.getFailureRate());
+
+        assertEquals(1, history.top(30, 1).size());
+
+        // Only the last day
+        top = history.top(1, 10);
+        assertEquals(List.of("org.keycloak.SecondTest#test", "org.keycloak.ThirdTest#test"), top.stream().map(FlakyTestHistory.TestStats::test).toList());
+        assertEquals(2, top.get(0).totalRuns());
+        assertEquals(1.0, top.get(0).getFailureRate());
+    }
+
+    @Test
+    public void rate() throws IOException {
+        setDay(1);
+        history.record(1, List.of(createJob("Base IT (1)", null, createTest("FirstTest", "A", "A", "B"))));
+        setDay(2);
+        history.record(2, List.of(createJob("Base IT (1)", "123", createTest("FirstTest", "B"))));
+        history.record(3, List.of(createJob("Base IT (1)", null, createTest("SecondTest", "B"))));
+
+        // Kept after a restart
+        store.close();
+        open(openStateStore(tempDir));
+        setDay(2);
+
+        FlakyTestHistory.TestStats rate = history.rate("org.keycloak.FirstTest#test", 30);
+        assertEquals(4, rate.failures());
+        assertEquals(2, rate.runs());
+        assertEquals(3, rate.totalRuns());
+        assertEquals(Map.of(FailureFingerprint.signature("A"), 2L, FailureFingerprint.signature("B"), 2L), rate.signatures());
+
+        rate = history.rate("org.keycloak.FirstTest#test", 1);
+        assertEquals(1, rate.failures());
+        assertEquals(1, rate.runs());
+        assertEquals(2, rate.totalRuns());
+        assertEquals(Map.of(FailureFingerprint.signature("B"), 1L), rate.signatures());
+
+        rate = history.rate("org.keycloak.OtherTest#test", 30);
+        assertEquals(0, rate.failures());
+        assertEquals(0.0, rate.getFailureRate());
+    }
+
+    @Test
+    public void sameRun() {
+        setDay(1);
+        history.record(1, List.of(createJob("Base IT (1)", null, createTest("FirstTest", "A"))));
+        history.record(2, List.of());
+        // A re-run attempt of run 1 the next day, where the test is flaky again and another test is flaky too
+        setDay(2);
+        history.record(1, List.of(createJob("Base IT (1)", null, createTest("FirstTest", "B"), createTest("SecondTest", "A"))));
+        // A redelivery of the re-run attempt with artifacts that failed to download before
+        history.record(1, List.of(createJob("Base IT (2)", null, createTest("SecondTest", "A"))));
+
+        FlakyTestHistory.TestStats first = history.rate("org.keycloak.FirstTest#test", 30);
+        assertEquals(2, first.failures());
+        assertEquals(1, first.runs());
+        assertEquals(2, first.totalRuns());
+        assertEquals(0.5, first.getFailureRate());
+
+        // Counted on the day the run was first recorded
+        FlakyTestHistory.TestStats second = history.rate("org.keycloak.SecondTest#test", 1);
+        assertEquals(0, second.failures());
+        assertEquals(0, second.totalRuns());
+        second = history.rate("org.keycloak.SecondTest#test", 2);
+        assertEquals(2, second.failures());
+        assertEquals(1, second.runs());
+        assertEquals(2, second.totalRuns());
+    }
+
+    @Test
+    public void prune() {
+        setDay(1);
+        history.record(1, List.of(createJob("Base IT (1)", null, createTest("FirstTest", "A"))));
+        setDay(50);
+        history.record(2, List.of(createJob("Base IT (1)", null, createTest("SecondTest", "A"))));
+        assertEquals(2.0, meterRegistry.get("bot.flaky.history.occurrences").gauge().value());
+
+        setDay(100);
+        history.prune();
+
+        assertEquals(1.0, meterRegistry.get("bot.flaky.history.occurrences").gauge().value());
+        List<FlakyTestHistory.TestStats> top = history.top(history.getMaxDays(), 10);
+        assertEquals(List.of("org.keycloak.SecondTest#test"), top.stream().map(FlakyTestHistory.TestStats::test).toList());
+        assertEquals(1, top.get(0).totalRuns());
+    }
+
+    @Test
+    public void manyOccurrences() throws IOException {
+        store.close();
+        open(openStateStore());
+
+        // 10 000 occurrences of 200 tests over 10 days, see FlakyTestHistoryBenchmark for the query times at volume
+        for (int day = 0; day < 10; day++) {
+            setDay(day);
+            for (int run = 0; run < 20; run++) {
+                List<FlakyTest> flakyTests = new LinkedList<>();
+                for (int t = 0; t < 50; t++) {
+                    flakyTests.add(createTest("Flaky" + ((day * 7 + run * 13 + t) % 200) + "Test", "Failure " + (t % 3)));
+                }
+                history.record(day * 100L + run, List.of(createJob("Base IT (1)", null, flakyTests.toArray(new FlakyTest[0]))));
+            }
+        }
+        assertEquals(10000.0, meterRegistry.get("bot.flaky.history.occurrences").gauge().value());
+
+        List<FlakyTestHistory.TestStats> top = history.top(30, 20);
+        FlakyTestHistory.TestStats rate = history.rate("org.keycloak.Flaky1Test#test", 30);
+
+        assertEquals(20, top.size());
+        assertEquals(200, top.get(0).totalRuns());
+        assertEquals(3, rate.signatures().size());
+        assertEquals(rate.failures(), rate.signatures().values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    private void open(BotStateStore store) {
+        this.store = store;
+
+        meterRegistry = new SimpleMeterRegistry();
+        history = new FlakyTestHistory();
+        history.retention = Duration.ofDays(90);
+        history.stateStore = store;
+        history.meterRegistry = meterRegistry;
+        history.init();
+        setDay(0);
+    }
+
+    private void setDay(int day) {
+        history.clock = fixedClock(Duration.ofDays(day));
+    }
+
+    private FlakyJob createJob(String jobName, String pr, FlakyTest... flakyTests) {
+        FlakyJob flakyJob = new FlakyJob();
+        flakyJob.setWorkflow("Keycloak CI");
+        flakyJob.setJobName(jobName);
+        flakyJob.setPr(pr);
+        for (FlakyTest flakyTest : flakyTests) {
+            flakyJob.addFlakyTest(flakyTest);
+        }
+        return flakyJob;
+    }
+
+    private FlakyTest createTest(String className, String... failures) {
+        FlakyTest flakyTest = new FlakyTest(null, "org.keycloak." + className, "test");
+        for (String failure : failures) {
+            flakyTest.addFailure(failure);
+        }
+        return flakyTest;
+    }
+
+}
@@ -0,0 +1,286 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.gh.bot.utils.Labels;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueQueryBuilder;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.PagedIterable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.keycloak.gh.bot.BotTestUtils.pagedIterable;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FlakyTestIssueIndexTest {
+
+    private static final String REPOSITORY = "keycloak/keycloak";
+
+    private FlakyTestIssueIndex index;
+    private SimpleMeterRegistry meterRegistry;
+    private GHRepository repository;
+
+    @BeforeEach
+    public void before() throws IOException {
+        meterRegistry = new SimpleMeterRegistry();
+
+        index = new FlakyTestIssueIndex();
+        index.refresh = Duration.ofHours(6);
+        index.reservation = Duration.ofMinutes(10);
+        index.meterRegistry = meterRegistry;
+        index.init();
+
+        repository = mock(GHRepository.class);
+        when(repository.getFullName()).thenReturn(REPOSITORY);
+
+        GHIssue first = createPayload("opened", 1, "Flaky test: org.keycloak.FirstTest#test", "open", Labels.FLAKY_TEST).getIssue();
+        GHIssue second = createPayload("opened", 2, "Flaky test: org.keycloak.SecondTest#test", "open", Labels.FLAKY_TEST).getIssue();
+        GHIssue duplicate = createPayload("opened", 3, "Flaky test: org.keycloak.FirstTest#test", "open", Labels.FLAKY_TEST).getIssue();
+        PagedIterable<GHIssue> issues = pagedIterable(List.of(first, second, duplicate));
+
+        GHIssueQueryBuilder.ForRepository query = mock(GHIssueQueryBuilder.ForRepository.class, RETURNS_SELF);
+        when(query.list()).thenReturn(issues);
+        when(repository.queryIssues()).thenReturn(query);
+    }
+
+    @Test
+    public void find() throws IOException {
+        assertEquals(1, index.find(repository, "Flaky test: org.keycloak.FirstTest#test"));
+        assertEquals(2, index.find(repository, "  flaky test:   org.keycloak.SecondTest#TEST "));
+        assertNull(index.find(repository, "Flaky test: org.keycloak.OtherTest#test"));
+
+        // The issues are only listed once
+        verify(repository, times(1)).queryIssues();
+        assertEquals(2.0, meterRegistry.get("bot.flaky.index.issues").gauge().value());
+    }
+
+    @Test
+    public void events() throws IOException {
+        // Events for repositories that have not been listed are ignored
+        index.onIssueEvent(createPayload("closed", 2, "Flaky test: org.keycloak.SecondTest#test", "closed", Labels.FLAKY_TEST));
+        assertEquals(2, index.find(repository, "Flaky test: org.keycloak.SecondTest#test"));
+
+        index.onIssueEvent(createPayload("closed", 2, "Flaky test: org.keycloak.SecondTest#test", "closed", Labels.FLAKY_TEST));
+        assertNull(index.find(repository, "Flaky test: org.keycloak.SecondTest#test"));
+
+        index.onIssueEvent(createPayload("reopened", 2, "Flaky test: org.keycloak.SecondTest#test", "open", Labels.FLAKY_TEST));
+        assertEquals(2, index.find(repository, "Flaky test: org.keycloak.SecondTest#test"));
+
+        index.onIssueEvent(createPayload("edited", 2, "Flaky test: org.keycloak.RenamedTest#test", "open", Labels.FLAKY_TEST));
+        assertNull(index.find(repository, "Flaky test: org.keycloak.SecondTest#test"));
+        assertEquals(2, index.find(repository, "Flaky test: org.keycloak.RenamedTest#test"));
+
+        index.onIssueEvent(createPayload("unlabeled", 2, "Flaky test: org.keycloak.RenamedTest#test", "open"));
+        assertNull(index.find(repository, "Flaky test: org.keycloak.RenamedTest#test"));
+
+        index.onIssueEvent(createPayload("labeled", 4, "Flaky test: org.keycloak.NewTest#test", "open", Labels.FLAKY_TEST));
+        assertEquals(4, index.find(repository, "Flaky test: org.keycloak.NewTest#test"));
+
+        index.onIssueEvent(createPayload("deleted", 4, "Flaky test: org.keycloak.NewTest#test", "open", Labels.FLAKY_TEST));
+        assertNull(index.find(repository, "Flaky test: org.keycloak.NewTest#test"));
+
+        verify(repository, times(1)).queryIssues();
+    }
+
+    @Test
+    public void eventWhileListing() throws Exception {
+        CountDownLatch listing = new CountDownLatch(1);
+        CountDownLatch event = new CountDownLatch(1);
+        GHIssueQueryBuilder.ForRepository query = repository.queryIssues();
+        PagedIterable<GHIssue> issues = query.list();
+        when(query.list()).thenAnswer(i -> {
+            listing.countDown();
+            event.await();
+            return issues;
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> future = executor.submit(() -> index.find(repository, "Flaky test: org.keycloak.SecondTest#test"));
+            assertTrue(listing.await(10, TimeUnit.SECONDS));
+            // Listed as open, but closed while the issues are listed
+            index.onIssueEvent(createPayload("closed", 2, "Flaky test: org.keycloak.SecondTest#test", "closed", Labels.FLAKY_TEST));
+            index.onIssueEvent(createPayload("opened", 4, "Flaky test: org.keycloak.NewTest#test", "open", Labels.FLAKY_TEST));
+            event.countDown();
+
+            assertNull(future.get(10, TimeUnit.SECONDS));
+            assertEquals(4, index.find(repository, "Flaky test: org.keycloak.NewTest#test"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void duplicates() throws IOException {
+        assertEquals(1, index.find(repository, "Flaky test: org.keycloak.FirstTest#test"));
+
+        // The other issue with the same title is used once the oldest is closed
+        index.onIssueEvent(createPayload("closed", 1, "Flaky test: org.keycloak.FirstTest#test", "closed", Labels.FLAKY_TEST));
+        assertEquals(3, index.find(repository, "Flaky test: org.keycloak.FirstTest#test"));
+    }
+
+    @Test
+    public void add() throws IOException {
+        assertNull(index.find(repository, "Flaky test: org.keycloak.CreatedTest#test"));
+
+        index.add(repository, createPayload("opened", 5, "Flaky test: org.keycloak.CreatedTest#test", "open", Labels.FLAKY_TEST).getIssue());
+        assertEquals(5, index.find(repository, "Flaky test: org.keycloak.CreatedTest#test"));
+    }
+
+    @Test
+    public void getOrCreate() throws Exception {
+        GHIssue existing = createPayload("opened", 1, "Flaky test: org.keycloak.FirstTest#test", "open", Labels.FLAKY_TEST).getIssue();
+        when(repository.getIssue(1)).thenReturn(existing);
+
+        FlakyTestIssueIndex.Result result = index.getOrCreate(repository, "Flaky test: org.keycloak.FirstTest#test", () -> {
+            throw new AssertionError("Issue exists");
+        });
+        assertFalse(result.created());
+        assertEquals(existing, result.issue());
+
+        // Concurrent runs reporting the same test create a single issue
+        String title = "Flaky test: org.keycloak.CreatedTest#test";
+        GHIssue created = createPayload("opened", 5, title, "open", Labels.FLAKY_TEST).getIssue();
+        when(repository.getIssue(5)).thenReturn(created);
+
+        AtomicInteger creates = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<FlakyTestIssueIndex.Result>> results = new LinkedList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return index.getOrCreate(repository, title, () -> {
+                        creates.incrementAndGet();
+                        return created;
+                    });
+                }));
+            }
+            start.countDown();
+
+            int createdResults = 0;
+            for (Future<FlakyTestIssueIndex.Result> future : results) {
+                FlakyTestIssueIndex.Result r = future.get(10, TimeUnit.SECONDS);
+                assertEquals(5, r.issue().getNumber());
+                createdResults += r.created() ? 1 : 0;
+            }
+            assertEquals(1, creates.get());
+            assertEquals(1, createdResults);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getOrCreateReservation() throws IOException {
+        // The issues are listed again for every lookup, and GitHub doesn't return the new issue yet
+        index.refresh = Duration.ZERO;
+        index.init();
+
+        String title = "Flaky test: org.keycloak.CreatedTest#test";
+        GHIssue created = createPayload("opened", 5, title, "open", Labels.FLAKY_TEST).getIssue();
+        when(repository.getIssue(5)).thenReturn(created);
+
+        assertTrue(index.getOrCreate(repository, title, () -> created).created());
+        assertFalse(index.getOrCreate(repository, title, () -> {
+            throw new AssertionError("Issue reserved");
+        }).created());
+
+        // Once the issue is closed it is no longer reserved
+        index.onIssueEvent(createPayload("closed", 5, title, "closed", Labels.FLAKY_TEST));
+        assertTrue(index.getOrCreate(repository, title, () -> created).created());
+    }
+
+    @Test
+    public void getOrCreateOtherTests() throws Exception {
+        // Titles that use different locks
+        String first = "Flaky test: org.keycloak.CreatedTest#test";
+        String second = null;
+        for (int i = 0; second == null; i++) {
+            String title = "Flaky test: org.keycloak.OtherTest#test" + i;
+            if (stripe(title) != stripe(first)) {
+                second = title;
+            }
+        }
+        GHIssue firstIssue = createPayload("opened", 5, first, "open", Labels.FLAKY_TEST).getIssue();
+        GHIssue secondIssue = createPayload("opened", 6, second, "open", Labels.FLAKY_TEST).getIssue();
+        index.find(repository, first);
+
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch secondCreated = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // The first issue is only created once the second has been, which would never happen if they were locked
+            // by the same lock
+            Future<FlakyTestIssueIndex.Result> firstResult = executor.submit(() -> index.getOrCreate(repository, first, () -> {
+                creating.countDown();
+                await(secondCreated);
+                return firstIssue;
+            }));
+
+            assertTrue(creating.await(10, TimeUnit.SECONDS));
+            assertTrue(index.getOrCreate(repository, second, () -> secondIssue).created());
+            secondCreated.countDown();
+
+            assertTrue(firstResult.get(10, TimeUnit.SECONDS).created());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void await(CountDownLatch latch) throws IOException {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private int stripe(String title) {
+        return Math.floorMod(FlakyTestIssueIndex.key(repository, title).hashCode(), FlakyTestIssueIndex.LOCK_STRIPES);
+    }
+
+    private GHEventPayload.Issue createPayload(String action, int number, String title, String state, String... labels) throws IOException {
+        JsonArray labelsJson = new JsonArray();
+        for (String label : labels) {
+            labelsJson.add(new JsonObject().put("name", label));
+        }
+
+        JsonObject json = new JsonObject()
+                .put("action", action)
+                .put("issue", new JsonObject()
+                        .put("number", number)
+                        .put("title", title)
+                        .put("state", state)
+                        .put("labels", labelsJson))
+                .put("repository", new JsonObject().put("full_name", REPOSITORY));
+        return GitHub.offline().parseEventPayload(new StringReader(json.encode()), GHEventPayload.Issue.class);
+    }
+
+}
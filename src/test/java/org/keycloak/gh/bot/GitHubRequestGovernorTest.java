@@ -0,0 +1,244 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.gh.bot.GitHubRequestGovernor.Category;
+import org.kohsuke.github.connector.GitHubConnector;
+import org.kohsuke.github.connector.GitHubConnectorRequest;
+import org.kohsuke.github.connector.GitHubConnectorResponse;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GitHubRequestGovernorTest {
+
+    private GitHubRequestGovernor governor;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void before() {
+        meterRegistry = new SimpleMeterRegistry();
+
+        governor = new GitHubRequestGovernor();
+        governor.backgroundReserve = 0.2;
+        governor.maxWait = Duration.ofMillis(200);
+        governor.meterRegistry = meterRegistry;
+    }
+
+    @Test
+    public void tokensFromHeaders() throws IOException {
+        assertEquals(-1, governor.getRemaining("1", Category.CORE));
+
+        // Requests are not held back before the limit is known
+        governor.acquire("1", Category.CORE);
+
+        update("1", "core", 200, 5000, 100);
+        governor.acquire("1", Category.CORE);
+        governor.acquire("1", Category.CORE);
+
+        assertEquals(98, governor.getRemaining("1", Category.CORE));
+        assertEquals(98.0, meterRegistry.get("bot.github.ratelimit.remaining").tag("installation", "1").tag("category", "core").gauge().value());
+
+        // Responses sent before other requests took tokens don't add tokens back
+        update("1", "core", 200, 5000, 99);
+        assertEquals(98, governor.getRemaining("1", Category.CORE));
+
+        // Each installation and category has its own bucket
+        assertEquals(-1, governor.getRemaining("2", Category.CORE));
+        assertEquals(-1, governor.getRemaining("1", Category.SEARCH));
+    }
+
+    @Test
+    public void resourceFromHeaders() {
+        update("1", "search", 200, 30, 10);
+
+        assertEquals(10, governor.getRemaining("1", Category.SEARCH));
+        assertEquals(-1, governor.getRemaining("1", Category.CORE));
+    }
+
+    @Test
+    public void backgroundLeavesReserve() throws IOException {
+        update("1", "core", 200, 10, 3);
+
+        try (GitHubRequestGovernor.Scope background = GitHubRequestGovernor.background()) {
+            governor.acquire("1", Category.CORE);
+            assertThrows(IOException.class, () -> governor.acquire("1", Category.CORE));
+        }
+
+        // Interactive requests can use the reserve
+        governor.acquire("1", Category.CORE);
+        governor.acquire("1", Category.CORE);
+        assertThrows(IOException.class, () -> governor.acquire("1", Category.CORE));
+
+        assertEquals(0, governor.getRemaining("1", Category.CORE));
+    }
+
+    @Test
+    public void backgroundWaitsForInteractive() throws Exception {
+        governor.maxWait = Duration.ofSeconds(2);
+
+        // No tokens left until the limit is reset, after which there are only enough tokens for one background request.
+        // The waiting interactive request goes first, which leaves none for the background request.
+        update("1", "core", 200, 2, 0, Instant.now().plusMillis(500));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch interactiveWaiting = new CountDownLatch(1);
+            Future<?> interactive = executor.submit(() -> {
+                interactiveWaiting.countDown();
+                governor.acquire("1", Category.CORE);
+                return null;
+            });
+            interactiveWaiting.await();
+            Thread.sleep(100);
+
+            Future<?> background = executor.submit(() -> {
+                try (GitHubRequestGovernor.Scope scope = GitHubRequestGovernor.background()) {
+                    governor.acquire("1", Category.CORE);
+                    return null;
+                }
+            });
+
+            interactive.get(5, TimeUnit.SECONDS);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> background.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, e.getCause());
+            assertEquals(1, governor.getRemaining("1", Category.CORE));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void retryAfter() throws IOException {
+        GitHubConnector delegate = mock(GitHubConnector.class);
+        GitHubConnectorResponse response = mockResponse(403, Map.of("Retry-After", "60"));
+        when(delegate.send(any())).thenReturn(response);
+
+        GitHubConnector connector = governor.new GovernedConnector(delegate);
+        connector.send(mockRequest("/repos/myorg/myrepo/issues/1"));
+
+        // Secondary rate limits hold back all requests, even before the limit is known
+        assertThrows(IOException.class, () -> governor.acquire(GitHubRequestGovernor.UNKNOWN_INSTALLATION, Category.CORE));
+        assertEquals(1.0, meterRegistry.counter("bot.github.ratelimit.secondary", "installation", GitHubRequestGovernor.UNKNOWN_INSTALLATION).count());
+    }
+
+    @Test
+    public void installationFromToken() throws IOException {
+        governor.register(1234, "ghs_abc");
+
+        GitHubConnector delegate = mock(GitHubConnector.class);
+        GitHubConnectorResponse response = mockResponse(200, Map.of(
+                "X-RateLimit-Limit", "30",
+                "X-RateLimit-Remaining", "20",
+                "X-RateLimit-Reset", String.valueOf(Instant.now().plusSeconds(60).getEpochSecond()),
+                "X-RateLimit-Resource", "search"));
+        when(delegate.send(any())).thenReturn(response);
+
+        GitHubConnector connector = governor.new GovernedConnector(delegate);
+        GitHubConnectorRequest request = mockRequest("/search/issues");
+        when(request.header("Authorization")).thenReturn("token ghs_abc");
+        connector.send(request);
+
+        assertEquals(20, governor.getRemaining("1234", Category.SEARCH));
+        assertFalse(meterRegistry.get("bot.github.ratelimit.wait").tag("category", "search").timers().isEmpty());
+    }
+
+    @Test
+    public void webhookAndSweepShareInstallation() throws Exception {
+        // The sweep gets its client from GitHubInstallationProvider, which registers the token. The client for the
+        // webhook event is created by the extension with a newer token, which is resolved when it's first seen.
+        governor.register(1234, "ghs_sweep");
+        governor.setInstallationResolver(() -> governor.register(1234, "ghs_webhook"));
+
+        GitHubConnector delegate = mock(GitHubConnector.class);
+        GitHubConnectorResponse response = mockResponse(200, Map.of(
+                "X-RateLimit-Limit", "10",
+                "X-RateLimit-Remaining", "2",
+                "X-RateLimit-Reset", String.valueOf(Instant.now().plusSeconds(3600).getEpochSecond()),
+                "X-RateLimit-Resource", "core"));
+        when(delegate.send(any())).thenReturn(response);
+        GitHubConnector connector = governor.new GovernedConnector(delegate);
+
+        connector.send(mockRequest("/repos/myorg/myrepo/issues/1", "ghs_webhook"));
+        assertEquals(2, governor.getRemaining("1234", Category.CORE));
+        assertEquals(-1, governor.getRemaining(GitHubRequestGovernor.UNKNOWN_INSTALLATION, Category.CORE));
+
+        // The webhook used up the tokens the sweep may use, the rest is kept for webhooks
+        try (GitHubRequestGovernor.Scope background = GitHubRequestGovernor.background()) {
+            assertThrows(IOException.class, () -> connector.send(mockRequest("/repos/myorg/myrepo/issues/2", "ghs_sweep")));
+        }
+        connector.send(mockRequest("/repos/myorg/myrepo/issues/1", "ghs_webhook"));
+        assertEquals(1, governor.getRemaining("1234", Category.CORE));
+    }
+
+    @Test
+    public void unknownTokenResolvedOnce() throws IOException {
+        int[] resolved = new int[1];
+        governor.setInstallationResolver(() -> resolved[0]++);
+
+        GitHubConnector delegate = mock(GitHubConnector.class);
+        GitHubConnectorResponse response = mockResponse(200, Map.of());
+        when(delegate.send(any())).thenReturn(response);
+        GitHubConnector connector = governor.new GovernedConnector(delegate);
+
+        connector.send(mockRequest("/repos/myorg/myrepo/issues/1", "ghs_other"));
+        connector.send(mockRequest("/repos/myorg/myrepo/issues/1", "ghs_other"));
+        // Only installation tokens are resolved
+        connector.send(mockRequest("/app/installations", "eyJhbGciOi"));
+
+        assertEquals(1, resolved[0]);
+    }
+
+    private void update(String installation, String resource, int status, int limit, int remaining) {
+        update(installation, resource, status, limit, remaining, Instant.now().plus(Duration.ofHours(1)));
+    }
+
+    private void update(String installation, String resource, int status, int limit, int remaining, Instant reset) {
+        Map<String, String> headers = Map.of(
+                "X-RateLimit-Limit", String.valueOf(limit),
+                "X-RateLimit-Remaining", String.valueOf(remaining),
+                "X-RateLimit-Reset", String.valueOf(reset.getEpochSecond()),
+                "X-RateLimit-Resource", resource);
+        governor.update(installation, Category.CORE, status, headers::get);
+    }
+
+    private GitHubConnectorRequest mockRequest(String path) throws IOException {
+        GitHubConnectorRequest request = mock(GitHubConnectorRequest.class);
+        when(request.url()).thenReturn(new URL("https://api.github.com" + path));
+        return request;
+    }
+
+    private GitHubConnectorRequest mockRequest(String path, String token) throws IOException {
+        GitHubConnectorRequest request = mockRequest(path);
+        when(request.header("Authorization")).thenReturn("token " + token);
+        return request;
+    }
+
+    private GitHubConnectorResponse mockResponse(int status, Map<String, String> headers) {
+        GitHubConnectorResponse response = mock(GitHubConnectorResponse.class);
+        when(response.statusCode()).thenReturn(status);
+        when(response.header(anyString())).thenAnswer(i -> headers.get(i.<String>getArgument(0)));
+        return response;
+    }
+
+}
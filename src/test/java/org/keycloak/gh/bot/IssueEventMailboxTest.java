@@ -0,0 +1,116 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHIssue;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IssueEventMailboxTest {
+
+    private IssueEventMailbox mailbox;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void before() {
+        meterRegistry = new SimpleMeterRegistry();
+
+        mailbox = new IssueEventMailbox();
+        mailbox.debounce = Duration.ofMillis(200);
+        mailbox.threads = 2;
+        mailbox.meterRegistry = meterRegistry;
+        mailbox.init();
+    }
+
+    @AfterEach
+    public void after() {
+        mailbox.close();
+    }
+
+    @Test
+    public void orderedAndCoalesced() throws InterruptedException {
+        List<String> events = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+
+        GHIssue first = createIssue(1);
+        GHIssue last = createIssue(1);
+
+        mailbox.submit("myorg/myrepo", first, "a", i -> {
+            events.add("a1");
+            latch.countDown();
+        });
+        mailbox.submit("myorg/myrepo", first, "b", i -> {
+            events.add("b");
+            latch.countDown();
+        });
+        mailbox.submit("myorg/myrepo", last, "a", i -> {
+            assertSame(last, i);
+            events.add("a2");
+            latch.countDown();
+        });
+        mailbox.submit("myorg/myrepo", last, "c", i -> {
+            assertSame(last, i);
+            events.add("c");
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of("b", "a2", "c"), events);
+        assertEquals(1.0, meterRegistry.counter("bot.mailbox.coalesced").count());
+        assertEquals(4.0, meterRegistry.counter("bot.mailbox.submitted").count());
+    }
+
+    @Test
+    public void issuesInParallel() throws InterruptedException {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+
+        for (int number = 1; number <= 2; number++) {
+            mailbox.submit("myorg/myrepo", createIssue(number), "a", i -> {
+                bothStarted.countDown();
+                try {
+                    assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failureDoesNotBlockMailbox() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        mailbox.submit("myorg/myrepo", createIssue(1), "a", i -> {
+            throw new RuntimeException("Expected failure");
+        });
+        mailbox.submit("myorg/myrepo", createIssue(1), "b", i -> latch.countDown());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1.0, meterRegistry.counter("bot.mailbox.failed").count());
+    }
+
+    private GHIssue createIssue(int number) {
+        GHIssue issue = mock(GHIssue.class);
+        when(issue.getNumber()).thenReturn(number);
+        return issue;
+    }
+
+}
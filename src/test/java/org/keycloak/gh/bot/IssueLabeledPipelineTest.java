@@ -0,0 +1,214 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.gh.bot.labels.Action;
+import org.keycloak.gh.bot.utils.IssueUpdate;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHLabel;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GHUser;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IssueLabeledPipelineTest {
+
+    private IssueLabeledPipeline pipeline;
+    private BugActions bugActions;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void before() throws IOException {
+        bugActions = mock(BugActions.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        BugActionsOnLabel bugActionsOnLabel = new BugActionsOnLabel();
+        bugActionsOnLabel.bugActions = bugActions;
+
+        // Team mappings are fetched from GitHub, so the rule is replaced with a fixed mapping
+        AddTeamLabelToIssues addTeamLabelToIssues = mock(AddTeamLabelToIssues.class);
+        doAnswer(i -> {
+            if (i.getArgument(0).equals("area/admin/api")) {
+                i.getArgument(1, IssueLabeledPipeline.Plan.class).getUpdate().addLabels("team/rh-iam");
+            }
+            return null;
+        }).when(addTeamLabelToIssues).apply(anyString(), any());
+
+        pipeline = new IssueLabeledPipeline();
+        pipeline.gitHubRest = mock(GitHubRestClient.class);
+        pipeline.gitHubProvider = mock(GitHubInstallationProvider.class);
+        pipeline.mutationRegistry = new BotMutationRegistry();
+        pipeline.meterRegistry = meterRegistry;
+        pipeline.mailbox = mock(IssueEventMailbox.class);
+        pipeline.addTeamLabelToIssues = addTeamLabelToIssues;
+        pipeline.bumpPriorityForTeam = new BumpPriorityForTeam();
+        pipeline.updatedLabelsOnPriorityChange = new UpdatedLabelsOnPriorityChange();
+        pipeline.bugActionsOnLabel = bugActionsOnLabel;
+        pipeline.init();
+
+        when(pipeline.gitHubProvider.getBotLogin()).thenReturn("keycloak-github-bot[bot]");
+    }
+
+    @Test
+    public void teamLabelBumpsPriority() throws IOException {
+        GHIssue issue = createIssue("kind/bug", "priority/low", "status/auto-bump", "status/auto-expire", "help wanted", "area/admin/api");
+
+        pipeline.process(List.of("area/admin/api"), issue);
+
+        IssueUpdate update = verifyUpdated();
+        assertEquals(Set.of("kind/bug", "area/admin/api", "team/rh-iam", "priority/important"), update.getLabels());
+    }
+
+    @Test
+    public void priorityChange() throws IOException {
+        GHIssue issue = createIssue("kind/bug", "priority/low", "priority/blocker", "status/auto-bump");
+
+        pipeline.process(List.of("priority/blocker"), issue);
+
+        IssueUpdate update = verifyUpdated();
+        assertEquals(Set.of("kind/bug", "priority/blocker"), update.getLabels());
+    }
+
+    @Test
+    public void bugActionCompletedAfterUpdate() throws IOException {
+        GHIssue issue = createIssue("kind/bug", "action/question");
+        when(bugActions.planAction(eq(Action.QUESTION), any())).thenAnswer(i -> {
+            i.getArgument(1, IssueUpdate.class).removeLabels("action/question");
+            return true;
+        });
+
+        pipeline.process(List.of("action/question"), issue);
+
+        IssueUpdate update = verifyUpdated();
+        assertEquals(Set.of("kind/bug"), update.getLabels());
+        verify(bugActions).completeAction(Action.QUESTION, issue);
+    }
+
+    @Test
+    public void labelsInOneBatch() throws Exception {
+        IssueEventMailbox mailbox = new IssueEventMailbox();
+        mailbox.debounce = Duration.ofMillis(200);
+        mailbox.threads = 1;
+        mailbox.meterRegistry = meterRegistry;
+        mailbox.init();
+        pipeline.mailbox = mailbox;
+
+        CountDownLatch updated = new CountDownLatch(1);
+        doAnswer(i -> {
+            updated.countDown();
+            return null;
+        }).when(pipeline.gitHubRest).updateIssue(any());
+
+        when(bugActions.planAction(eq(Action.QUESTION), any())).thenAnswer(i -> {
+            i.getArgument(1, IssueUpdate.class).removeLabels("action/question");
+            return true;
+        });
+
+        GHIssue after;
+        try {
+            GHIssue before = createIssue("kind/bug", "area/admin/api");
+            after = createIssue("kind/bug", "area/admin/api", "action/question");
+            when(before.getNumber()).thenReturn(1234);
+            when(after.getNumber()).thenReturn(1234);
+
+            sendEvent(before, "area/admin/api", "someone");
+            sendEvent(after, "action/question", "someone");
+
+            assertTrue(updated.await(5, TimeUnit.SECONDS));
+            Thread.sleep(500);
+        } finally {
+            mailbox.close();
+        }
+
+        // A single update with the changes for both labels, against the labels from the last event
+        IssueUpdate update = verifyUpdated();
+        assertEquals(Set.of("kind/bug", "area/admin/api", "team/rh-iam", "priority/important"), update.getLabels());
+        verify(bugActions).completeAction(Action.QUESTION, after);
+    }
+
+    @Test
+    public void noChanges() throws IOException {
+        GHIssue issue = createIssue("kind/bug", "area/oidc");
+
+        pipeline.process(List.of("area/oidc"), issue);
+
+        verify(pipeline.gitHubRest, never()).updateIssue(any());
+    }
+
+    @Test
+    public void echoDropped() throws IOException {
+        GHIssue issue = createIssue("kind/bug", "priority/normal");
+        when(issue.getNumber()).thenReturn(1234);
+        when(issue.getApiURL()).thenReturn(new URL("https://api.github.com/repos/myorg/myrepo/issues/1234"));
+
+        pipeline.mutationRegistry.record(IssueUpdate.of(issue).addLabels("priority/important"));
+
+        // Only labels added by the bot are ignored
+        sendEvent(issue, "priority/important", "someone");
+        sendEvent(issue, "priority/important", "keycloak-github-bot[bot]");
+        sendEvent(issue, "priority/important", "keycloak-github-bot[bot]");
+
+        verify(pipeline.mailbox, times(2)).submit(eq("myorg/myrepo"), eq(issue), eq("labeled"), any());
+        assertEquals(1.0, meterRegistry.counter("bot.webhook.echo.dropped", "event", "issues.labeled").count());
+    }
+
+    private void sendEvent(GHIssue issue, String label, String sender) {
+        GHEventPayload.Issue payload = mock(GHEventPayload.Issue.class);
+        GHRepository repository = mock(GHRepository.class);
+        when(repository.getFullName()).thenReturn("myorg/myrepo");
+        when(payload.getRepository()).thenReturn(repository);
+        when(payload.getIssue()).thenReturn(issue);
+        GHLabel ghLabel = mock(GHLabel.class);
+        when(ghLabel.getName()).thenReturn(label);
+        when(payload.getLabel()).thenReturn(ghLabel);
+        GHUser user = mock(GHUser.class);
+        when(user.getLogin()).thenReturn(sender);
+        when(payload.getSender()).thenReturn(user);
+
+        pipeline.onLabeled(payload);
+    }
+
+    private IssueUpdate verifyUpdated() throws IOException {
+        ArgumentCaptor<IssueUpdate> captor = ArgumentCaptor.forClass(IssueUpdate.class);
+        verify(pipeline.gitHubRest, times(1)).updateIssue(captor.capture());
+        return captor.getValue();
+    }
+
+    private GHIssue createIssue(String... labels) {
+        GHIssue issue = mock(GHIssue.class);
+        when(issue.getState()).thenReturn(GHIssueState.OPEN);
+
+        List<GHLabel> ghLabels = Arrays.stream(labels).map(l -> {
+            GHLabel label = mock(GHLabel.class);
+            when(label.getName()).thenReturn(l);
+            return label;
+        }).toList();
+        when(issue.getLabels()).thenReturn(ghLabels);
+
+        return issue;
+    }
+
+}
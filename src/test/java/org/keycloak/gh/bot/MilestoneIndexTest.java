@@ -0,0 +1,146 @@
+package org.keycloak.gh.bot;
+
+import io.quarkiverse.githubapp.GitHubEvent;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHMilestone;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.PagedIterable;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.keycloak.gh.bot.BotTestUtils.pagedIterable;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MilestoneIndexTest {
+
+    private MilestoneIndex milestoneIndex;
+    private GHRepository repository;
+
+    @BeforeEach
+    public void before() {
+        milestoneIndex = new MilestoneIndex();
+        milestoneIndex.refresh = Duration.ofHours(6);
+        milestoneIndex.init();
+        repository = mock(GHRepository.class);
+
+        when(repository.getFullName()).thenReturn("myorg/myrepo");
+
+        mockListMilestones(createMilestone(1, "27.0.0"), createMilestone(2, "26.1.0"), createMilestone(3, "26.2.0"), createMilestone(4, "Backlog"));
+    }
+
+    @Test
+    public void nextMajorRelease() {
+        assertEquals("26.1.0", milestoneIndex.getNextMajorRelease(repository).title());
+        assertEquals("26.1.0", milestoneIndex.getNextMajorRelease(repository).title());
+
+        verify(repository, times(1)).listMilestones(GHIssueState.OPEN);
+    }
+
+    @Test
+    public void updatedFromEvents() throws IOException {
+        milestoneIndex.getNextMajorRelease(repository);
+
+        sendEvent("closed", 2, "26.1.0", "closed");
+        assertEquals("26.2.0", milestoneIndex.getNextMajorRelease(repository).title());
+
+        sendEvent("deleted", 3, "26.2.0", "open");
+        assertEquals("27.0.0", milestoneIndex.getNextMajorRelease(repository).title());
+
+        sendEvent("created", 5, "26.3.0", "open");
+        assertEquals("26.3.0", milestoneIndex.getNextMajorRelease(repository).title());
+        assertEquals(5, milestoneIndex.getNextMajorRelease(repository).number());
+
+        sendEvent("edited", 5, "Next", "open");
+        assertEquals("27.0.0", milestoneIndex.getNextMajorRelease(repository).title());
+
+        sendEvent("closed", 1, "27.0.0", "closed");
+        assertNull(milestoneIndex.getNextMajorRelease(repository));
+
+        verify(repository, times(1)).listMilestones(GHIssueState.OPEN);
+        verify(repository, never()).getMilestone(anyInt());
+    }
+
+    @Test
+    public void eventWhileLoading() throws Exception {
+        CountDownLatch listing = new CountDownLatch(1);
+        CountDownLatch event = new CountDownLatch(1);
+        PagedIterable<GHMilestone> milestones = repository.listMilestones(GHIssueState.OPEN);
+        when(repository.listMilestones(GHIssueState.OPEN)).thenAnswer(i -> {
+            listing.countDown();
+            event.await();
+            return milestones;
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<MilestoneIndex.Milestone> future = executor.submit(() -> milestoneIndex.getNextMajorRelease(repository));
+            listing.await();
+            // Listed as open, but closed while the milestones are listed
+            sendEvent("closed", 2, "26.1.0", "closed");
+            event.countDown();
+
+            assertEquals("26.2.0", future.get().title());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void refresh() {
+        milestoneIndex.refresh = Duration.ZERO;
+        milestoneIndex.init();
+
+        milestoneIndex.getNextMajorRelease(repository);
+        milestoneIndex.getNextMajorRelease(repository);
+
+        verify(repository, times(2)).listMilestones(GHIssueState.OPEN);
+    }
+
+    @Test
+    public void eventBeforeLoaded() {
+        sendEvent("closed", 2, "26.1.0", "closed");
+
+        assertEquals("26.1.0", milestoneIndex.getNextMajorRelease(repository).title());
+    }
+
+    private void sendEvent(String action, int number, String title, String state) {
+        GitHubEvent event = mock(GitHubEvent.class);
+        when(event.getRepositoryOrThrow()).thenReturn("myorg/myrepo");
+        when(event.getAction()).thenReturn(action);
+        when(event.getParsedPayload()).thenReturn(new JsonObject()
+                .put("action", action)
+                .put("milestone", new JsonObject().put("number", number).put("title", title).put("state", state))
+                .put("repository", new JsonObject().put("full_name", "myorg/myrepo")));
+
+        milestoneIndex.onMilestone(event);
+    }
+
+    private GHMilestone createMilestone(int number, String title) {
+        GHMilestone milestone = mock(GHMilestone.class);
+        when(milestone.getNumber()).thenReturn(number);
+        when(milestone.getTitle()).thenReturn(title);
+        return milestone;
+    }
+
+    private void mockListMilestones(GHMilestone... milestones) {
+        PagedIterable<GHMilestone> iterable = pagedIterable(List.of(milestones));
+        when(repository.listMilestones(GHIssueState.OPEN)).thenReturn(iterable);
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.keycloak.gh.bot.BotTestUtils.openStateStore;
+
+public class MissingInfoDeadlinesTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BotStateStore store;
+    private MissingInfoDeadlines deadlines;
+    private final BlockingQueue<String> expired = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    public void after() {
+        deadlines.close();
+        store.close();
+    }
+
+    @Test
+    public void expiredAtDeadline() throws Exception {
+        open();
+
+        long deadline = System.currentTimeMillis() + 200;
+        deadlines.schedule("myorg/myrepo#1", deadline);
+        deadlines.schedule("myorg/myrepo#2", System.currentTimeMillis() + 100);
+
+        assertEquals("myorg/myrepo#2", expired.poll(5, TimeUnit.SECONDS));
+        assertEquals("myorg/myrepo#1", expired.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() >= deadline);
+
+        waitForRemoved("myorg/myrepo#1");
+        assertEquals(0.0, deadlinesGauge());
+    }
+
+    @Test
+    public void cancelled() throws Exception {
+        open();
+
+        deadlines.schedule("myorg/myrepo#1", System.currentTimeMillis() + 100);
+        deadlines.cancel("myorg/myrepo#1");
+
+        assertNull(expired.poll(500, TimeUnit.MILLISECONDS));
+        assertNull(deadlines.getDeadline("myorg/myrepo#1"));
+    }
+
+    @Test
+    public void rescheduled() throws Exception {
+        open();
+
+        deadlines.schedule("myorg/myrepo#1", System.currentTimeMillis() + 100);
+        deadlines.scheduleIfAbsent("myorg/myrepo#1", System.currentTimeMillis() + 60000);
+
+        // A later deadline replaces the earlier one
+        deadlines.schedule("myorg/myrepo#2", System.currentTimeMillis() + 100);
+        deadlines.schedule("myorg/myrepo#2", System.currentTimeMillis() + 60000);
+
+        assertEquals("myorg/myrepo#1", expired.poll(5, TimeUnit.SECONDS));
+        assertNull(expired.poll(500, TimeUnit.MILLISECONDS));
+        assertNotNull(deadlines.getDeadline("myorg/myrepo#2"));
+    }
+
+    @Test
+    public void resumedAfterRestart() throws Exception {
+        open();
+        deadlines.setHandler(issue -> {
+            throw new IllegalStateException("Not expected");
+        });
+        deadlines.schedule("myorg/myrepo#1", System.currentTimeMillis() + 60000);
+        deadlines.schedule("myorg/myrepo#2", System.currentTimeMillis() - 1000);
+        deadlines.close();
+        store.close();
+
+        // Deadlines passed while the bot was down are expired straight away
+        open();
+        assertEquals("myorg/myrepo#2", expired.poll(5, TimeUnit.SECONDS));
+        assertNull(expired.poll(200, TimeUnit.MILLISECONDS));
+        assertNotNull(deadlines.getDeadline("myorg/myrepo#1"));
+    }
+
+    @Test
+    public void startedWithHandler() throws Exception {
+        open();
+        deadlines.schedule("myorg/myrepo#1", System.currentTimeMillis() + 60000);
+        deadlines.close();
+        store.close();
+
+        // Deadlines are not run until there is a handler, instead of failing and being tried again later
+        openWithoutHandler();
+        deadlines.schedule("myorg/myrepo#2", System.currentTimeMillis() - 1000);
+        assertNull(expired.poll(200, TimeUnit.MILLISECONDS));
+
+        deadlines.setHandler(expired::add);
+        assertEquals("myorg/myrepo#2", expired.poll(5, TimeUnit.SECONDS));
+        assertNull(expired.poll(200, TimeUnit.MILLISECONDS));
+        assertNotNull(deadlines.getDeadline("myorg/myrepo#1"));
+    }
+
+    @Test
+    public void keptOnFailure() throws Exception {
+        open();
+        deadlines.setHandler(issue -> {
+            expired.add(issue);
+            throw new IOException("Failed");
+        });
+
+        deadlines.schedule("myorg/myrepo#1", System.currentTimeMillis());
+
+        assertEquals("myorg/myrepo#1", expired.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertNotNull(deadlines.getDeadline("myorg/myrepo#1"));
+    }
+
+    private void open() throws IOException {
+        openWithoutHandler();
+        deadlines.setHandler(expired::add);
+    }
+
+    private void openWithoutHandler() throws IOException {
+        store = openStateStore(tempDir);
+
+        deadlines = new MissingInfoDeadlines();
+        deadlines.stateStore = store;
+        deadlines.meterRegistry = new SimpleMeterRegistry();
+        deadlines.init();
+    }
+
+    private double deadlinesGauge() {
+        return deadlines.meterRegistry.get("bot.missingInfo.deadlines").gauge().value();
+    }
+
+    private void waitForRemoved(String issue) throws InterruptedException {
+        for (int i = 0; i < 50 && deadlines.getDeadline(issue) != null; i++) {
+            Thread.sleep(100);
+        }
+        assertNull(deadlines.getDeadline(issue));
+    }
+
+}
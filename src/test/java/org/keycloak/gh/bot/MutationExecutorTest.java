@@ -0,0 +1,114 @@
+package org.keycloak.gh.bot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MutationExecutorTest {
+
+    private MutationExecutor executor;
+
+    @BeforeEach
+    public void before() {
+        executor = new MutationExecutor();
+        executor.concurrency = 4;
+        executor.init();
+    }
+
+    @AfterEach
+    public void after() {
+        executor.close();
+    }
+
+    @Test
+    public void orderedPerIssue() throws IOException {
+        List<String> calls = Collections.synchronizedList(new LinkedList<>());
+
+        MutationExecutor.Run run = executor.start("test");
+        for (int i = 0; i < 20; i++) {
+            String key = "myorg/myrepo#" + i;
+            run.submit(key, () -> {
+                sleep(10);
+                calls.add(key + ":comment");
+            });
+            run.submit(key, () -> calls.add(key + ":update"));
+        }
+        MutationExecutor.Report report = run.await();
+
+        assertEquals(20, report.getSucceeded().size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(calls.indexOf("myorg/myrepo#" + i + ":comment") < calls.indexOf("myorg/myrepo#" + i + ":update"));
+        }
+    }
+
+    @Test
+    public void concurrencyLimited() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        MutationExecutor.Run run = executor.start("test");
+        for (int i = 0; i < 20; i++) {
+            run.submit("myorg/myrepo#" + i, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(20);
+                running.decrementAndGet();
+            });
+        }
+        run.await();
+
+        assertEquals(4, maxRunning.get());
+    }
+
+    @Test
+    public void failuresReported() throws IOException {
+        List<String> calls = Collections.synchronizedList(new LinkedList<>());
+
+        MutationExecutor.Run run = executor.start("test");
+        run.submit("myorg/myrepo#1", () -> {
+            throw new IOException("Expected failure");
+        });
+        run.submit("myorg/myrepo#1", () -> calls.add("myorg/myrepo#1"));
+        run.submit("myorg/myrepo#2", () -> calls.add("myorg/myrepo#2"));
+        MutationExecutor.Report report = run.await();
+
+        // Later changes for a failed issue are skipped
+        assertEquals(List.of("myorg/myrepo#2"), calls);
+        assertEquals(List.of("myorg/myrepo#2"), report.getSucceeded());
+        assertEquals(Set.of("myorg/myrepo#1"), report.getFailures().keySet());
+        assertEquals("Expected failure", report.getFailures().get("myorg/myrepo#1").getMessage());
+    }
+
+    @Test
+    public void priorityPropagated() throws IOException {
+        List<GitHubRequestGovernor.Priority> priorities = Collections.synchronizedList(new LinkedList<>());
+
+        MutationExecutor.Run run = executor.start("test");
+        try (GitHubRequestGovernor.Scope scope = GitHubRequestGovernor.background()) {
+            run.submit("myorg/myrepo#1", () -> priorities.add(GitHubRequestGovernor.getPriority()));
+        }
+        run.submit("myorg/myrepo#2", () -> priorities.add(GitHubRequestGovernor.getPriority()));
+        run.await();
+
+        assertTrue(priorities.contains(GitHubRequestGovernor.Priority.BACKGROUND));
+        assertTrue(priorities.contains(GitHubRequestGovernor.Priority.INTERACTIVE));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
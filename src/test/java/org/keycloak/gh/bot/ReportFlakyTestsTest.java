@@ -1,18 +1,38 @@
 package org.keycloak.gh.bot;
 
+import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Answers;
 import org.keycloak.gh.bot.utils.FlakyJob;
 import org.keycloak.gh.bot.utils.FlakyJobParser;
 import org.keycloak.gh.bot.utils.FlakyTest;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHPullRequestReview;
+import org.kohsuke.github.GHPullRequestReviewBuilder;
+import org.kohsuke.github.GHWorkflow;
+import org.kohsuke.github.GHWorkflowRun;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.PagedIterable;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
@@ -20,9 +40,29 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.keycloak.gh.bot.BotTestUtils.openStateStore;
+import static org.keycloak.gh.bot.BotTestUtils.pagedIterable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 public class ReportFlakyTestsTest {
 
+    @TempDir
+    Path tempDir;
+
     @Test
     public void pullRequestReviewBody() throws IOException {
         ReportFlakyTests reportFlakyTests = new ReportFlakyTests();
@@ -38,14 +78,20 @@ public class ReportFlakyTestsTest {
 
         String expectedBody = new String(ReportFlakyTestsTest.class.getResourceAsStream("flaky-test-pull-request-body").readAllBytes(), StandardCharsets.UTF_8);
 
-        assertEquals(expectedBody, reportFlakyTests.getPullRequestReviewBody(Collections.singletonList(flakyTest), new URL("https://github.com/stianst/playground")));
+        assertEquals(expectedBody, reportFlakyTests.getPullRequestReviewBody(List.of(reportFlakyTests.getPullRequestReviewSection(flakyTest, new URL("https://github.com/stianst/playground")))));
     }
 
     @Test
-    void parseFlakySurefireReports() {
+    void parseFlakySurefireReports() throws IOException {
         // Parse reports from zip file
-        InputStream surefireReportsStream = ReportFlakyTestsTest.class.getResourceAsStream("flaky-test-surefire-reports/flaky-test-surefire-reports.zip");
-        FlakyJob flakyJob = FlakyJobParser.parse(surefireReportsStream);
+        Path file = tempDir.resolve("flaky-test-surefire-reports.zip");
+        try (InputStream surefireReportsStream = ReportFlakyTestsTest.class.getResourceAsStream("flaky-test-surefire-reports/flaky-test-surefire-reports.zip")) {
+            Files.copy(surefireReportsStream, file);
+        }
+        FlakyJob flakyJob;
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            flakyJob = FlakyJobParser.parse(zipFile, ForkJoinPool.commonPool());
+        }
 
         // Assert values from job-summary.properties file
         assertThat(flakyJob.getWorkflow(), nullValue());
@@ -70,4 +116,163 @@ public class ReportFlakyTestsTest {
         assertThat(flakyTests.get(1).getFailures().get(0), containsString("at org.junit.Assert.fail(Assert.java:87)"));
 
     }
+
+    @Test
+    public void deleteBotPullRequestReview() throws IOException {
+        ReportFlakyTests reportFlakyTests = createReportFlakyTests();
+        GHPullRequest pullRequest = BotPullRequestRegistryTest.mockPullRequest(123);
+        PagedIterable<GHPullRequestReview> reviews = pagedIterable(List.of());
+        PagedIterable<GHIssueComment> comments = pagedIterable(List.of(createComment(10, "keycloak-bot[bot]", "Bot"), createComment(11, "stianst", "User")));
+        when(pullRequest.listReviews()).thenReturn(reviews);
+        when(pullRequest.listComments()).thenReturn(comments);
+
+        // Listed the first time
+        assertFalse(reportFlakyTests.deleteBotPullRequestReview(pullRequest, true));
+        verify(reportFlakyTests.gitHubRest).deleteIssueComment(pullRequest, 10);
+        verify(pullRequest).listReviews();
+        verify(pullRequest).listComments();
+
+        // Then taken from the registry
+        reportFlakyTests.botPullRequestRegistry.addReview(pullRequest, 1);
+        reportFlakyTests.botPullRequestRegistry.addComment(pullRequest, 12);
+        assertTrue(reportFlakyTests.deleteBotPullRequestReview(pullRequest, true));
+        verify(reportFlakyTests.gitHubRest).dismissPullRequestReview(pullRequest, 1, "Flaky tests resolved or reported");
+        verify(reportFlakyTests.gitHubRest).deleteIssueComment(pullRequest, 12);
+        verify(pullRequest).listReviews();
+        verify(pullRequest).listComments();
+        verifyNoMoreInteractions(reportFlakyTests.gitHubRest);
+    }
+
+    @Test
+    public void createPullRequestReview() throws IOException {
+        ReportFlakyTests reportFlakyTests = createReportFlakyTests();
+        GHPullRequest pullRequest = BotPullRequestRegistryTest.mockPullRequest(123);
+        PagedIterable<GHPullRequestReview> reviews = pagedIterable(List.of());
+        PagedIterable<GHIssueComment> comments = pagedIterable(List.of());
+        when(pullRequest.listReviews()).thenReturn(reviews);
+        when(pullRequest.listComments()).thenReturn(comments);
+
+        GHPullRequestReviewBuilder reviewBuilder = mock(GHPullRequestReviewBuilder.class, Answers.RETURNS_SELF);
+        when(pullRequest.createReview()).thenReturn(reviewBuilder);
+        GHPullRequestReview review = createReview(1, "keycloak-bot[bot]", "Bot");
+        GHIssueComment first = createComment(10, "keycloak-bot[bot]", "Bot");
+        GHIssueComment second = createComment(11, "keycloak-bot[bot]", "Bot");
+        when(reviewBuilder.create()).thenReturn(review);
+        when(pullRequest.comment(anyString())).thenReturn(first, second);
+
+        reportFlakyTests.createPullRequestReview(List.of("### my.package.MyClass#myTest\n"), pullRequest);
+        assertEquals(new BotPullRequestRegistry.BotEntries(Set.of(1L), Set.of(10L)), reportFlakyTests.botPullRequestRegistry.get(pullRequest));
+
+        // The review is kept, and the comment replaced without listing the reviews and comments again
+        reportFlakyTests.createPullRequestReview(List.of("### my.package.MyClass#myTest\n"), pullRequest);
+        verify(reportFlakyTests.gitHubRest).deleteIssueComment(pullRequest, 10);
+        verify(pullRequest, times(1)).createReview();
+        verify(pullRequest, times(1)).listReviews();
+        assertEquals(new BotPullRequestRegistry.BotEntries(Set.of(1L), Set.of(11L)), reportFlakyTests.botPullRequestRegistry.get(pullRequest));
+    }
+
+    @Test
+    public void pullRequestReviewFromAllAttempts() throws IOException {
+        ReportFlakyTests reportFlakyTests = spy(createReportFlakyTests());
+        reportFlakyTests.digestEnabled = true;
+        reportFlakyTests.flakyTestDigest = mock(FlakyTestDigest.class);
+        reportFlakyTests.flakyTestHistory = mock(FlakyTestHistory.class);
+        reportFlakyTests.flakyTestIssueIndex = mock(FlakyTestIssueIndex.class);
+        when(reportFlakyTests.flakyTestIssueIndex.find(any(), anyString())).thenReturn(null);
+
+        GHWorkflowRun workflowRun = createWorkflowRun(1, "pull_request");
+        doReturn(mock(GHIssue.class)).when(reportFlakyTests).findIssue(any(), argThat(t -> t.getClassName().equals("org.keycloak.SecondTest")));
+
+        GHPullRequest pullRequest = BotPullRequestRegistryTest.mockPullRequest(123);
+        PagedIterable<GHPullRequestReview> reviews = pagedIterable(List.of());
+        PagedIterable<GHIssueComment> comments = pagedIterable(List.of());
+        when(pullRequest.listReviews()).thenReturn(reviews);
+        when(pullRequest.listComments()).thenReturn(comments);
+        GHPullRequestReviewBuilder reviewBuilder = mock(GHPullRequestReviewBuilder.class, Answers.RETURNS_SELF);
+        when(pullRequest.createReview()).thenReturn(reviewBuilder);
+        GHPullRequestReview review = createReview(1, "keycloak-bot[bot]", "Bot");
+        when(reviewBuilder.create()).thenReturn(review);
+        when(pullRequest.comment(anyString())).thenReturn(createComment(10, "keycloak-bot[bot]", "Bot"), createComment(11, "keycloak-bot[bot]", "Bot"));
+
+        GHWorkflow workflow = mock(GHWorkflow.class, Answers.RETURNS_DEEP_STUBS);
+        when(workflow.getRepository().getPullRequest(123)).thenReturn(pullRequest);
+
+        Map<String, List<String>> unreportedTests = new LinkedHashMap<>();
+
+        // Attempt 1 finds a test without an issue
+        FlakyJob first = createFlakyJob("org.keycloak.FirstTest");
+        reportFlakyTests.report(workflow, workflowRun, List.of(first), unreportedTests);
+        verify(pullRequest).comment(argThat((String body) -> body.contains("org.keycloak.FirstTest#test")));
+
+        // Attempt 2 only finds a reported test, the review keeps the test of attempt 1
+        FlakyJob second = createFlakyJob("org.keycloak.SecondTest");
+        reportFlakyTests.report(workflow, workflowRun, List.of(second), unreportedTests);
+        verify(pullRequest, times(2)).comment(argThat((String body) -> body.contains("org.keycloak.FirstTest#test") && !body.contains("SecondTest")));
+        verify(reportFlakyTests.gitHubRest, never()).dismissPullRequestReview(any(), anyLong(), anyString());
+
+        // Attempt 3 after the test of attempt 1 has been reported
+        when(reportFlakyTests.flakyTestIssueIndex.find(any(), eq("Flaky test: org.keycloak.FirstTest#test"))).thenReturn(1);
+        reportFlakyTests.report(workflow, workflowRun, List.of(second), unreportedTests);
+        verify(reportFlakyTests.gitHubRest).dismissPullRequestReview(pullRequest, 1, "Flaky tests resolved or reported");
+        verify(pullRequest, times(2)).comment(anyString());
+        assertTrue(unreportedTests.isEmpty());
+    }
+
+    private GHWorkflowRun createWorkflowRun(long id, String event) throws IOException {
+        // getId can't be mocked or spied, see createReview
+        JsonObject json = new JsonObject()
+                .put("action", "completed")
+                .put("workflow", new JsonObject().put("id", 1).put("name", "Keycloak CI"))
+                .put("workflow_run", new JsonObject()
+                        .put("id", id)
+                        .put("run_attempt", 1)
+                        .put("event", event)
+                        .put("html_url", "https://github.com/keycloak/keycloak/actions/runs/" + id))
+                .put("repository", new JsonObject().put("id", 1).put("full_name", "keycloak/keycloak").put("html_url", "https://github.com/keycloak/keycloak"));
+        return GitHub.offline().parseEventPayload(new StringReader(json.encode()), GHEventPayload.WorkflowRun.class).getWorkflowRun();
+    }
+
+    private FlakyJob createFlakyJob(String className) {
+        FlakyJob flakyJob = new FlakyJob();
+        flakyJob.setWorkflow("Keycloak CI");
+        flakyJob.setJobName("Base IT (1)");
+        flakyJob.setPr("123");
+        FlakyTest flakyTest = new FlakyTest(flakyJob, className, "test");
+        flakyTest.addFailure("Failure");
+        flakyJob.addFlakyTest(flakyTest);
+        return flakyJob;
+    }
+
+    private ReportFlakyTests createReportFlakyTests() throws IOException {
+        BotStateStore store = openStateStore();
+
+        ReportFlakyTests reportFlakyTests = new ReportFlakyTests();
+        reportFlakyTests.botPullRequestRegistry = new BotPullRequestRegistry();
+        reportFlakyTests.botPullRequestRegistry.stateStore = store;
+        reportFlakyTests.botPullRequestRegistry.init();
+        reportFlakyTests.gitHubRest = mock(GitHubRestClient.class);
+        return reportFlakyTests;
+    }
+
+    private GHPullRequestReview createReview(long id, String login, String type) throws IOException {
+        // getId has bridge methods with other return types, which prevents mocking it, so the review is parsed from a
+        // webhook payload instead
+        JsonObject json = new JsonObject()
+                .put("action", "submitted")
+                .put("review", new JsonObject()
+                        .put("id", id)
+                        .put("user", new JsonObject().put("login", login).put("type", type)))
+                .put("pull_request", new JsonObject().put("number", 123));
+        return GitHub.offline().parseEventPayload(new StringReader(json.encode()), GHEventPayload.PullRequestReview.class).getReview();
+    }
+
+    private GHIssueComment createComment(long id, String login, String type) throws IOException {
+        JsonObject json = new JsonObject()
+                .put("action", "created")
+                .put("comment", new JsonObject()
+                        .put("id", id)
+                        .put("user", new JsonObject().put("login", login).put("type", type)));
+        return GitHub.offline().parseEventPayload(new StringReader(json.encode()), GHEventPayload.IssueComment.class).getComment();
+    }
+
 }
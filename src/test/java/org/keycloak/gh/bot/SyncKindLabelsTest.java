@@ -2,19 +2,25 @@ package org.keycloak.gh.bot;
 
 import io.quarkiverse.githubapp.GitHubEvent;
 import io.vertx.core.json.JsonObject;
-import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.keycloak.gh.bot.utils.IssueUpdate;
 import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHLabel;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GitHub;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 public class SyncKindLabelsTest {
@@ -24,6 +30,7 @@ public class SyncKindLabelsTest {
     private GHRepository repository;
     private GitHubEvent event;
     private GHIssue issue;
+    private GitHubRestClient gitHubRest;
 
     private void runEvent(boolean typed, String payloadResource) throws IOException {
         payload = new JsonObject(getResource(payloadResource));
@@ -32,6 +39,16 @@ public class SyncKindLabelsTest {
         event = mock(GitHubEvent.class);
         repository = mock(GHRepository.class);
         issue = mock(GHIssue.class);
+        gitHubRest = mock(GitHubRestClient.class);
+
+        List<GHLabel> labels = payload.getJsonObject("issue").getJsonArray("labels").stream()
+                .map(o -> ((JsonObject) o).getString("name"))
+                .map(name -> {
+                    GHLabel label = mock(GHLabel.class);
+                    when(label.getName()).thenReturn(name);
+                    return label;
+                }).toList();
+        when(issue.getLabels()).thenReturn(labels);
 
         when(event.getParsedPayload()).thenReturn(payload);
         when(event.getRepositoryOrThrow()).thenReturn("myorg/myrep");
@@ -39,6 +56,7 @@ public class SyncKindLabelsTest {
         when(repository.getIssue(1234)).thenReturn(issue);
 
         SyncKindLabels syncKindLabels = new SyncKindLabels();
+        syncKindLabels.gitHubRest = gitHubRest;
         if (typed) {
             syncKindLabels.onTyped(event, gitHub);
         } else {
@@ -46,44 +64,51 @@ public class SyncKindLabelsTest {
         }
     }
 
-    @AfterEach
-    public void after() {
-        verifyNoMoreInteractions(issue);
-    }
-
     @Test
     public void testTypedLabelMissing() throws IOException {
         runEvent(true, "typed-label-missing.json");
-        verify(issue).addLabels("kind/cve");
+        verifyUpdated(Set.of("kind/cve"), Set.of());
     }
 
     @Test
     public void testTypedLabelMissingHasAnother() throws IOException {
         runEvent(true, "typed-label-missing-has-another.json");
-        verify(issue).addLabels("kind/cve");
-        verify(issue).removeLabels("kind/bug");
+        verifyUpdated(Set.of("kind/cve"), Set.of("kind/bug"));
     }
 
     @Test
     public void testTypedLabelMatches() throws IOException {
         runEvent(true, "typed-label-matches.json");
+        verifyNotUpdated();
     }
 
     @Test
     public void testTypedLabelMatchesHasAnother() throws IOException {
         runEvent(true, "typed-label-matches-has-another.json");
-        verify(issue).removeLabels("kind/bug");
+        verifyUpdated(Set.of(), Set.of("kind/bug"));
     }
 
     @Test
     public void testUntypedWithLabels() throws IOException {
         runEvent(false,"untyped-with-labels.json");
-        verify(issue).removeLabels("kind/bug", "kind/cve");
+        verifyUpdated(Set.of(), Set.of("kind/bug", "kind/cve"));
     }
 
     @Test
     public void testUntypedWithoutLabels() throws IOException {
         runEvent(false,"untyped-without-labels.json");
+        verifyNotUpdated();
+    }
+
+    private void verifyUpdated(Set<String> added, Set<String> removed) throws IOException {
+        ArgumentCaptor<IssueUpdate> captor = ArgumentCaptor.forClass(IssueUpdate.class);
+        verify(gitHubRest).updateIssue(captor.capture());
+        assertEquals(added, captor.getValue().getAddedLabels());
+        assertEquals(removed, captor.getValue().getRemovedLabels());
+    }
+
+    private void verifyNotUpdated() throws IOException {
+        verify(gitHubRest, never()).updateIssue(any());
     }
 
     private String getResource(String name) throws IOException {
@@ -0,0 +1,611 @@
+package org.keycloak.gh.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.smallrye.graphql.client.Response;
+import io.smallrye.graphql.client.dynamic.api.DynamicGraphQLClient;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jakarta.json.Json;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.gh.bot.utils.IssueUpdate;
+import org.kohsuke.github.GHEventPayload;
+import org.kohsuke.github.GHException;
+import org.kohsuke.github.GHIssue;
+import org.kohsuke.github.GHIssueComment;
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHLabel;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.PagedIterable;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.keycloak.gh.bot.BotTestUtils.openStateStore;
+import static org.keycloak.gh.bot.BotTestUtils.pagedIterable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TriageSweepTest {
+
+    private static final String BOT = "keycloak-github-bot[bot]";
+
+    private TriageSweep sweep;
+    private GHRepository repository;
+    private GraphQLStandIn graphQL;
+    private SimpleMeterRegistry meterRegistry;
+    private MutationExecutor mutationExecutor;
+    private RepositoryConfig repositoryConfig;
+    private GitHub gitHub;
+    private MissingInfoDeadlines missingInfoDeadlines;
+
+    @AfterEach
+    public void after() {
+        mutationExecutor.close();
+        sweep.close();
+        missingInfoDeadlines.close();
+    }
+
+    @BeforeEach
+    public void before() throws IOException {
+        repository = mock(GHRepository.class);
+        when(repository.getFullName()).thenReturn("myorg/myrepo");
+
+        gitHub = mock(GitHub.class);
+        when(gitHub.getRepository("myorg/myrepo")).thenReturn(repository);
+
+        graphQL = new GraphQLStandIn();
+
+        GitHubInstallationProvider gitHubProvider = mock(GitHubInstallationProvider.class);
+        when(gitHubProvider.getBotLogin()).thenReturn(BOT);
+        when(gitHubProvider.getGitHubClient("myorg/myrepo")).thenReturn(gitHub);
+        when(gitHubProvider.getGraphQLClient("myorg/myrepo")).thenReturn(graphQL.client);
+
+        BotStateStore stateStore = openStateStore();
+
+        BotCommentLedger botCommentLedger = new BotCommentLedger();
+        botCommentLedger.gitHubProvider = gitHubProvider;
+
+        BugActionMessages messages = new BugActionMessages();
+
+        repositoryConfig = new RepositoryConfig();
+        repositoryConfig.config = new SmallRyeConfigBuilder().build();
+
+        meterRegistry = new SimpleMeterRegistry();
+
+        GitHubRequestGovernor governor = new GitHubRequestGovernor();
+        governor.maxWait = Duration.ofSeconds(1);
+        governor.meterRegistry = meterRegistry;
+
+        IssueSnapshotQuery issueSnapshotQuery = new IssueSnapshotQuery();
+        issueSnapshotQuery.gitHubProvider = gitHubProvider;
+        issueSnapshotQuery.governor = governor;
+
+        BugActionScheduleAutoBump autoBump = new BugActionScheduleAutoBump();
+        autoBump.bumpLowReactions = 5;
+        autoBump.bumpNormalReactions = 10;
+        autoBump.repositoryConfig = repositoryConfig;
+
+        missingInfoDeadlines = new MissingInfoDeadlines();
+        missingInfoDeadlines.stateStore = stateStore;
+        missingInfoDeadlines.meterRegistry = meterRegistry;
+        missingInfoDeadlines.init();
+
+        BugActionScheduleExpireMissingInfo expireMissingInfo = new BugActionScheduleExpireMissingInfo();
+        expireMissingInfo.expirationUnit = TimeUnit.DAYS;
+        expireMissingInfo.expirationValue = 14;
+        expireMissingInfo.stateStore = stateStore;
+        expireMissingInfo.messages = messages;
+        expireMissingInfo.botCommentLedger = botCommentLedger;
+        expireMissingInfo.repositoryConfig = repositoryConfig;
+        expireMissingInfo.deadlines = missingInfoDeadlines;
+        expireMissingInfo.init();
+
+        BugActionScheduleAutoExpire autoExpire = new BugActionScheduleAutoExpire();
+        autoExpire.lowPriorityExpiresDays = 90;
+        autoExpire.normalPriorityExpiresDays = 180;
+        autoExpire.messages = messages;
+        autoExpire.repositoryConfig = repositoryConfig;
+
+
+        mutationExecutor = new MutationExecutor();
+        mutationExecutor.concurrency = 4;
+        mutationExecutor.init();
+
+        sweep = new TriageSweep();
+        sweep.repositories = List.of("myorg/myrepo");
+        sweep.repositoryConcurrency = 2;
+        sweep.gitHubProvider = gitHubProvider;
+        sweep.issueSnapshotQuery = issueSnapshotQuery;
+        sweep.gitHubRest = mock(GitHubRestClient.class);
+        sweep.botCommentLedger = botCommentLedger;
+        sweep.mutationExecutor = mutationExecutor;
+        sweep.meterRegistry = meterRegistry;
+        sweep.reconcileInterval = Duration.ofHours(6);
+        sweep.autoBump = autoBump;
+        sweep.expireMissingInfo = expireMissingInfo;
+        sweep.autoExpire = autoExpire;
+        sweep.missingInfoDeadlines = missingInfoDeadlines;
+        sweep.init();
+    }
+
+    @Test
+    public void apiCalls() throws IOException {
+        for (int i = 1; i <= 250; i++) {
+            addIssue(i, 0, daysAgo(1), 5, daysAgo(1), "kind/bug", "priority/low", "status/auto-expire");
+        }
+
+        sweep.sweep();
+
+        // Before the sweep the three jobs ran 5 searches, and listed the comments of each missing-info issue. Now 250
+        // issues are fetched with 3 requests, and nothing else is requested if no rules apply.
+        assertEquals(3, graphQL.requests.get());
+        verify(repository, never()).getIssue(any(Integer.class));
+        verify(sweep.gitHubRest, never()).updateIssue(any());
+    }
+
+    @Test
+    public void bumpedOnce() throws IOException {
+        addIssue(1, 20, daysAgo(1), 0, null, "kind/bug", "priority/low", "status/auto-expire", "status/auto-bump");
+        addIssue(2, 20, daysAgo(1), 0, null, "kind/bug", "priority/normal", "status/auto-expire", "status/auto-bump");
+
+        sweep.sweep();
+
+        List<IssueUpdate> updates = verifyUpdates(2);
+
+        // A low priority issue with enough reactions for both levels is only bumped to normal
+        assertEquals(Set.of("kind/bug", "priority/normal", "status/auto-expire", "status/auto-bump", "status/bumped-by-bot"), updates.get(0).getLabels());
+        assertEquals(Set.of("kind/bug", "priority/important", "status/bumped-by-bot"), updates.get(1).getLabels());
+
+        assertEquals(2.0, meterRegistry.counter("bot.triage.rule.hits", "rule", "autoBump").count());
+        assertEquals(0.0, meterRegistry.counter("bot.triage.rule.hits", "rule", "autoExpire").count());
+    }
+
+    @Test
+    public void autoExpired() throws IOException {
+        GHIssue low = addIssue(1, 0, daysAgo(100), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+        // Normal priority bugs expire after the low priority days too
+        GHIssue normal = addIssue(2, 0, daysAgo(100), 0, null, "kind/bug", "priority/normal", "status/auto-expire");
+        // Bumped issues are not expired
+        addIssue(3, 6, daysAgo(100), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+        addIssue(4, 0, daysAgo(80), 0, null, "kind/bug", "priority/normal", "status/auto-expire");
+
+        sweep.sweep();
+
+        List<IssueUpdate> updates = verifyUpdates(3);
+
+        assertEquals(low, updates.get(0).getIssue());
+        assertEquals(GHIssueState.CLOSED, updates.get(0).getState());
+        assertEquals(Set.of("kind/bug", "priority/low", "status/auto-expire", "status/expired-by-bot"), updates.get(0).getLabels());
+        verify(low, times(1)).comment(contains("180 days"));
+
+        assertEquals(normal, updates.get(1).getIssue());
+        assertEquals(GHIssueState.CLOSED, updates.get(1).getState());
+        verify(normal, times(1)).comment(contains("180 days"));
+
+        assertEquals(Set.of("kind/bug", "priority/normal", "status/auto-expire", "status/bumped-by-bot"), updates.get(2).getLabels());
+        assertEquals(null, updates.get(2).getState());
+    }
+
+    @Test
+    public void missingInfoExpired() throws IOException {
+        GHIssue expired = addIssue(1, 0, daysAgo(20), 3, daysAgo(20), "kind/bug", "status/missing-information", "status/auto-expire");
+        addIssue(2, 0, daysAgo(2), 3, daysAgo(2), "kind/bug", "status/missing-information", "status/auto-expire");
+
+        sweep.sweep();
+
+        List<IssueUpdate> updates = verifyUpdates(1);
+
+        assertEquals(expired, updates.get(0).getIssue());
+        assertEquals(GHIssueState.CLOSED, updates.get(0).getState());
+        assertEquals(Set.of("kind/bug", "status/auto-expire", "status/expired-by-bot"), updates.get(0).getLabels());
+        verify(expired, times(1)).comment(anyString());
+        verify(repository, never()).getIssue(2);
+
+        // Issues that haven't expired yet are expired at their deadline
+        assertNull(missingInfoDeadlines.getDeadline("myorg/myrepo#1"));
+        long deadline = missingInfoDeadlines.getDeadline("myorg/myrepo#2");
+        assertTrue(Math.abs(deadline - daysAgo(2).plus(14, ChronoUnit.DAYS).toEpochMilli()) < 5000);
+    }
+
+    @Test
+    public void missingInfoDeadlineReached() throws IOException {
+        addIssue(1, 0, daysAgo(20), 3, daysAgo(20), "kind/bug", "status/missing-information", "status/auto-expire");
+        addIssue(2, 0, daysAgo(2), 3, daysAgo(2), "kind/bug", "status/missing-information", "status/auto-expire");
+        GHIssue closed = addIssue(3, 0, daysAgo(20), 3, daysAgo(20), "kind/bug", "status/missing-information", "status/auto-expire");
+        when(closed.getState()).thenReturn(GHIssueState.CLOSED);
+
+        sweep.expireMissingInfo("myorg/myrepo#1");
+        sweep.expireMissingInfo("myorg/myrepo#2");
+        sweep.expireMissingInfo("myorg/myrepo#3");
+
+        // Only the issue that is open and past its deadline is expired
+        List<IssueUpdate> updates = verifyUpdates(1);
+        assertEquals(1, updates.get(0).getIssue().getNumber());
+        assertEquals(GHIssueState.CLOSED, updates.get(0).getState());
+        assertEquals(1.0, meterRegistry.counter("bot.missingInfo.deadline.expired").count());
+    }
+
+    @Test
+    public void botCommentNotInLatestComments() throws IOException {
+        // The bot comment is the first of 30 comments, and only the latest 20 are returned by the query
+        graphQL.botCommentIndex = 0;
+        GHIssue expired = addIssue(1, 0, daysAgo(1), 30, daysAgo(20), "kind/bug", "status/missing-information", "status/auto-expire");
+
+        sweep.sweep();
+
+        verify(expired).listComments();
+        assertEquals(GHIssueState.CLOSED, verifyUpdates(1).get(0).getState());
+    }
+
+    @Test
+    public void evaluationFailureReported() throws IOException {
+        graphQL.botCommentIndex = 0;
+        GHIssue failing = addIssue(1, 0, daysAgo(1), 30, daysAgo(20), "kind/bug", "status/missing-information", "status/auto-expire");
+        GHIssue expired = addIssue(2, 0, daysAgo(1), 30, daysAgo(20), "kind/bug", "status/missing-information", "status/auto-expire");
+        when(failing.listComments()).thenThrow(new GHException("Expected failure", new IOException("Expected failure")));
+
+        sweep.sweep();
+
+        // Listing the comments of one issue failed, the other issues are still evaluated and updated
+        assertEquals(expired, verifyUpdates(1).get(0).getIssue());
+        assertEquals(1.0, meterRegistry.counter("bot.triage.failed").count());
+
+        // The failed issue is evaluated again in the next run
+        graphQL.get(2).open = false;
+        graphQL.get(2).updatedAt = Instant.now();
+        sweep.sweep();
+
+        verify(failing, times(2)).listComments();
+        assertEquals(2.0, meterRegistry.counter("bot.triage.failed").count());
+    }
+
+    @Test
+    public void searchBeyondLimit() throws IOException {
+        for (int i = 1; i <= 2500; i++) {
+            graphQL.issues.add(new IssueSpec("myorg/myrepo", i, new String[] { "kind/bug", "status/auto-expire" }, 0, daysAgo(1), 0, -1, null));
+        }
+
+        List<IssueSnapshot> snapshots = sweep.issueSnapshotQuery.findIssues(repository, "is:open");
+
+        assertEquals(2500, snapshots.size());
+        assertEquals(2500, snapshots.stream().map(IssueSnapshot::getNumber).distinct().count());
+        assertTrue(graphQL.lastQuery.contains("created:"));
+
+        // Slices are counted before they are fetched, so only the first page of the search without a range is thrown away
+        assertEquals(1, graphQL.pagesOverLimit.get());
+    }
+
+    @Test
+    public void incremental() throws IOException {
+        for (int i = 1; i <= 249; i++) {
+            addIssue(i, 0, daysAgo(1), 5, daysAgo(1), "kind/bug", "priority/low", "status/auto-expire");
+        }
+        Instant latest = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        addIssue(250, 0, latest, 5, daysAgo(1), "kind/bug", "priority/low", "status/auto-expire");
+
+        sweep.sweep();
+        sweep.sweep();
+
+        // Only issues updated since the latest update seen by the previous run are searched for
+        assertEquals(4, graphQL.requests.get());
+        assertEquals("repo:myorg/myrepo is:issue updated:>=" + latest.minus(TriageSweep.OVERLAP), graphQL.lastQuery);
+
+        GHIssue expired = addIssue(251, 0, Instant.now(), 3, daysAgo(20), "kind/bug", "status/missing-information", "status/auto-expire");
+
+        sweep.sweep();
+
+        assertEquals(5, graphQL.requests.get());
+        assertEquals(expired, verifyUpdates(1).get(0).getIssue());
+    }
+
+    @Test
+    public void expiredWithoutUpdate() throws IOException {
+        sweep.autoExpire.lowPriorityExpiresDays = 200;
+
+        GHIssue low = addIssue(1, 0, daysAgo(100), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+        addIssue(2, 0, daysAgo(100), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+
+        sweep.sweep();
+
+        verify(sweep.gitHubRest, never()).updateIssue(any());
+
+        // Closed issues are removed from the candidates
+        graphQL.get(2).open = false;
+        graphQL.get(2).updatedAt = Instant.now();
+
+        sweep.autoExpire.lowPriorityExpiresDays = 90;
+        sweep.sweep();
+
+        assertEquals(2, graphQL.requests.get());
+        assertEquals(low, verifyUpdates(1).get(0).getIssue());
+    }
+
+    @Test
+    public void reconciled() throws IOException {
+        sweep.reconcileInterval = Duration.ZERO;
+
+        sweep.sweep();
+
+        // Not updated since the previous run, so only found with a full search
+        GHIssue low = addIssue(1, 0, daysAgo(100), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+
+        sweep.sweep();
+
+        assertEquals(low, verifyUpdates(1).get(0).getIssue());
+    }
+
+    @Test
+    public void failuresReported() throws IOException {
+        GHIssue failing = addIssue(1, 0, daysAgo(100), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+        GHIssue low = addIssue(2, 0, daysAgo(100), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+        when(failing.comment(anyString())).thenThrow(new IOException("Expected failure"));
+
+        sweep.sweep();
+
+        // The update of the failing issue is skipped as adding the comment failed, other issues are still updated
+        assertEquals(low, verifyUpdates(1).get(0).getIssue());
+        assertEquals(1.0, meterRegistry.counter("bot.triage.failed").count());
+
+        // Failed issues are tried again in the next run
+        graphQL.get(2).open = false;
+        graphQL.get(2).updatedAt = Instant.now();
+        sweep.sweep();
+
+        verify(failing, times(2)).comment(anyString());
+        verify(low, times(1)).comment(anyString());
+    }
+
+    @Test
+    public void repositoryOverrides() throws IOException {
+        GHRepository other = mock(GHRepository.class);
+        when(other.getFullName()).thenReturn("myorg/other");
+        when(gitHub.getRepository("myorg/other")).thenReturn(other);
+        when(sweep.gitHubProvider.getGitHubClient("myorg/other")).thenReturn(gitHub);
+        when(sweep.gitHubProvider.getGraphQLClient("myorg/other")).thenReturn(graphQL.client);
+
+        repositoryConfig.config = new SmallRyeConfigBuilder()
+                .withDefaultValue(RepositoryConfig.key("myorg/other", "autoExpire.low.expiresDays"), "30")
+                .build();
+        sweep.repositories = List.of("myorg/myrepo", "myorg/other");
+
+        addIssue(1, 0, daysAgo(40), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+        GHIssue expired = addIssue(other, 2, 0, daysAgo(40), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+
+        sweep.sweep();
+
+        assertEquals(expired, verifyUpdates(1).get(0).getIssue());
+    }
+
+    @Test
+    public void allRepositories() throws IOException {
+        GHRepository archived = mock(GHRepository.class);
+        when(archived.getFullName()).thenReturn("myorg/archived");
+        when(archived.isArchived()).thenReturn(true);
+        when(sweep.gitHubProvider.getAllInstalledRepositories()).thenReturn(Map.of(repository, gitHub, archived, gitHub));
+
+        sweep.repositories = List.of(TriageSweep.ALL_REPOSITORIES);
+
+        addIssue(1, 0, daysAgo(100), 0, null, "kind/bug", "priority/low", "status/auto-expire");
+
+        sweep.sweep();
+
+        verifyUpdates(1);
+        assertEquals(1, graphQL.requests.get());
+    }
+
+    private List<IssueUpdate> verifyUpdates(int count) throws IOException {
+        ArgumentCaptor<IssueUpdate> captor = ArgumentCaptor.forClass(IssueUpdate.class);
+        verify(sweep.gitHubRest, times(count)).updateIssue(captor.capture());
+        // Issues are updated in parallel, so the order of the updates is not known
+        return captor.getAllValues().stream().sorted(Comparator.comparingInt(u -> u.getIssue().getNumber())).toList();
+    }
+
+    private Instant daysAgo(int days) {
+        return Instant.now().minus(days, ChronoUnit.DAYS);
+    }
+
+    private GHIssue addIssue(int number, int reactions, Instant updatedAt, int comments, Instant botCommentAt, String... labels) throws IOException {
+        return addIssue(repository, number, reactions, updatedAt, comments, botCommentAt, labels);
+    }
+
+    private GHIssue addIssue(GHRepository repository, int number, int reactions, Instant updatedAt, int comments, Instant botCommentAt, String... labels) throws IOException {
+        URL url = new URL("https://api.github.com/repos/" + repository.getFullName() + "/issues/" + number);
+
+        GHIssue issue = mock(GHIssue.class);
+        when(issue.getNumber()).thenReturn(number);
+        when(issue.getState()).thenReturn(GHIssueState.OPEN);
+        when(issue.getUpdatedAt()).thenReturn(Date.from(updatedAt));
+        when(issue.getApiURL()).thenReturn(url);
+
+        List<GHLabel> ghLabels = List.of(labels).stream().map(l -> {
+            GHLabel label = mock(GHLabel.class);
+            when(label.getName()).thenReturn(l);
+            return label;
+        }).toList();
+        when(issue.getLabels()).thenReturn(ghLabels);
+
+        List<GHIssueComment> issueComments = new LinkedList<>();
+        int botIndex = graphQL.botCommentIndex >= 0 ? graphQL.botCommentIndex : comments - 1;
+        for (int i = 0; i < comments; i++) {
+            boolean bot = i == botIndex;
+            issueComments.add(createComment(number * 100L + i, bot ? BOT : "someone", bot ? botCommentAt : Instant.EPOCH));
+        }
+        PagedIterable<GHIssueComment> iterable = pagedIterable(issueComments);
+        when(issue.listComments()).thenReturn(iterable);
+
+        GHIssueComment expireComment = createComment(number * 100L + 99, BOT, Instant.now());
+        // GHIssue has a bridge method for comment that returns void, which thenReturn may pick up when validating
+        when(issue.comment(anyString())).thenAnswer(i -> expireComment);
+
+        when(repository.getIssue(number)).thenReturn(issue);
+        graphQL.issues.add(new IssueSpec(repository.getFullName(), number, labels, reactions, updatedAt, comments, botIndex, botCommentAt));
+        return issue;
+    }
+
+    private GHIssueComment createComment(long id, String login, Instant updatedAt) throws IOException {
+        String json = new JsonObject()
+                .put("action", "created")
+                .put("comment", new JsonObject()
+                        .put("id", id)
+                        .put("updated_at", updatedAt.toString())
+                        .put("user", new JsonObject().put("login", login)))
+                .encode();
+        return GitHub.offline().parseEventPayload(new StringReader(json), GHEventPayload.IssueComment.class).getComment();
+    }
+
+    private static class IssueSpec {
+
+        final String repository;
+        final int number;
+        final int reactions;
+        final int comments;
+        final int botIndex;
+        final Instant botCommentAt;
+        String[] labels;
+        Instant updatedAt;
+        Instant createdAt;
+        boolean open = true;
+
+        IssueSpec(String repository, int number, String[] labels, int reactions, Instant updatedAt, int comments, int botIndex, Instant botCommentAt) {
+            this.repository = repository;
+            this.number = number;
+            this.labels = labels;
+            this.reactions = reactions;
+            this.updatedAt = updatedAt;
+            this.comments = comments;
+            this.botIndex = botIndex;
+            this.botCommentAt = botCommentAt;
+            this.createdAt = Instant.parse("2020-01-01T00:00:00Z").plus(number, ChronoUnit.HOURS);
+        }
+
+        boolean matches(String query) {
+            if (!query.startsWith("repo:" + repository + " ")) {
+                return false;
+            }
+            if (query.contains("is:open") && !open) {
+                return false;
+            }
+            if (query.contains("label:\"status/auto-expire\"") && !List.of(labels).contains("status/auto-expire")) {
+                return false;
+            }
+            int created = query.indexOf("created:");
+            if (created != -1) {
+                String[] range = query.substring(created + "created:".length()).split(" ")[0].split("\\.\\.");
+                if (createdAt.isBefore(Instant.parse(range[0])) || createdAt.isAfter(Instant.parse(range[1]))) {
+                    return false;
+                }
+            }
+            int updated = query.indexOf("updated:>=");
+            return updated == -1 || !updatedAt.isBefore(Instant.parse(query.substring(updated + "updated:>=".length()).split(" ")[0]));
+        }
+
+    }
+
+    /**
+     * Answers the search query of {@link IssueSnapshotQuery} from a list of issues, with the same pagination and limit on
+     * the number of results as GitHub
+     */
+    private static class GraphQLStandIn {
+
+        final DynamicGraphQLClient client = mock(DynamicGraphQLClient.class);
+        final List<IssueSpec> issues = Collections.synchronizedList(new LinkedList<>());
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger pagesOverLimit = new AtomicInteger();
+        String lastQuery;
+        int botCommentIndex = -1;
+
+        GraphQLStandIn() {
+            try {
+                when(client.executeSync(anyString(), anyMap())).thenAnswer(i -> search(i.getArgument(1)));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        IssueSpec get(int number) {
+            return issues.stream().filter(i -> i.number == number).findFirst().orElseThrow();
+        }
+
+        private Response search(Map<String, Object> variables) {
+            requests.incrementAndGet();
+            lastQuery = (String) variables.get("query");
+
+            List<IssueSpec> all = issues.stream().filter(i -> i.matches((String) variables.get("query"))).toList();
+            List<IssueSpec> matching = all.subList(0, Math.min(all.size(), IssueSnapshotQuery.SEARCH_LIMIT));
+
+            // The count query only has the search query
+            int first = (Integer) variables.getOrDefault("first", 0);
+            int comments = (Integer) variables.getOrDefault("comments", 0);
+            String after = (String) variables.get("after");
+            if (first > 0 && after == null && all.size() > IssueSnapshotQuery.SEARCH_LIMIT) {
+                pagesOverLimit.incrementAndGet();
+            }
+            int start = after != null ? Integer.parseInt(after) : 0;
+            int end = Math.min(start + first, matching.size());
+
+            JsonArray nodes = new JsonArray();
+            for (IssueSpec issue : matching.subList(start, end)) {
+                JsonArray commentNodes = new JsonArray();
+                for (int c = Math.max(0, issue.comments - comments); c < issue.comments; c++) {
+                    boolean bot = c == issue.botIndex;
+                    commentNodes.add(new JsonObject()
+                            .put("updatedAt", bot ? issue.botCommentAt.toString() : Instant.EPOCH.toString())
+                            .put("author", new JsonObject().put("login", bot ? "keycloak-github-bot" : "someone")));
+                }
+
+                JsonArray labelNodes = new JsonArray();
+                for (String label : issue.labels) {
+                    labelNodes.add(new JsonObject().put("name", label));
+                }
+
+                nodes.add(new JsonObject()
+                        .put("number", issue.number)
+                        .put("state", issue.open ? "OPEN" : "CLOSED")
+                        .put("updatedAt", issue.updatedAt.toString())
+                        .put("labels", new JsonObject().put("nodes", labelNodes))
+                        .put("reactions", new JsonObject().put("totalCount", issue.reactions))
+                        .put("comments", new JsonObject().put("totalCount", issue.comments).put("nodes", commentNodes)));
+            }
+
+            JsonObject data = new JsonObject().put("search", new JsonObject()
+                    .put("issueCount", all.size())
+                    .put("pageInfo", new JsonObject().put("hasNextPage", end < matching.size()).put("endCursor", String.valueOf(end)))
+                    .put("nodes", nodes));
+
+            Response response = mock(Response.class);
+            when(response.hasError()).thenReturn(false);
+            when(response.getData()).thenReturn(Json.createReader(new StringReader(data.encode())).readObject());
+            return response;
+        }
+
+    }
+
+}
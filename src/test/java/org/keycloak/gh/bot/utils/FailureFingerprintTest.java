@@ -0,0 +1,59 @@
+package org.keycloak.gh.bot.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class FailureFingerprintTest {
+
+    @Test
+    public void normalize() {
+        assertEquals("at org.keycloak.MyTest.test(MyTest.java:0)", FailureFingerprint.normalize("\tat org.keycloak.MyTest.test(MyTest.java:123)"));
+        assertEquals("Connection refused: localhost/127.0.0.1:0", FailureFingerprint.normalize("Connection refused: localhost/127.0.0.1:41234"));
+        assertEquals("at org.keycloak.MyTest$$Lambda$0/0x0.run(Unknown Source)", FailureFingerprint.normalize("at org.keycloak.MyTest$$Lambda$1234/0x00000008012a3b40.run(Unknown Source)"));
+        assertEquals("at org.keycloak.MyTest.lambda$test$0(MyTest.java:0)", FailureFingerprint.normalize("at org.keycloak.MyTest.lambda$test$3(MyTest.java:50)"));
+        assertEquals("at jdk.internal.reflect.GeneratedMethodAccessor0.invoke(Unknown Source)", FailureFingerprint.normalize("at jdk.internal.reflect.GeneratedMethodAccessor87.invoke(Unknown Source)"));
+        assertEquals("at com.sun.proxy.$Proxy0.get(Unknown Source)", FailureFingerprint.normalize("at com.sun.proxy.$Proxy42.get(Unknown Source)"));
+        assertEquals("User <uuid> not found", FailureFingerprint.normalize("User 3f2b8c1e-9d4a-4e7b-a1c2-0e5f6d7a8b9c not found"));
+        assertEquals("User <uuid> not found", FailureFingerprint.normalize("User a3f2b8c1-9d4a-4e7b-a1c2-0e5f6d7a8b9c not found"));
+        assertEquals("Expired at <time>, now <time>", FailureFingerprint.normalize("Expired at 2026-10-18T12:01:02.345Z, now 2026-10-18 12:01:03+02:00"));
+        assertEquals("Timeout after <time>", FailureFingerprint.normalize("Timeout after 00:00:30"));
+        assertEquals("expected: org.keycloak.Session@0 but was: null", FailureFingerprint.normalize("expected: org.keycloak.Session@1b2c3d4e but was: null"));
+        assertEquals("a b c", FailureFingerprint.normalize("  a \t b\n\n c \n"));
+
+        // Numbers in messages and identifiers are kept
+        assertEquals("expected: <1> but was: <2>", FailureFingerprint.normalize("expected: <1> but was: <2>"));
+        assertEquals("at org.keycloak.Base64Test.test(Base64Test.java:0)", FailureFingerprint.normalize("at org.keycloak.Base64Test.test(Base64Test.java:7)"));
+        assertEquals("admin@keycloak.org", FailureFingerprint.normalize("admin@keycloak.org"));
+    }
+
+    @Test
+    public void signature() {
+        String first = "java.lang.AssertionError: expected 200 at 2026-10-18T12:00:00Z\n\tat org.keycloak.MyTest.test(MyTest.java:10)\n\tat org.keycloak.MyTest$$Lambda$12/0x1a.run(Unknown Source)";
+        String second = "java.lang.AssertionError: expected 200 at 2026-10-19T08:30:00Z\n    at org.keycloak.MyTest.test(MyTest.java:12)\n    at org.keycloak.MyTest$$Lambda$15/0x2b.run(Unknown Source)";
+        String other = "java.lang.AssertionError: expected 404 at 2026-10-19T08:30:00Z\n\tat org.keycloak.MyTest.test(MyTest.java:12)";
+
+        assertEquals(16, FailureFingerprint.signature(first).length());
+        assertEquals(FailureFingerprint.signature(first), FailureFingerprint.signature(second));
+        assertNotEquals(FailureFingerprint.signature(first), FailureFingerprint.signature(other));
+
+        // The signature is the hash of the normalized string
+        assertEquals(FailureFingerprint.hash(first), FailureFingerprint.hash(FailureFingerprint.normalize(second)));
+    }
+
+    @Test
+    public void flakyTest() {
+        FlakyTest flakyTest = new FlakyTest(new FlakyJob(), "org.keycloak.MyTest", "test");
+        flakyTest.addFailure("java.lang.AssertionError\n\tat org.keycloak.MyTest.test(MyTest.java:10)");
+        flakyTest.addFailure("java.lang.AssertionError\n\tat org.keycloak.MyTest.test(MyTest.java:11)");
+        flakyTest.addFailure("java.lang.NullPointerException\n\tat org.keycloak.MyTest.test(MyTest.java:10)");
+
+        assertEquals(2, flakyTest.getFailures().size());
+        assertEquals(2, flakyTest.getFlakyFailures().get(0).getCount());
+        assertEquals(1, flakyTest.getFlakyFailures().get(1).getCount());
+        assertEquals("java.lang.AssertionError\n\tat org.keycloak.MyTest.test(MyTest.java:10)", flakyTest.getFailures().get(0));
+        assertEquals(1, flakyTest.getIssueBody().split("Seen 2 times").length - 1);
+    }
+
+}
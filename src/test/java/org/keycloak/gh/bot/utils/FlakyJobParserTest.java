@@ -1,11 +1,19 @@
 package org.keycloak.gh.bot.utils;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.startsWith;
@@ -14,10 +22,12 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 
 public class FlakyJobParserTest {
 
+    @TempDir
+    Path tempDir;
+
     @Test
     public void testPr() throws IOException {
-        InputStream is = FlakyJobParserTest.class.getResourceAsStream("flaky-tests-pr.zip");
-        FlakyJob flakyJob = FlakyJobParser.parse(is);
+        FlakyJob flakyJob = parse("flaky-tests-pr.zip");
         flakyJob.setWorkflow("Keycloak CI");
 
         List<FlakyTest> flakyTests = flakyJob.getFlakyTests();
@@ -34,8 +44,7 @@ public class FlakyJobParserTest {
 
     @Test
     public void testPush() throws IOException {
-        InputStream is = FlakyJobParserTest.class.getResourceAsStream("flaky-tests-push.zip");
-        FlakyJob flakyJob = FlakyJobParser.parse(is);
+        FlakyJob flakyJob = parse("flaky-tests-push.zip");
         flakyJob.setWorkflow("Keycloak CI");
 
         List<FlakyTest> flakyTests = flakyJob.getFlakyTests();
@@ -53,6 +62,74 @@ public class FlakyJobParserTest {
                 "\tat playground.stianst.github.io.MyOtherFlakyTest.otherFlaky(MyOtherFlakyTest.java:4)", true, 1);
     }
 
+    @Test
+    public void largeStackTraces() throws IOException {
+        // Only the first lines of each stack trace are kept
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int r = 0; r < 3; r++) {
+                zip.putNextEntry(new ZipEntry("target/surefire-reports/TEST-my.Flaky" + r + "Test.xml"));
+                zip.write(createReport("my.Flaky" + r + "Test", 100000).getBytes(StandardCharsets.UTF_8));
+            }
+            zip.putNextEntry(new ZipEntry("target/surefire-reports/TEST-my.ShortTest.xml"));
+            zip.write(createReport("my.ShortTest", 4).getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("target/surefire-reports/my.IgnoredTest.xml"));
+            zip.write(createReport("my.IgnoredTest", 4).getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Reports are parsed in parallel, but the flaky tests are still in the order of the reports
+        Path file = tempDir.resolve("flaky-tests.zip");
+        Files.write(file, bytes.toByteArray());
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            assertLargeStackTraces(FlakyJobParser.parse(zipFile, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Artifacts are parsed from a file, the same way as downloaded artifacts
+    private FlakyJob parse(String resource) throws IOException {
+        Path file = tempDir.resolve(resource);
+        try (InputStream is = FlakyJobParserTest.class.getResourceAsStream(resource)) {
+            Files.copy(is, file);
+        }
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            return FlakyJobParser.parse(zipFile, ForkJoinPool.commonPool());
+        }
+    }
+
+    private void assertLargeStackTraces(FlakyJob flakyJob) {
+        List<FlakyTest> flakyTests = flakyJob.getFlakyTests();
+        assertEquals(4, flakyTests.size());
+        assertEquals("my.Flaky0Test", flakyTests.get(0).getClassName());
+        assertEquals("java.lang.AssertionError: flaky\n" +
+                "\tat my.Flaky2Test.flaky(Flaky.java:0)\n" +
+                "\tat my.Flaky2Test.flaky(Flaky.java:1)\n" +
+                "\tat my.Flaky2Test.flaky(Flaky.java:2)\n" +
+                "\tat my.Flaky2Test.flaky(Flaky.java:3)\n" +
+                "...", flakyTests.get(2).getFailures().get(0));
+
+        // Whitespace after the last line is not a trimmed line
+        assertEquals("java.lang.AssertionError: flaky\n" +
+                "\tat my.ShortTest.flaky(Flaky.java:0)\n" +
+                "\tat my.ShortTest.flaky(Flaky.java:1)\n" +
+                "\tat my.ShortTest.flaky(Flaky.java:2)\n" +
+                "\tat my.ShortTest.flaky(Flaky.java:3)", flakyTests.get(3).getFailures().get(0));
+    }
+
+    private String createReport(String className, int stackTraceLines) {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"").append(className).append("\">\n");
+        xml.append("  <testcase name=\"flaky\" classname=\"").append(className).append("\">\n");
+        xml.append("    <flakyFailure type=\"java.lang.AssertionError\">\n      <stackTrace><![CDATA[\n  java.lang.AssertionError: flaky\n");
+        for (int l = 0; l < stackTraceLines; l++) {
+            xml.append("\tat ").append(className).append(".flaky(Flaky.java:").append(l).append(")\n");
+        }
+        xml.append("  \n]]></stackTrace>\n    </flakyFailure>\n  </testcase>\n</testsuite>\n");
+        return xml.toString();
+    }
+
     private void assertFlaky(FlakyTest flakyTest, String expectedClassName, String expectedMethodName, String expectedFailure, boolean startsWith, int expectedFailureRepeats) throws IOException {
         assertEquals(expectedClassName, flakyTest.getClassName());
         assertEquals(expectedMethodName, flakyTest.getMethodName());